@@ -0,0 +1,254 @@
+package org.example.chatft.benchmark;
+
+import org.example.chatft.config.NetworkConfig;
+import org.example.chatft.handler.TcpConnectionHandler;
+import org.example.chatft.protocol.StreamPriority;
+import org.example.chatft.repository.GroupRepository;
+import org.example.chatft.service.FileTransferService;
+import org.example.chatft.service.FrameStream;
+import org.example.chatft.service.LinkHealthRegistry;
+import org.example.chatft.service.PeerConnectionPool;
+import org.example.chatft.service.TcpReactor;
+import org.example.chatft.service.TcpService;
+import org.example.chatft.utils.ExecutionModel;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrent group-file downloads under each ExecutionModel: peak platform threads, peak
+ * heap and process memory, and per-download latency. One serving peer and the
+ * downloading tasks run in this JVM over loopback; each download is a blocking task on
+ * the model's executor, as in FileTransferService.
+ *
+ * Usage: DownloadBenchmark [downloads=1000] [fileKb=256] [platform|virtual|both]
+ */
+public final class DownloadBenchmark {
+    private static final String GROUP = "bench";
+    private static final String FILE = "bench.bin";
+    private static final int DOWNLOADS_PER_CONNECTION = 128;   // below TCP_MAX_STREAMS_PER_CONNECTION
+    private static final long SAMPLE_INTERVAL_MS = 10;
+
+    private final int port;
+    private final TcpReactor clientReactor;
+    private final ScheduledExecutorService scheduler;
+
+    private DownloadBenchmark(int port, TcpReactor clientReactor, ScheduledExecutorService scheduler) {
+        this.port = port;
+        this.clientReactor = clientReactor;
+        this.scheduler = scheduler;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("chatft.log.level") == null) {
+            System.setProperty("chatft.log.level", "WARN"); // one INFO line per served file otherwise
+        }
+        int downloads = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int fileKb = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        String which = args.length > 2 ? args[2] : "both";
+
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bench-timer");
+            t.setDaemon(true);
+            return t;
+        });
+
+        // Serving peer: group files are pumped from the reactor, whatever the model
+        Path file = Files.createTempFile("chatft-bench", ".bin");
+        file.toFile().deleteOnExit();
+        Files.write(file, new byte[fileKb * 1024]);
+        GroupRepository groups = new GroupRepository();
+        groups.addDiscoveredGroup(GROUP, true);
+        groups.joinPublicGroup(GROUP);
+        groups.addGroupFile(GROUP, FILE, file.toString());
+
+        TcpReactor serverReactor = new TcpReactor(NetworkConfig.TCP_IO_THREADS);
+        serverReactor.start();
+        ExecutorService serverExecutor = ExecutionModel.PLATFORM.newTaskExecutor("bench-server");
+        PeerConnectionPool serverPool = new PeerConnectionPool(serverReactor, scheduler, new LinkHealthRegistry());
+        FileTransferService serverFiles = new FileTransferService("server", serverExecutor, serverPool, f -> {});
+        TcpConnectionHandler handler = new TcpConnectionHandler("server", groups, serverFiles, serverExecutor, m -> {}, f -> {});
+        TcpService server = new TcpService("server", scheduler, serverReactor, handler, serverPool);
+        server.startListener();
+
+        TcpReactor clientReactor = new TcpReactor(NetworkConfig.TCP_IO_THREADS);
+        clientReactor.start();
+        DownloadBenchmark benchmark = new DownloadBenchmark(server.getTcpPort(), clientReactor, scheduler);
+
+        System.out.println("Downloads: " + downloads + " x " + fileKb + " KB, "
+                + Runtime.getRuntime().availableProcessors() + " cores, " + System.getProperty("java.version"));
+        benchmark.run(ExecutionModel.PLATFORM, Math.min(downloads, 100)); // warm-up, not reported
+
+        for (ExecutionModel model : ExecutionModel.values()) {
+            if (which.equalsIgnoreCase("both") || which.equalsIgnoreCase(model.name())) {
+                System.out.println(benchmark.run(model, downloads));
+            }
+        }
+
+        server.shutdown();
+        serverReactor.shutdown();
+        clientReactor.shutdown();
+        serverExecutor.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Start every download at once and wait for all of them
+     */
+    private Result run(ExecutionModel model, int downloads) throws InterruptedException {
+        System.gc();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        Result result = new Result(model, downloads);
+        result.threadsBefore = threads.getThreadCount();
+        result.heapBefore = memory.getHeapMemoryUsage().getUsed();
+        result.rssBefore = residentBytes();
+
+        AtomicInteger peakThreads = new AtomicInteger(result.threadsBefore);
+        AtomicLong peakHeap = new AtomicLong(result.heapBefore);
+        AtomicLong peakRss = new AtomicLong(result.rssBefore);
+        ScheduledFuture<?> sampler = scheduler.scheduleAtFixedRate(() -> {
+            peakThreads.accumulateAndGet(threads.getThreadCount(), Math::max);
+            peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+            peakRss.accumulateAndGet(residentBytes(), Math::max);
+        }, 0, SAMPLE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        List<PeerConnectionPool> pools = new ArrayList<>();
+        for (int i = 0; i < downloads; i += DOWNLOADS_PER_CONNECTION) {
+            pools.add(new PeerConnectionPool(clientReactor, scheduler, new LinkHealthRegistry()));
+        }
+        long[] latencies = new long[downloads];
+        AtomicInteger failed = new AtomicInteger();
+        AtomicLong bytes = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(downloads);
+
+        ExecutorService executor = model.newTaskExecutor("bench-" + model.name().toLowerCase());
+        long start = System.nanoTime();
+        for (int i = 0; i < downloads; i++) {
+            int index = i;
+            PeerConnectionPool pool = pools.get(i / DOWNLOADS_PER_CONNECTION);
+            executor.execute(() -> {
+                long begin = System.nanoTime();
+                try {
+                    bytes.addAndGet(download(pool));
+                } catch (IOException e) {
+                    failed.incrementAndGet();
+                }
+                latencies[index] = System.nanoTime() - begin;
+                done.countDown();
+            });
+        }
+        done.await();
+        result.elapsedNanos = System.nanoTime() - start;
+
+        sampler.cancel(false);
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        for (PeerConnectionPool pool : pools) {
+            pool.closeAll();
+        }
+
+        result.peakThreads = peakThreads.get();
+        result.peakHeap = peakHeap.get();
+        result.peakRss = peakRss.get();
+        result.bytes = bytes.get();
+        result.failed = failed.get();
+        Arrays.sort(latencies);
+        result.latencies = latencies;
+        return result;
+    }
+
+    /**
+     * One group file download, read the way FileTransferService reads it
+     * @return body bytes received
+     */
+    private long download(PeerConnectionPool pool) throws IOException {
+        FrameStream stream = pool.open("127.0.0.1", port, StreamPriority.BULK,
+                "REQUEST_GROUP_FILE:" + GROUP + ":" + FILE, true);
+        try {
+            DataInputStream in = new DataInputStream(stream.in());
+            String response = in.readUTF();
+            if (!response.startsWith("GROUP_FILE")) {
+                throw new IOException(response);
+            }
+            return in.transferTo(OutputStream.nullOutputStream());
+        } finally {
+            if (!stream.isDone()) {
+                stream.reset("benchmark");
+            }
+        }
+    }
+
+    /**
+     * Resident set size from /proc (Linux), or -1 where that isn't available
+     */
+    private static long residentBytes() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // not Linux
+        }
+        return -1;
+    }
+
+    private static class Result {
+        final ExecutionModel model;
+        final int downloads;
+        int threadsBefore;
+        int peakThreads;
+        long heapBefore;
+        long peakHeap;
+        long rssBefore;
+        long peakRss;
+        long elapsedNanos;
+        long bytes;
+        int failed;
+        long[] latencies;
+
+        Result(ExecutionModel model, int downloads) {
+            this.model = model;
+            this.downloads = downloads;
+        }
+
+        private long percentileMs(double p) {
+            int index = Math.min(latencies.length - 1, (int) Math.ceil(p * latencies.length) - 1);
+            return TimeUnit.NANOSECONDS.toMillis(latencies[Math.max(0, index)]);
+        }
+
+        @Override
+        public String toString() {
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+            return String.format("%-8s downloads=%d failed=%d time=%d ms (%.1f MB/s)%n"
+                            + "         platform threads %d -> peak %d%n"
+                            + "         heap used +%d MB peak, process RSS %s%n"
+                            + "         latency p50=%d ms p90=%d ms p99=%d ms max=%d ms",
+                    model, downloads, failed, elapsedMs, bytes / 1e6 / Math.max(1, elapsedMs) * 1000,
+                    threadsBefore, peakThreads,
+                    (peakHeap - heapBefore) >> 20,
+                    rssBefore < 0 ? "n/a" : "+" + ((peakRss - rssBefore) >> 20) + " MB peak",
+                    percentileMs(0.50), percentileMs(0.90), percentileMs(0.99), percentileMs(1.0));
+        }
+    }
+}
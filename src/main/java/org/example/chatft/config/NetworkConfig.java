@@ -4,21 +4,139 @@ public class NetworkConfig {
     // Network ports
     public static final int UDP_PORT = 8888;
     public static final String MULTICAST_GROUP = "230.0.0.1";
+    public static final int UDP_RECEIVE_BUFFER_SIZE = 65536; // max UDP payload
 
     // File transfer
     public static final String DOWNLOAD_DIR = "downloads";
     public static final int FILE_BUFFER_SIZE = 4096;
 
     // Multicast settings
-    public static final int MULTICAST_TTL = 4;
+    public static final int MULTICAST_TTL = 32;
 
-    // Cleanup intervals
-    public static final long MESSAGE_CLEANUP_INTERVAL_MS = 10000; // 10 seconds
-    public static final long MESSAGE_DEDUP_WINDOW_MS = 100; // 100ms
+    // Deduplication (per-sender sliding window)
+    public static final int DEDUP_WINDOW_SIZE = 1024; // sequence numbers remembered per sender
+    public static final int DEDUP_MAX_PEERS = 256;    // senders tracked at once
 
-    // Network timeouts
-    public static final int TCP_SEND_DELAY_MS = 50;
-    public static final int FILE_SEND_DELAY_MS = 100;
+    // Presence heartbeats
+    public static final int HEARTBEAT_MIN_INTERVAL_MS = 2000;
+    public static final int HEARTBEAT_MAX_INTERVAL_MS = 60000;
+    public static final int PRESENCE_TARGET_RATE = 10;         // heartbeats per second for the whole LAN
+    public static final int PRESENCE_EXPIRY_FACTOR = 3;        // missed heartbeats before a peer expires
+    public static final int PRESENCE_HEARSAY_EXPIRY_FACTOR = 2; // intervals a peer known only from a roster has to send its own
+    public static final long PRESENCE_SWEEP_INTERVAL_MS = 1000;
+    public static final long PRESENCE_RESPONSE_BASE_DELAY_MS = 50;      // reply window to a new peer: base
+    public static final long PRESENCE_RESPONSE_DELAY_PER_PEER_MS = 10;  //   + per known peer
+    public static final long PRESENCE_RESPONSE_MAX_DELAY_MS = 1000;     //   capped here
+    public static final long OFFLINE_NOTIFY_DEADLINE_MS = 300;          // shutdown waits this long for all TCP offline acks together
+
+    // Group catalog anti-entropy
+    public static final int GROUP_DIGEST_BUCKETS = 16;         // must be a power of two, <= 32
+    public static final long GROUP_SYNC_HOLDOFF_MS = 1000;     // don't re-request/re-send a bucket within this window
+    public static final int UDP_SAFE_PAYLOAD_SIZE = 1200;      // keep multi-entry datagrams below a typical MTU
+    public static final long GROUP_REFRESH_INTERVAL_MS = 60_000;   // a member re-announces a group nobody announced for this long
+    public static final long GROUP_REFRESH_CHECK_MS = 15_000;
+    public static final long GROUP_EXPIRY_MS = 3 * GROUP_REFRESH_INTERVAL_MS; // then a group no member announced is dropped
+
+    // Interface watcher: rejoin multicast / rebuild send plan after Wi-Fi, VPN or DHCP changes
+    public static final long INTERFACE_WATCH_INTERVAL_MS = 3000;
+
+    // Send-side coalescing of small control messages into one BATCH datagram
+    public static final long UDP_BATCH_WINDOW_MS = 3;
+
+    // Inbound flood protection (token buckets per source IP and per message type, see InboundRateLimiter)
+    public static final int RATE_LIMIT_MAX_SOURCES = 1024;
+    public static final double RATE_LIMIT_SOURCE_PER_SEC = 3000;
+    public static final double RATE_LIMIT_SOURCE_BURST = 1500;
+    public static final double RATE_LIMIT_PRESENCE_PER_SEC = 5;
+    public static final double RATE_LIMIT_PRESENCE_BURST = 20;
+    public static final double RATE_LIMIT_CATALOG_PER_SEC = 20;
+    public static final double RATE_LIMIT_CATALOG_BURST = 100;
+    public static final double RATE_LIMIT_CHAT_PER_SEC = 200;
+    public static final double RATE_LIMIT_CHAT_BURST = 500;     // a max-size fragmented message, twice
+    public static final double RATE_LIMIT_SIGNAL_PER_SEC = 2;
+    public static final double RATE_LIMIT_SIGNAL_BURST = 10;
+    public static final double RATE_LIMIT_VIDEO_PER_SEC = 2000;
+    public static final double RATE_LIMIT_VIDEO_BURST = 1000;
+
+    // Receive queues, one per traffic class (see UdpDispatcher)
+    public static final int UDP_QUEUE_PRESENCE_CAPACITY = 1024;
+    public static final int UDP_QUEUE_GROUP_CAPACITY = 4096;
+    public static final int UDP_QUEUE_FILE_CAPACITY = 256;
+    public static final int UDP_QUEUE_VIDEO_CAPACITY = 128;     // about two frames of fragments, latest wins
+
+    // Fragmentation of datagrams larger than the path MTU
+    public static final int UDP_DEFAULT_MAX_DATAGRAM = 1472;        // Ethernet MTU - IPv4/UDP headers
+    public static final int UDP_MIN_MAX_DATAGRAM = 548;             // 576 (minimum IPv4 reassembly) - headers
+    public static final int FRAGMENT_MAX_COUNT = 256;
+    public static final int FRAGMENT_MAX_MESSAGE_SIZE = 256 * 1024;
+    public static final long FRAGMENT_MAX_PENDING_BYTES = 4L * 1024 * 1024;
+    public static final long FRAGMENT_TIMEOUT_MS = 3000;
+
+    // Reliable group messages (NACK-based)
+    public static final int RELIABLE_RETRANSMIT_BUFFER = 256;       // sent messages kept for repair, power of two
+    public static final int RELIABLE_MAX_HELD = 256;                // out-of-order messages held per sender
+    public static final long RELIABLE_TICK_MS = 50;
+    public static final long RELIABLE_NACK_DELAY_MS = 30;           // random NACK delay (suppression window)
+    public static final long RELIABLE_NACK_INTERVAL_MS = 200;       // between NACKs for the same gap
+    public static final int RELIABLE_MAX_NACK_ATTEMPTS = 5;         // then the gap is skipped
+    public static final int RELIABLE_MAX_NACK_RANGES = 16;
+    public static final long RELIABLE_RETRANSMIT_HOLDOFF_MS = 50;   // one repair per message within this window
+    public static final long RELIABLE_TAIL_DELAY_MS = 200;          // idle time before advertising highest sequence
+    public static final long RELIABLE_STREAM_IDLE_MS = 10 * 60 * 1000;
+
+    // Pooled peer TCP connections (see PeerConnectionPool)
+    public static final int TCP_CONNECT_TIMEOUT_MS = 2000;
+    public static final int TCP_ACCEPT_BACKLOG = 256;               // dials are asynchronous, so many can arrive at once
+    public static final long TCP_IDLE_TIMEOUT_MS = 30_000;          // sender closes an unused connection
+    public static final int TCP_READ_IDLE_TIMEOUT_MS = 90_000;      // receiver gives up later, so the sender always closes first
+    public static final long TCP_IDLE_CHECK_INTERVAL_MS = 5_000;
+
+    // Multiplexed streams on a peer connection (see PeerConnection, FrameStream)
+    public static final int TCP_FRAME_MAX_PAYLOAD = 64 * 1024;      // also caps a stream header; message text goes in the body
+    public static final long TCP_MAX_TEXT_BODY = 16L * 1024 * 1024;  // longest chat message or signaling payload, UTF-8 bytes
+    public static final int TCP_DATA_CHUNK_SIZE = 16 * 1024;        // bounds how long a chat frame waits behind file data
+    public static final int TCP_STREAM_WINDOW = 256 * 1024;         // unread bytes a sender may have in flight per stream
+    public static final long TCP_ACK_TIMEOUT_MS = 5_000;            // peer must acknowledge a message (or a file's last byte) within this
+    public static final long TCP_ACK_MIN_TIMEOUT_MS = 1_000;        // message ack timeout once the RTT is known: this plus two RTOs
+    public static final int TCP_MAX_STREAMS_PER_CONNECTION = 256;
+
+    // Request/response calls between peers (see RpcService)
+    public static final long RPC_TIMEOUT_MS = 5_000;                // default wait for a reply, handling on the other side included
+    public static final long VIDEO_CALL_RING_TIMEOUT_MS = 30_000;   // callee has this long to accept or reject a call
+
+    // Store-and-forward for peers we can't reach (see Outbox, OutboxJournal)
+    public static final String OUTBOX_DIR = "outbox";               // one journal per destination peer
+    public static final long OUTBOX_RETRY_INITIAL_MS = 1_000;       // first replay after a failed send, doubled after each failure
+    public static final long OUTBOX_RETRY_MAX_MS = 60_000;          // until here; presence of the peer replays at once
+
+    // Non-blocking TCP I/O (see TcpReactor): fixed thread count, however many peers connect
+    public static final int TCP_IO_THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    public static final int TCP_READ_BUFFER_SIZE = 64 * 1024;
+    public static final int TCP_WRITE_BATCH_FRAMES = 64;            // queued frames gathered into one write
+    public static final int TCP_WRITE_BATCH_BYTES = 64 * 1024;      // and about this many bytes, so an urgent frame waits one batch at most
+
+    // Per-peer link estimates (see LinkHealthRegistry)
+    public static final long LINK_PING_INTERVAL_MS = 1_000;         // at most one PING per connection this often, only along with traffic
+    public static final int LINK_LOSS_WINDOW = 64;                  // UDP sequence numbers per loss sample
+    public static final double LINK_LOSS_GAIN = 0.25;               // weight of the newest loss sample
+    public static final int LINK_LOSS_MAX_GAP = DEDUP_WINDOW_SIZE;  // a bigger jump restarts the count instead of counting as loss
+    public static final int LINK_MAX_SENDERS_PER_HOST = 4;          // peer ids tracked per address (restarts, video)
+
+    // Video frame rate and JPEG quality, picked from the link estimate to the other party
+    public static final long VIDEO_FRAME_INTERVAL_MS = 200;         // 5 FPS: unknown or average link
+    public static final long VIDEO_FRAME_INTERVAL_GOOD_MS = 100;    // 10 FPS on a clean link
+    public static final long VIDEO_FRAME_INTERVAL_POOR_MS = 333;    // 3 FPS on a lossy or slow one
+    public static final float VIDEO_QUALITY = 0.3f;
+    public static final float VIDEO_QUALITY_GOOD = 0.5f;
+    public static final float VIDEO_QUALITY_POOR = 0.2f;
+    public static final double VIDEO_LOSS_GOOD = 0.01;              // clean: loss below this
+    public static final double VIDEO_LOSS_POOR = 0.05;              // poor: loss above this
+    public static final double VIDEO_RTT_GOOD_MS = 50;              // clean: RTT below this
+    public static final double VIDEO_RTT_POOR_MS = 250;             // poor: RTT above this
+
+    // CPU-bound work on bounded platform pools (see ExecutionModel.newCpuPool)
+    public static final int VIDEO_ENCODE_QUEUE = 2;                 // captured frames waiting for JPEG encode, oldest dropped
+    public static final int VIDEO_DECODE_QUEUE = 2;                 // received frames waiting for JPEG decode, oldest dropped
 
     private NetworkConfig() {
         // Prevent instantiation
@@ -1,114 +1,124 @@
 package org.example.chatft.handler;
 
+import org.example.chatft.config.NetworkConfig;
 import org.example.chatft.model.FileMessage;
 import org.example.chatft.repository.GroupRepository;
 import org.example.chatft.service.FileTransferService;
+import org.example.chatft.service.FrameStream;
+import org.example.chatft.service.RpcService;
+import org.example.chatft.utils.Logger;
 
 import java.io.*;
-import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 import java.util.function.Consumer;
 
 public class TcpConnectionHandler {
+    private static final Logger log = Logger.get("TCP");
+
     private final String nickname;
     private final GroupRepository groupRepository;
     private final FileTransferService fileTransferService;
+    private final ExecutorService executor;
     private final Consumer<String> onMessage;
     private final Consumer<FileMessage> onFileReceived;
-    private Consumer<String[]> onVideoCallRequest;
-    private Consumer<String[]> onSdpOffer;
-    private Consumer<String[]> onSdpAnswer;
-    private Consumer<String[]> onIceCandidate;
-    private Consumer<String> onCallEnd;
     private Consumer<String> onUserOfflineTcp;
+    private RpcService rpcService;
 
     public TcpConnectionHandler(String nickname,
                                 GroupRepository groupRepository,
                                 FileTransferService fileTransferService,
+                                ExecutorService executor,
                                 Consumer<String> onMessage,
                                 Consumer<FileMessage> onFileReceived) {
         this.nickname = nickname;
         this.groupRepository = groupRepository;
         this.fileTransferService = fileTransferService;
+        this.executor = executor;
         this.onMessage = onMessage;
         this.onFileReceived = onFileReceived;
     }
     
-    public void setOnVideoCallRequest(Consumer<String[]> callback) {
-        this.onVideoCallRequest = callback;
-    }
-    
-    public void setOnSdpOffer(Consumer<String[]> callback) {
-        this.onSdpOffer = callback;
-    }
-    
-    public void setOnSdpAnswer(Consumer<String[]> callback) {
-        this.onSdpAnswer = callback;
-    }
-    
-    public void setOnIceCandidate(Consumer<String[]> callback) {
-        this.onIceCandidate = callback;
-    }
-    
-    public void setOnCallEnd(Consumer<String> callback) {
-        this.onCallEnd = callback;
-    }
-    
     public void setOnUserOfflineTcp(Consumer<String> callback) {
         this.onUserOfflineTcp = callback;
     }
 
-    public void handleConnection(Socket socket) {
-        try (DataInputStream in = new DataInputStream(socket.getInputStream());
-             DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
+    /**
+     * Where streams opened by a peer's RpcService.call go
+     */
+    public void setRpcService(RpcService rpcService) {
+        this.rpcService = rpcService;
+    }
 
-            String header = in.readUTF();
-            System.out.println("[TCP] Received header: " + header);
+    /**
+     * Handle one stream opened by a peer. Runs on the connection's reader: text bodies are
+     * decoded there as their frames arrive and each message is handled, in the order the
+     * peer sent them, once its body is complete. Streams with a file to receive continue on
+     * the executor.
+     */
+    public void onStream(FrameStream stream) {
+        String header = stream.header();
+        log.debug(() -> "[TCP] Received header: " + header);
 
-            if (header.startsWith("MSG:")) {
-                handleMessage(header);
+        if (header.startsWith("FILE:")) {
+            executor.submit(() -> handleFile(header, stream));
 
-            } else if (header.startsWith("FILE:")) {
-                handleFile(header, in);
+        } else if (header.startsWith("REQUEST_GROUP_FILE:")) {
+            handleGroupFileRequest(header, stream); // non-blocking: the file is pumped as credit arrives
 
-            } else if (header.startsWith("REQUEST_GROUP_FILE:")) {
-                handleGroupFileRequest(header, out);
-                
-            } else if (header.startsWith("TCP_OFFLINE:")) {
-                handleTcpOffline(header);
-                
-            } else if (header.startsWith("VIDEO_CALL_REQUEST")) {
-                handleVideoCallRequest(header);
-                
-            } else if (header.startsWith("VIDEO_SDP_OFFER:")) {
-                handleSdpOffer(header);
-                
-            } else if (header.startsWith("VIDEO_SDP_ANSWER:")) {
-                handleSdpAnswer(header);
-                
-            } else if (header.startsWith("VIDEO_ICE_CANDIDATE:")) {
-                handleIceCandidate(header);
-                
-            } else if (header.startsWith("VIDEO_CALL_END:")) {
-                handleCallEnd(header);
-            }
+        } else if (header.startsWith(RpcService.HEADER_PREFIX) && rpcService != null) {
+            rpcService.onStream(stream); // answered on the same stream
 
-        } catch (IOException e) {
-            System.out.println("[TCP-ERR] " + e.getMessage());
+        } else {
+            // Header-only messages have FIN on their OPEN; the rest carry a text body
+            CompletableFuture<String> body = stream.remoteFinished().isDone()
+                    ? CompletableFuture.completedFuture(null)
+                    : stream.readText(NetworkConfig.TCP_MAX_TEXT_BODY);
+            stream.connection().inArrivalOrder(body).whenComplete((text, error) -> {
+                if (error != null) {
+                    log.info("[TCP-ERR] Dropped " + header + ": " + error.getMessage());
+                } else if (handleHeader(header, text)) {
+                    stream.close(); // handled: our FIN is the sender's acknowledgement
+                } else {
+                    stream.reset("unknown message");
+                }
+            });
         }
     }
 
-    private void handleMessage(String header) {
-        String msg = header.substring(4); // Remove "MSG:" prefix
+    /**
+     * @param text the message body, null for header-only messages
+     * @return false if the header is not a known message
+     */
+    private boolean handleHeader(String header, String text) {
+        if (header.startsWith("MSG:")) {
+            handleMessage(header, text);
+
+        } else if (header.startsWith("TCP_OFFLINE:")) {
+            handleTcpOffline(header);
+
+        } else {
+            log.warn("[TCP-ERR] Unknown stream header: " + header);
+            return false;
+        }
+        return true;
+    }
+
+    private void handleMessage(String header, String text) {
+        // MSG:senderNickname, the message is the body
+        String msg = header.substring(4) + ": " + (text == null ? "" : text);
         onMessage.accept(msg);
-        System.out.println("[TCP] Message received: " + msg);
+        log.info("[TCP] Message received: " + (text == null ? 0 : text.length()) + " chars from " + header.substring(4));
     }
-    
+
     private void handleTcpOffline(String header) {
         // TCP_OFFLINE:nicknameOfUserWhoLeft
         String[] parts = header.split(":");
         if (parts.length >= 2) {
             String offlineNick = parts[1].trim();
-            System.out.println("[TCP-OFFLINE] User offline: " + offlineNick);
+            log.info("[TCP-OFFLINE] User offline: " + offlineNick);
             
             if (onUserOfflineTcp != null) {
                 onUserOfflineTcp.accept(offlineNick);
@@ -116,143 +126,98 @@ public class TcpConnectionHandler {
         }
     }
     
-    private void handleVideoCallRequest(String header) {
-        // VIDEO_CALL_REQUEST;fromNickname;fromPort
-        System.out.println("[TCP-VIDEO] Received VIDEO_CALL_REQUEST: " + header);
-        
-        String[] parts = header.split(";");
-        if (parts.length >= 3 && onVideoCallRequest != null) {
-            onVideoCallRequest.accept(parts);
-            System.out.println("[TCP-VIDEO] Video call request forwarded to handler");
-        } else {
-            System.err.println("[TCP-VIDEO-ERR] Invalid format or no callback: " + header);
-        }
-    }
-    
-    private void handleSdpOffer(String header) {
-        // VIDEO_SDP_OFFER:fromNickname:sdp_content
-        System.out.println("[TCP-VIDEO] Received SDP Offer");
-        
-        String[] parts = header.split(":", 3);
-        if (parts.length >= 3 && onSdpOffer != null) {
-            onSdpOffer.accept(parts);
-            System.out.println("[TCP-VIDEO] SDP Offer forwarded");
-        } else {
-            System.err.println("[TCP-VIDEO-ERR] Invalid SDP Offer format");
-        }
-    }
-    
-    private void handleSdpAnswer(String header) {
-        // VIDEO_SDP_ANSWER:fromNickname:sdp_content
-        System.out.println("[TCP-VIDEO] Received SDP Answer");
-        
-        String[] parts = header.split(":", 3);
-        if (parts.length >= 3 && onSdpAnswer != null) {
-            onSdpAnswer.accept(parts);
-            System.out.println("[TCP-VIDEO] SDP Answer forwarded");
-        } else {
-            System.err.println("[TCP-VIDEO-ERR] Invalid SDP Answer format");
+    private void handleFile(String header, FrameStream stream) {
+        String[] parts = header.split(":");
+        if (parts.length < 4) {
+            stream.reset("bad FILE header");
+            return;
         }
-    }
-    
-    private void handleIceCandidate(String header) {
-        // VIDEO_ICE_CANDIDATE:fromNickname:candidate_json
-        System.out.println("[TCP-VIDEO] Received ICE Candidate");
-        
-        String[] parts = header.split(":", 3);
-        if (parts.length >= 3 && onIceCandidate != null) {
-            onIceCandidate.accept(parts);
-            System.out.println("[TCP-VIDEO] ICE Candidate forwarded");
-        } else {
-            System.err.println("[TCP-VIDEO-ERR] Invalid ICE Candidate format");
+        String sender = parts[1];
+        String fileName = parts[2];
+        long fileSize;
+        try {
+            fileSize = Long.parseLong(parts[3]);
+        } catch (NumberFormatException e) {
+            fileSize = -1;
         }
-    }
-    
-    private void handleCallEnd(String header) {
-        // VIDEO_CALL_END:fromNickname
-        System.out.println("[TCP-VIDEO] Received Call End");
-        
-        String[] parts = header.split(":");
-        if (parts.length >= 2 && onCallEnd != null) {
-            onCallEnd.accept(parts[1]);
-            System.out.println("[TCP-VIDEO] Call End forwarded");
-        } else {
-            System.err.println("[TCP-VIDEO-ERR] Invalid Call End format");
+        if (fileSize < 0) {
+            log.warn(() -> "[FILE-ERR] Bad file size in header from " + sender + ": " + parts[3]);
+            stream.reset("bad FILE header");
+            return;
         }
-    }
-
-    private void handleFile(String header, DataInputStream in) throws IOException {
-        String[] parts = header.split(":");
-        if (parts.length >= 4) {
-            String sender = parts[1];
-            String fileName = parts[2];
-            long fileSize = Long.parseLong(parts[3]);
 
-            String savedPath = fileTransferService.receiveFile(in, fileName, fileSize);
-            if (savedPath != null) {
-                FileMessage fileMsg = new FileMessage(sender, fileName, fileSize, savedPath);
-                onFileReceived.accept(fileMsg);
-                System.out.println("[FILE] Received: " + fileName);
+        String savedPath = fileTransferService.receiveFile(new DataInputStream(stream.in()), fileName, fileSize);
+        if (savedPath == null) {
+            stream.reset("receive failed");
+            return;
+        }
+        stream.close();
+        FileMessage fileMsg = new FileMessage(sender, fileName, fileSize, savedPath);
+        onFileReceived.accept(fileMsg);
+        log.info("[FILE] Received: " + fileName);
+    }
+
+    /**
+     * Answer a group file download on the request's stream: response header, then the file
+     * content read chunk by chunk as the downloader returns window credit. No thread is held
+     * per download, so every member can fetch the same file at once.
+     */
+    private void handleGroupFileRequest(String header, FrameStream stream) {
+        try {
+            DataOutputStream out = new DataOutputStream(stream.out());
+            File file = resolveGroupFile(header, out);
+            if (file == null) {
+                stream.finish();
+                return;
             }
+            stream.pumpFrom(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+            log.info("[GROUP] Sending file: " + file.getName());
+        } catch (IOException e) {
+            log.info("[GROUP] File request failed: " + e.getMessage());
+            stream.reset("send failed");
         }
     }
 
-    private void handleGroupFileRequest(String header, DataOutputStream out) throws IOException {
+    /**
+     * Check the request and write the response header (window is fresh, so this never blocks)
+     * @return the file to send, or null if an error response was written
+     */
+    private File resolveGroupFile(String header, DataOutputStream out) throws IOException {
         String[] parts = header.split(":");
-        if (parts.length >= 3) {
-            String groupName = parts[1];
-            String fileName = parts[2];
-
-            System.out.println("[GROUP] File request: " + groupName + "/" + fileName);
-
-            // Check if in group
-            if (!groupRepository.isJoined(groupName)) {
-                out.writeUTF("ERROR:Not in group");
-                out.flush();
-                System.out.println("[GROUP] Error: Not in group");
-                return;
-            }
-
-            // Get file path
-            String filePath = groupRepository.getGroupFilePath(groupName, fileName);
-            if (filePath == null) {
-                out.writeUTF("ERROR:File not found");
-                out.flush();
-                System.out.println("[GROUP] Error: File not found");
-                return;
-            }
-
-            // Check file exists
-            File file = new File(filePath);
-            if (!file.exists()) {
-                out.writeUTF("ERROR:File not found");
-                out.flush();
-                System.out.println("[GROUP] Error: File does not exist");
-                return;
-            }
+        if (parts.length < 3) {
+            out.writeUTF("ERROR:Bad request");
+            return null;
+        }
+        String groupName = parts[1];
+        String fileName = parts[2];
 
-            // Send file
-            String responseHeader = "GROUP_FILE:" + groupName + ":" + nickname + ":" + fileName + ":" + file.length();
-            out.writeUTF(responseHeader);
-            out.flush();
+        log.info("[GROUP] File request: " + groupName + "/" + fileName);
 
-            try (FileInputStream fis = new FileInputStream(file)) {
-                byte[] buffer = new byte[4096];
-                int bytesRead;
-                while ((bytesRead = fis.read(buffer)) != -1) {
-                    out.write(buffer, 0, bytesRead);
-                }
-                out.flush();
-            }
+        // Check if in group
+        if (!groupRepository.isJoined(groupName)) {
+            out.writeUTF("ERROR:Not in group");
+            log.info("[GROUP] Error: Not in group");
+            return null;
+        }
 
-            System.out.println("[GROUP] Sent file: " + fileName);
+        // Get file path
+        String filePath = groupRepository.getGroupFilePath(groupName, fileName);
+        if (filePath == null) {
+            out.writeUTF("ERROR:File not found");
+            log.info("[GROUP] Error: File not found");
+            return null;
+        }
 
-            // Small delay to ensure file is sent
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
+        // Check file exists
+        File file = new File(filePath);
+        if (!file.exists()) {
+            out.writeUTF("ERROR:File not found");
+            log.info("[GROUP] Error: File does not exist");
+            return null;
         }
+
+        String responseHeader = "GROUP_FILE:" + groupName + ":" + nickname + ":" + fileName + ":" + file.length();
+        out.writeUTF(responseHeader);
+        return file;
     }
-}
\ No newline at end of file
+}
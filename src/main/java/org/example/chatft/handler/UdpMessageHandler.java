@@ -1,23 +1,40 @@
 package org.example.chatft.handler;
 
+import org.example.chatft.config.NetworkConfig;
 import org.example.chatft.model.Group;
 import org.example.chatft.model.GroupMessage;
 import org.example.chatft.model.User;
+import org.example.chatft.protocol.MessageType;
+import org.example.chatft.protocol.WireDecoder;
+import org.example.chatft.protocol.WireFormatException;
 import org.example.chatft.repository.GroupRepository;
 import org.example.chatft.repository.UserRepository;
+import org.example.chatft.service.LinkHealthRegistry;
+import org.example.chatft.service.PresenceService;
+import org.example.chatft.service.ReliableGroupChannel;
+import org.example.chatft.utils.FragmentReassembler;
 import org.example.chatft.utils.MessageDeduplicator;
+import org.example.chatft.utils.Logger;
 
 import java.net.InetAddress;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
-import java.util.concurrent.ExecutorService;
 
 public class UdpMessageHandler {
+    private static final Logger log = Logger.get("UDP");
+
     private final String nickname;
     private final int tcpPort;
+    private final long localPeerId;
     private final UserRepository userRepository;
     private final GroupRepository groupRepository;
     private final MessageDeduplicator deduplicator;
+    private final PresenceService presenceService;
+    private final ReliableGroupChannel groupChannel;
+    private final FragmentReassembler reassembler = new FragmentReassembler();
 
     // Callbacks
     private final Consumer<User> onUserOnline;
@@ -28,21 +45,17 @@ public class UdpMessageHandler {
     private final Consumer<FileDownloadRequest> onFileDownloadRequest;
     private Consumer<User> onIncomingVideoCall;
     private Consumer<VideoFrameData> onVideoFrameReceived;
-    
-    // Deduplication for JOIN/LEAVE notifications
-    private final java.util.concurrent.ConcurrentHashMap<String, Long> recentNotifications = 
-        new java.util.concurrent.ConcurrentHashMap<>();
-    private final java.util.concurrent.ScheduledExecutorService cleanupScheduler = 
-        java.util.concurrent.Executors.newSingleThreadScheduledExecutor(r -> {
-            Thread t = new Thread(r);
-            t.setDaemon(true);
-            return t;
-        });
-
-    public UdpMessageHandler(String nickname, int tcpPort,
+    private Consumer<GroupDigest> onGroupDigest;
+    private Consumer<GroupSyncRequest> onGroupSyncRequest;
+    private Consumer<List<GroupEntry>> onGroupEntries;
+    private LinkHealthRegistry linkHealth;
+
+    public UdpMessageHandler(String nickname, int tcpPort, long localPeerId,
                              UserRepository userRepository,
                              GroupRepository groupRepository,
                              MessageDeduplicator deduplicator,
+                             PresenceService presenceService,
+                             ReliableGroupChannel groupChannel,
                              Consumer<User> onUserOnline,
                              Consumer<User> onUserOffline,
                              Consumer<GroupMessage> onGroupMessage,
@@ -51,9 +64,12 @@ public class UdpMessageHandler {
                              Consumer<FileDownloadRequest> onFileDownloadRequest) {
         this.nickname = nickname;
         this.tcpPort = tcpPort;
+        this.localPeerId = localPeerId;
         this.userRepository = userRepository;
         this.groupRepository = groupRepository;
         this.deduplicator = deduplicator;
+        this.presenceService = presenceService;
+        this.groupChannel = groupChannel;
         this.onUserOnline = onUserOnline;
         this.onUserOffline = onUserOffline;
         this.onGroupMessage = onGroupMessage;
@@ -62,66 +78,103 @@ public class UdpMessageHandler {
         this.onFileDownloadRequest = onFileDownloadRequest;
     }
 
-    public void handleMessage(String msg, InetAddress addr) {
-        String[] parts = msg.split(";");
-        if (parts.length < 1) return;
+    /**
+     * Decode and dispatch one datagram (buffer position..limit)
+     */
+    public void handleMessage(ByteBuffer payload, InetAddress addr) {
+        WireDecoder decoder;
+        try {
+            decoder = new WireDecoder(payload);
+        } catch (WireFormatException e) {
+            log.warn("[UDP-SKIP] Malformed packet from " + addr.getHostAddress() + ": " + e.getMessage());
+            return;
+        }
 
-        String type = parts[0];
+        MessageType type = decoder.type();
 
-        // Check for duplicates (skip for frequent/realtime messages)
-        if (!type.equals("VIDEO_FRAME") && !type.equals("ONLINE") && !type.equals("OFFLINE") 
-                && !type.equals("JOIN_GROUP") && !type.equals("LEAVE_GROUP")) {
-            if (deduplicator.isDuplicate(type, msg)) {
-                System.out.println("[UDP-SKIP] Duplicate: " + msg.substring(0, Math.min(50, msg.length())));
-                return;
-            }
+        // Our own multicast/broadcast echo
+        if (decoder.peerId() == localPeerId) {
+            return;
         }
-        
+
+        // Same datagram via another interface/destination (multicast + broadcast)
+        if (deduplicator.isDuplicate(decoder.peerId(), decoder.sequence())) {
+            return;
+        }
+        if (linkHealth != null) {
+            linkHealth.onDatagram(addr.getHostAddress(), decoder.peerId(), decoder.sequence());
+        }
+
         // Debug log for video frames
-        if (type.equals("VIDEO_FRAME")) {
-            System.out.println("[UDP-RECV-VIDEO] Received VIDEO_FRAME message, parts: " + parts.length);
-        }
-
-        switch (type) {
-            case "ONLINE":
-                handleOnline(parts, addr);
-                break;
-            case "OFFLINE":
-                handleOffline(parts);
-                break;
-            case "GROUP_PUBLIC":
-                handleGroupPublic(parts);
-                break;
-            case "GROUP_PRIVATE":
-                handleGroupPrivate(parts);
-                break;
-            case "GMSG":
-                handleGroupMessage(parts);
-                break;
-            case "GFILE":
-                handleGroupFile(parts, addr);
-                break;
-            case "JOIN_GROUP":
-                handleJoinGroup(parts);
-                break;
-            case "LEAVE_GROUP":
-                handleLeaveGroup(parts);
-                break;
-            case "VIDEO_CALL_REQUEST":
-                handleVideoCallRequest(parts, addr);
-                break;
-            case "VIDEO_CALL_ACCEPT":
-                handleVideoCallAccept(parts, addr);
-                break;
-            case "VIDEO_CALL_REJECT":
-                handleVideoCallReject(parts, addr);
-                break;
-            case "VIDEO_FRAME":
-                handleVideoFrame(parts, addr);
-                break;
+        if (type == MessageType.VIDEO_FRAME) {
+            log.debug(() -> "[UDP-RECV-VIDEO] Received VIDEO_FRAME message, " + payload.remaining() + " bytes");
+        }
+
+        try {
+            switch (type) {
+                case ONLINE:
+                    handleOnline(decoder, addr);
+                    break;
+                case OFFLINE:
+                    handleOffline(decoder);
+                    break;
+                case GROUP_PUBLIC:
+                    handleGroupPublic(decoder);
+                    break;
+                case GROUP_PRIVATE:
+                    handleGroupPrivate(decoder);
+                    break;
+                case GMSG:
+                    handleGroupMessage(decoder);
+                    break;
+                case GMSG_NACK:
+                    handleGroupNack(decoder);
+                    break;
+                case FRAGMENT:
+                    handleFragment(decoder, addr);
+                    break;
+                case GMSG_TAIL:
+                    groupChannel.onTail(decoder.peerId(), decoder.readVarInt());
+                    break;
+                case GFILE:
+                    handleGroupFile(decoder, addr);
+                    break;
+                case JOIN_GROUP:
+                    handleJoinGroup(decoder);
+                    break;
+                case LEAVE_GROUP:
+                    handleLeaveGroup(decoder);
+                    break;
+                case VIDEO_CALL_REQUEST:
+                    handleVideoCallRequest(decoder, addr);
+                    break;
+                case VIDEO_CALL_ACCEPT:
+                    handleVideoCallAccept(decoder, addr);
+                    break;
+                case VIDEO_CALL_REJECT:
+                    handleVideoCallReject(decoder, addr);
+                    break;
+                case VIDEO_FRAME:
+                    handleVideoFrame(decoder, addr);
+                    break;
+                case GROUP_DIGEST:
+                    handleGroupDigest(decoder);
+                    break;
+                case GROUP_SYNC_REQUEST:
+                    handleGroupSyncRequest(decoder);
+                    break;
+                case GROUP_ENTRIES:
+                    handleGroupEntries(decoder);
+                    break;
+                case ROSTER:
+                    handleRoster(decoder, addr);
+                    break;
+            }
+        } catch (WireFormatException e) {
+            log.warn("[UDP-SKIP] Malformed " + type + " from " + addr.getHostAddress() + ": " + e.getMessage());
         }
     }
-    
+
     public void setOnIncomingVideoCall(Consumer<User> callback) {
         this.onIncomingVideoCall = callback;
     }
@@ -130,263 +183,350 @@ public class UdpMessageHandler {
         this.onVideoFrameReceived = callback;
     }
 
-    private void handleOnline(String[] parts, InetAddress addr) {
-        if (parts.length < 3) return;
+    public void setOnGroupDigest(Consumer<GroupDigest> callback) {
+        this.onGroupDigest = callback;
+    }
+
+    public void setOnGroupSyncRequest(Consumer<GroupSyncRequest> callback) {
+        this.onGroupSyncRequest = callback;
+    }
 
-        String nick = parts[1].trim();
-        int port = Integer.parseInt(parts[2].trim());
+    public void setOnGroupEntries(Consumer<List<GroupEntry>> callback) {
+        this.onGroupEntries = callback;
+    }
 
-        if (!nick.equals(nickname)) {
-            User user = new User(nick, addr.getHostAddress(), port);
+    /**
+     * Count every new datagram per sender, so that sequence gaps show up as loss
+     */
+    public void setLinkHealth(LinkHealthRegistry linkHealth) {
+        this.linkHealth = linkHealth;
+    }
 
-            if (userRepository.addUser(user)) {
-                System.out.println("[INFO] User joined: " + user);
-                onUserOnline.accept(user);
+    private void handleOnline(WireDecoder decoder, InetAddress addr) {
+        String nick = decoder.readString();
+        int port = decoder.readVarInt();
+        int heartbeatIntervalMs = decoder.readVarInt();
 
-                // Notify that new user detected (will trigger response)
-                onNewUserDetected.run();
+        if (learnPeer(nick, addr.getHostAddress(), port, heartbeatIntervalMs)) {
+            // Notify that new user detected (will trigger a jittered response)
+            onNewUserDetected.run();
+        }
+    }
+
+    private void handleRoster(WireDecoder decoder, InetAddress addr) {
+        String senderNick = decoder.readString();
+        int senderPort = decoder.readVarInt();
+        int heartbeatIntervalMs = decoder.readVarInt();
+        int rosterHash = decoder.readInt();
+
+        // Roster answers a join, it never triggers another response itself
+        learnPeer(senderNick, addr.getHostAddress(), senderPort, heartbeatIntervalMs);
+        while (decoder.hasRemaining()) {
+            String nick = decoder.readString();
+            byte[] ip = decoder.readBytes();
+            int port = decoder.readVarInt();
+            try {
+                learnFromRoster(nick, InetAddress.getByAddress(ip).getHostAddress(), port, heartbeatIntervalMs);
+            } catch (java.net.UnknownHostException e) {
+                log.warn("[UDP-SKIP] Bad roster address for " + nick);
             }
         }
+
+        presenceService.onRosterHeard(rosterHash);
+    }
+
+    /**
+     * Refresh presence for a peer we heard from directly, adding it if unknown
+     * @return true if the peer was new
+     */
+    private boolean learnPeer(String nick, String ip, int port, int heartbeatIntervalMs) {
+        if (nick.equals(nickname)) {
+            return false;
+        }
+
+        presenceService.touch(nick, heartbeatIntervalMs);
+        if (userRepository.hasUser(nick)) {
+            return false; // Plain heartbeat from known peer
+        }
+        return addPeer(nick, ip, port);
     }
 
-    private void handleOffline(String[] parts) {
-        if (parts.length < 2) {
-            System.out.println("[UDP-OFFLINE] Invalid OFFLINE message format");
+    /**
+     * A peer listed in someone else's roster. Only its own heartbeats keep it alive: a known
+     * peer is left alone, an unknown one is added with a short deadline to show up itself.
+     */
+    private void learnFromRoster(String nick, String ip, int port, int heartbeatIntervalMs) {
+        if (nick.equals(nickname) || userRepository.hasUser(nick)) {
             return;
         }
+        presenceService.expect(nick, heartbeatIntervalMs);
+        addPeer(nick, ip, port);
+    }
 
-        String offlineNick = parts[1].trim();
+    private boolean addPeer(String nick, String ip, int port) {
+        User user = new User(nick, ip, port);
+        if (userRepository.addUser(user)) {
+            log.info("[INFO] User joined: " + user);
+            onUserOnline.accept(user);
+            return true;
+        }
+        return false;
+    }
+
+    private void handleOffline(WireDecoder decoder) {
+        String offlineNick = decoder.readString();
         
         if (offlineNick.equals(nickname)) {
             return; // Ignore own OFFLINE message
         }
         
-        System.out.println("[INFO] User left: " + offlineNick);
-        
+        log.info("[INFO] User left: " + offlineNick);
+        presenceService.forget(offlineNick);
+
         User removed = userRepository.removeUser(offlineNick);
 
         if (removed != null) {
-            System.out.println("[INFO] ✅ Removed from list: " + removed);
+            log.info("[INFO] ✅ Removed from list: " + removed);
             onUserOffline.accept(removed);
         } else {
-            System.out.println("[INFO] ⚠️ User not in list: " + offlineNick);
+            log.warn("[INFO] ⚠️ User not in list: " + offlineNick);
         }
     }
 
-    private void handleGroupPublic(String[] parts) {
-        if (parts.length >= 2) {
-            String groupName = parts[1].trim(); // Trim whitespace
-            
-            // Check if group already exists before adding
-            Group existingGroup = groupRepository.getGroup(groupName);
-            if (existingGroup != null) {
-                System.out.println("[GROUP] Public group already known, skipping: " + groupName);
-                return;
-            }
-            
-            Group group = groupRepository.addDiscoveredGroup(groupName, true);
-            onGroupDiscovered.accept(group);
-            System.out.println("[GROUP] Public group discovered: " + groupName);
+    private void handleGroupPublic(WireDecoder decoder) {
+        String groupName = decoder.readString();
+
+        // Check if group already exists before adding
+        Group existingGroup = groupRepository.getGroup(groupName);
+        if (existingGroup != null) {
+            log.info("[GROUP] Public group already known, skipping: " + groupName);
+            return;
         }
+
+        Group group = groupRepository.addDiscoveredGroup(groupName, true);
+        onGroupDiscovered.accept(group);
+        log.info("[GROUP] Public group discovered: " + groupName);
     }
 
-    private void handleGroupPrivate(String[] parts) {
-        if (parts.length >= 2) {
-            String groupName = parts[1].trim(); // Trim whitespace
-            String password = (parts.length >= 3) ? parts[2].trim() : null;
+    private void handleGroupPrivate(WireDecoder decoder) {
+        String groupName = decoder.readString();
+        String password = decoder.readString();
+        if (password.isEmpty()) {
+            password = null;
+        }
 
-            System.out.println("[GROUP] Private group discovered: " + groupName +
-                    (password != null ? " (with password)" : " (no password)"));
+        log.info("[GROUP] Private group discovered: " + groupName +
+                (password != null ? " (with password)" : " (no password)"));
 
-            // Check if group already exists before adding
-            Group existingGroup = groupRepository.getGroup(groupName);
-            if (existingGroup != null) {
-                System.out.println("[GROUP] Private group already known, skipping: " + groupName);
-                return;
-            }
+        // Check if group already exists before adding
+        Group existingGroup = groupRepository.getGroup(groupName);
+        if (existingGroup != null) {
+            log.info("[GROUP] Private group already known, skipping: " + groupName);
+            return;
+        }
 
-            // Add new group with password
-            Group group = (password != null)
-                    ? groupRepository.addDiscoveredGroup(groupName, false, password)
-                    : groupRepository.addDiscoveredGroup(groupName, false);
+        // Add new group with password
+        Group group = (password != null)
+                ? groupRepository.addDiscoveredGroup(groupName, false, password)
+                : groupRepository.addDiscoveredGroup(groupName, false);
 
-            onGroupDiscovered.accept(group);
-            System.out.println("[GROUP] ✅ Group handled: " + groupName);
-        } else {
-            System.out.println("[GROUP] ⚠️ Invalid GROUP_PRIVATE message: " + Arrays.toString(parts));
+        onGroupDiscovered.accept(group);
+        log.info("[GROUP] ✅ Group handled: " + groupName);
+    }
+
+    private void handleGroupDigest(WireDecoder decoder) {
+        int[] buckets = readBuckets(decoder);
+        if (onGroupDigest != null) {
+            onGroupDigest.accept(new GroupDigest(decoder.peerId(), buckets));
+        }
+    }
+
+    private void handleGroupSyncRequest(WireDecoder decoder) {
+        long targetPeerId = decoder.readLong();
+        int bucketMask = decoder.readVarInt();
+        int[] requesterBuckets = readBuckets(decoder);
+
+        // Addressed to one peer only, everybody else just sees the reply
+        if (targetPeerId != localPeerId || onGroupSyncRequest == null) {
+            return;
         }
+        onGroupSyncRequest.accept(new GroupSyncRequest(decoder.peerId(), bucketMask, requesterBuckets));
     }
 
-    private void handleGroupMessage(String[] parts) {
-        if (parts.length >= 4) {
-            String groupName = parts[1].trim();
-            String sender = parts[2].trim();
-            String content = parts[3]; // Don't trim message content
+    private int[] readBuckets(WireDecoder decoder) {
+        int count = decoder.readVarInt();
+        if (count > 32) {
+            throw new WireFormatException("Too many digest buckets: " + count);
+        }
+        int[] buckets = new int[count];
+        for (int i = 0; i < count; i++) {
+            buckets[i] = decoder.readInt();
+        }
+        return buckets;
+    }
 
-            if (!sender.equals(nickname) && groupRepository.isJoined(groupName)) {
-                GroupMessage groupMsg = new GroupMessage(groupName, sender, content);
-                onGroupMessage.accept(groupMsg);
-                System.out.println("[GROUP] Message in " + groupName + " from " + sender + ": " + content);
+    private void handleGroupEntries(WireDecoder decoder) {
+        List<GroupEntry> entries = new ArrayList<>();
+        int added = 0;
+        while (decoder.hasRemaining()) {
+            String groupName = decoder.readString();
+            boolean isPublic = decoder.readVarInt() != 0;
+            String password = decoder.readString();
+            long ageMs = TimeUnit.SECONDS.toMillis(decoder.readVarInt() & 0xFFFFFFFFL);
+
+            if (ageMs > NetworkConfig.GROUP_EXPIRY_MS) {
+                continue; // no member announced it for too long: don't bring it back
+            }
+            entries.add(new GroupEntry(groupName, ageMs));
+            if (groupRepository.getGroup(groupName) != null) {
+                continue;
             }
+
+            Group group = groupRepository.addDiscoveredGroup(groupName, isPublic,
+                    isPublic || password.isEmpty() ? null : password);
+            onGroupDiscovered.accept(group);
+            added++;
+        }
+
+        if (onGroupEntries != null && !entries.isEmpty()) {
+            onGroupEntries.accept(entries);
+        }
+        if (added > 0) {
+            int count = added;
+            log.info(() -> "[GROUP-SYNC] Learned " + count + " groups from catalog sync");
         }
     }
 
-    private void handleGroupFile(String[] parts, InetAddress addr) {
-        if (parts.length >= 6) {
-            String groupName = parts[1].trim();
-            String sender = parts[2].trim();
-            String fileName = parts[3].trim();
-            long fileSize = Long.parseLong(parts[4].trim());
-            int senderTcpPort = Integer.parseInt(parts[5].trim());
+    private void handleGroupMessage(WireDecoder decoder) {
+        int streamSeq = decoder.readVarInt();
+        String groupName = decoder.readString();
+        String sender = decoder.readString();
+        String content = decoder.readString();
 
-            if (!sender.equals(nickname) && groupRepository.isJoined(groupName)) {
-                System.out.println("[GROUP] File in " + groupName + " from " + sender + ": " + fileName);
+        // Every sender's stream is tracked (even for groups we are not in) so gaps are detected;
+        // the channel hands messages back in order, filtering happens on delivery
+        groupChannel.receive(decoder.peerId(), streamSeq, new GroupMessage(groupName, sender, content));
+    }
 
-                FileDownloadRequest request = new FileDownloadRequest(
-                        addr.getHostAddress(), senderTcpPort, groupName, sender, fileName, fileSize
-                );
-                onFileDownloadRequest.accept(request);
-            }
+    private void handleFragment(WireDecoder decoder, InetAddress addr) {
+        decoder.readVarInt(); // innerType, only used to pick the receive queue
+        int messageSeq = decoder.readInt();
+        int index = decoder.readVarInt();
+        int count = decoder.readVarInt();
+        byte[] chunk = decoder.readBytes();
+
+        ByteBuffer whole = reassembler.accept(decoder.peerId(), messageSeq, index, count, chunk);
+        if (whole != null) {
+            // Original datagram, goes through the normal decode/dedup path
+            handleMessage(whole, addr);
         }
     }
 
-    private void handleJoinGroup(String[] parts) {
-        if (parts.length >= 3) {
-            String groupName = parts[1].trim();
-            String joinerNickname = parts[2].trim();
-
-            // Only show notification if we're in the group and it's not us joining
-            if (!joinerNickname.equals(nickname) && groupRepository.isJoined(groupName)) {
-                String notificationKey = "JOIN:" + groupName + ":" + joinerNickname;
-                long now = System.currentTimeMillis();
-                
-                // Atomic operation: add if absent, returns previous value
-                Long lastTime = recentNotifications.putIfAbsent(notificationKey, now);
-                
-                if (lastTime != null && (now - lastTime) < 3000) {
-                    // Duplicate within 3 seconds, skip
-                    return;
-                }
-                
-                if (lastTime != null) {
-                    // Expired, update
-                    recentNotifications.put(notificationKey, now);
-                }
-                
-                // Schedule cleanup
-                cleanupScheduler.schedule(
-                    () -> recentNotifications.remove(notificationKey),
-                    5, java.util.concurrent.TimeUnit.SECONDS
-                );
-                
-                String systemMessage = joinerNickname + " joined the group";
-                GroupMessage groupMsg = new GroupMessage(groupName, "__SYSTEM__", systemMessage);
-                onGroupMessage.accept(groupMsg);
-                System.out.println("[GROUP] " + joinerNickname + " joined " + groupName);
-            }
+    private void handleGroupNack(WireDecoder decoder) {
+        long targetPeerId = decoder.readLong();
+        if (targetPeerId != localPeerId) {
+            groupChannel.onForeignNack(targetPeerId);
+            return;
         }
+
+        int[] ranges = new int[NetworkConfig.RELIABLE_MAX_NACK_RANGES * 2];
+        int count = 0;
+        while (decoder.hasRemaining() && count < ranges.length) {
+            ranges[count++] = decoder.readVarInt();
+        }
+        groupChannel.onNack(java.util.Arrays.copyOf(ranges, count));
     }
 
-    private void handleLeaveGroup(String[] parts) {
-        if (parts.length >= 3) {
-            String groupName = parts[1].trim();
-            String leaverNickname = parts[2].trim();
-
-            // Only show notification if we're in the group and it's not us leaving
-            if (!leaverNickname.equals(nickname) && groupRepository.isJoined(groupName)) {
-                String notificationKey = "LEAVE:" + groupName + ":" + leaverNickname;
-                long now = System.currentTimeMillis();
-                
-                // Atomic operation: add if absent, returns previous value
-                Long lastTime = recentNotifications.putIfAbsent(notificationKey, now);
-                
-                if (lastTime != null && (now - lastTime) < 3000) {
-                    // Duplicate within 3 seconds, skip
-                    return;
-                }
-                
-                if (lastTime != null) {
-                    // Expired, update
-                    recentNotifications.put(notificationKey, now);
-                }
-                
-                // Schedule cleanup
-                cleanupScheduler.schedule(
-                    () -> recentNotifications.remove(notificationKey),
-                    5, java.util.concurrent.TimeUnit.SECONDS
-                );
-                
-                String systemMessage = leaverNickname + " left the group";
-                GroupMessage groupMsg = new GroupMessage(groupName, "__SYSTEM__", systemMessage);
-                onGroupMessage.accept(groupMsg);
-                System.out.println("[GROUP] " + leaverNickname + " left " + groupName);
-            }
+    private void handleGroupFile(WireDecoder decoder, InetAddress addr) {
+        String groupName = decoder.readString();
+        String sender = decoder.readString();
+        String fileName = decoder.readString();
+        long fileSize = decoder.readVarLong();
+        int senderTcpPort = decoder.readVarInt();
+
+        if (!sender.equals(nickname) && groupRepository.isJoined(groupName)) {
+            log.info("[GROUP] File in " + groupName + " from " + sender + ": " + fileName);
+
+            FileDownloadRequest request = new FileDownloadRequest(
+                    addr.getHostAddress(), senderTcpPort, groupName, sender, fileName, fileSize
+            );
+            onFileDownloadRequest.accept(request);
         }
     }
-    
-    private void handleVideoCallRequest(String[] parts, InetAddress addr) {
-        // VIDEO_CALL_REQUEST;fromNickname;fromPort
-        System.out.println("[VIDEO-SIGNAL] Received VIDEO_CALL_REQUEST: " + String.join(";", parts));
-        
-        if (parts.length < 3) {
-            System.err.println("[VIDEO-SIGNAL-ERR] Invalid VIDEO_CALL_REQUEST format");
-            return;
+
+    private void handleJoinGroup(WireDecoder decoder) {
+        String groupName = decoder.readString();
+        String joinerNickname = decoder.readString();
+
+        // Only show notification if we're in the group and it's not us joining
+        if (!joinerNickname.equals(nickname) && groupRepository.isJoined(groupName)) {
+            String systemMessage = joinerNickname + " joined the group";
+            GroupMessage groupMsg = new GroupMessage(groupName, "__SYSTEM__", systemMessage);
+            onGroupMessage.accept(groupMsg);
+            log.info("[GROUP] " + joinerNickname + " joined " + groupName);
         }
+    }
+
+    private void handleLeaveGroup(WireDecoder decoder) {
+        String groupName = decoder.readString();
+        String leaverNickname = decoder.readString();
+
+        // Only show notification if we're in the group and it's not us leaving
+        if (!leaverNickname.equals(nickname) && groupRepository.isJoined(groupName)) {
+            String systemMessage = leaverNickname + " left the group";
+            GroupMessage groupMsg = new GroupMessage(groupName, "__SYSTEM__", systemMessage);
+            onGroupMessage.accept(groupMsg);
+            log.info("[GROUP] " + leaverNickname + " left " + groupName);
+        }
+    }
+    
+    private void handleVideoCallRequest(WireDecoder decoder, InetAddress addr) {
+        // VIDEO_CALL_REQUEST: fromNickname, fromPort
+        String fromNickname = decoder.readString();
+        int fromPort = decoder.readVarInt();
+        log.info("[VIDEO-SIGNAL] Received VIDEO_CALL_REQUEST from " + fromNickname + ":" + fromPort);
         
-        String fromNickname = parts[1].trim();
-        int fromPort = Integer.parseInt(parts[2].trim());
-        
-        System.out.println("[VIDEO-SIGNAL] From: " + fromNickname + ", My nickname: " + nickname);
+        log.info("[VIDEO-SIGNAL] From: " + fromNickname + ", My nickname: " + nickname);
         
         if (!fromNickname.equals(nickname)) {
             User caller = userRepository.getUser(fromNickname);
             if (caller == null) {
                 caller = new User(fromNickname, addr.getHostAddress(), fromPort);
                 userRepository.addUser(caller);
-                System.out.println("[VIDEO-SIGNAL] Created new user: " + caller);
+                log.info("[VIDEO-SIGNAL] Created new user: " + caller);
             }
             
-            System.out.println("[VIDEO-SIGNAL] Triggering incoming call callback for: " + fromNickname);
+            log.info("[VIDEO-SIGNAL] Triggering incoming call callback for: " + fromNickname);
             
             if (onIncomingVideoCall != null) {
                 onIncomingVideoCall.accept(caller);
-                System.out.println("[VIDEO-SIGNAL] Callback triggered successfully");
+                log.info("[VIDEO-SIGNAL] Callback triggered successfully");
             } else {
-                System.err.println("[VIDEO-SIGNAL-ERR] onIncomingVideoCall callback is NULL!");
+                log.error("[VIDEO-SIGNAL-ERR] onIncomingVideoCall callback is NULL!");
             }
         } else {
-            System.out.println("[VIDEO-SIGNAL] Ignoring own call request");
+            log.info("[VIDEO-SIGNAL] Ignoring own call request");
         }
     }
     
-    private void handleVideoCallAccept(String[] parts, InetAddress addr) {
-        // VIDEO_CALL_ACCEPT;fromNickname
-        if (parts.length < 2) return;
-        
-        String fromNickname = parts[1].trim();
-        System.out.println("[VIDEO] Call accepted by: " + fromNickname);
+    private void handleVideoCallAccept(WireDecoder decoder, InetAddress addr) {
+        // VIDEO_CALL_ACCEPT: fromNickname
+        String fromNickname = decoder.readString();
+        log.info("[VIDEO] Call accepted by: " + fromNickname);
         // Handle in VideoCallController
     }
     
-    private void handleVideoCallReject(String[] parts, InetAddress addr) {
-        // VIDEO_CALL_REJECT;fromNickname
-        if (parts.length < 2) return;
-        
-        String fromNickname = parts[1].trim();
-        System.out.println("[VIDEO] Call rejected by: " + fromNickname);
+    private void handleVideoCallReject(WireDecoder decoder, InetAddress addr) {
+        // VIDEO_CALL_REJECT: fromNickname
+        String fromNickname = decoder.readString();
+        log.info("[VIDEO] Call rejected by: " + fromNickname);
         // Handle in VideoCallController
     }
     
-    private void handleVideoFrame(String[] parts, InetAddress addr) {
-        // VIDEO_FRAME;fromNickname;toNickname;base64FrameData
-        if (parts.length < 4) {
-            System.err.println("[UDP-VIDEO-ERR] Invalid frame format, parts: " + parts.length);
-            return;
-        }
-        
-        String fromNickname = parts[1].trim();
-        String toNickname = parts[2].trim();
-        String base64Frame = parts[3];
+    private void handleVideoFrame(WireDecoder decoder, InetAddress addr) {
+        // VIDEO_FRAME: fromNickname, toNickname, raw JPEG bytes
+        String fromNickname = decoder.readString();
+        String toNickname = decoder.readString();
         
         // Ignore own frames FIRST (most efficient check)
         if (fromNickname.equals(nickname)) {
@@ -400,23 +540,18 @@ public class UdpMessageHandler {
             return;
         }
         
-        System.out.println("[UDP-VIDEO-DEBUG] Processing frame from " + fromNickname + " to " + toNickname);
+        log.debug(() -> "[UDP-VIDEO-DEBUG] Processing frame from " + fromNickname + " to " + toNickname);
         
-        try {
-            byte[] frameData = java.util.Base64.getDecoder().decode(base64Frame);
-            
-            System.out.println("[UDP-VIDEO-DEBUG] Decoded frame: " + frameData.length + " bytes");
-            
-            if (onVideoFrameReceived != null) {
-                VideoFrameData videoFrame = new VideoFrameData(fromNickname, frameData);
-                onVideoFrameReceived.accept(videoFrame);
-                System.out.println("[UDP-VIDEO] Frame forwarded to callback");
-            } else {
-                System.err.println("[UDP-VIDEO-ERR] No callback registered!");
-            }
-        } catch (Exception e) {
-            System.err.println("[UDP-VIDEO-ERR] Failed to decode frame: " + e.getMessage());
-            e.printStackTrace();
+        byte[] frameData = decoder.readBytes();
+
+        log.debug(() -> "[UDP-VIDEO-DEBUG] Decoded frame: " + frameData.length + " bytes");
+
+        if (onVideoFrameReceived != null) {
+            VideoFrameData videoFrame = new VideoFrameData(fromNickname, frameData);
+            onVideoFrameReceived.accept(videoFrame);
+            log.debug(() -> "[UDP-VIDEO] Frame forwarded to callback");
+        } else {
+            log.error("[UDP-VIDEO-ERR] No callback registered!");
         }
     }
 
@@ -440,6 +575,41 @@ public class UdpMessageHandler {
         }
     }
     
+    // Inner class for a peer's group catalog digest
+    public static class GroupDigest {
+        public final long fromPeerId;
+        public final int[] buckets;
+
+        public GroupDigest(long fromPeerId, int[] buckets) {
+            this.fromPeerId = fromPeerId;
+            this.buckets = buckets;
+        }
+    }
+
+    // Inner class for one received catalog entry: how long ago a member of the group announced it
+    public static class GroupEntry {
+        public final String groupName;
+        public final long ageMs;
+
+        public GroupEntry(String groupName, long ageMs) {
+            this.groupName = groupName;
+            this.ageMs = ageMs;
+        }
+    }
+
+    // Inner class for a catalog sync request addressed to us
+    public static class GroupSyncRequest {
+        public final long fromPeerId;
+        public final int bucketMask;
+        public final int[] requesterBuckets;
+
+        public GroupSyncRequest(long fromPeerId, int bucketMask, int[] requesterBuckets) {
+            this.fromPeerId = fromPeerId;
+            this.bucketMask = bucketMask;
+            this.requesterBuckets = requesterBuckets;
+        }
+    }
+
     // Inner class for video frame data
     public static class VideoFrameData {
         public final String fromNickname;
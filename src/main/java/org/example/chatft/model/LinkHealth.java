@@ -0,0 +1,68 @@
+package org.example.chatft.model;
+
+/**
+ * Snapshot of how the network path to one peer behaves (see LinkHealthRegistry).
+ * Values are smoothed estimates; the ones with no samples yet are reported as unknown.
+ */
+public class LinkHealth {
+    public static final LinkHealth UNKNOWN = new LinkHealth(-1, -1, -1, 0, 0);
+
+    private final double rttMs;
+    private final double jitterMs;
+    private final double lossRate;
+    private final int rttSamples;
+    private final int lossSamples;
+
+    public LinkHealth(double rttMs, double jitterMs, double lossRate, int rttSamples, int lossSamples) {
+        this.rttMs = rttMs;
+        this.jitterMs = jitterMs;
+        this.lossRate = lossRate;
+        this.rttSamples = rttSamples;
+        this.lossSamples = lossSamples;
+    }
+
+    /**
+     * Smoothed round-trip time over the peer's TCP connection, or -1 if not measured yet
+     */
+    public double getRttMs() {
+        return rttMs;
+    }
+
+    /**
+     * Mean deviation of the round-trip time, or -1 if not measured yet
+     */
+    public double getJitterMs() {
+        return jitterMs;
+    }
+
+    /**
+     * Fraction of the peer's UDP datagrams that never reached us (0..1), or -1 if not measured yet
+     */
+    public double getLossRate() {
+        return lossRate;
+    }
+
+    public boolean hasRtt() {
+        return rttSamples > 0;
+    }
+
+    public boolean hasLoss() {
+        return lossSamples > 0;
+    }
+
+    public int getRttSamples() {
+        return rttSamples;
+    }
+
+    public int getLossSamples() {
+        return lossSamples;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("rtt=%s jitter=%s loss=%s",
+                hasRtt() ? String.format("%.1fms", rttMs) : "?",
+                hasRtt() ? String.format("%.1fms", jitterMs) : "?",
+                hasLoss() ? String.format("%.1f%%", lossRate * 100) : "?");
+    }
+}
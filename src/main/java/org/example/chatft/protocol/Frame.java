@@ -0,0 +1,133 @@
+package org.example.chatft.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One frame on a multiplexed peer TCP connection.
+ *
+ * Layout: [payloadLength: 4][type][flags][priority][streamId: 4][payload]
+ * - each side starts the connection with PREFACE
+ * - stream ids are odd for streams opened by the side that dialed, even for the side that accepted
+ * - FrameDecoder parses it incrementally from non-blocking reads
+ */
+public final class Frame {
+    public static final byte[] PREFACE = {'C', 'F', 'T', 1};
+    public static final int HEADER_SIZE = 11;
+    public static final int FLAG_FIN = 0x01;    // last frame this side sends on the stream
+
+    static final byte[] EMPTY = new byte[0];
+
+    private final FrameType type;
+    private final int flags;
+    private final StreamPriority priority;
+    private final int streamId;
+    private final byte[] payload;
+
+    public Frame(FrameType type, int flags, StreamPriority priority, int streamId, byte[] payload) {
+        this.type = type;
+        this.flags = flags;
+        this.priority = priority;
+        this.streamId = streamId;
+        this.payload = payload;
+    }
+
+    public static Frame open(int streamId, StreamPriority priority, String header, boolean fin) {
+        return new Frame(FrameType.OPEN, fin ? FLAG_FIN : 0, priority, streamId, header.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static Frame data(int streamId, StreamPriority priority, byte[] chunk, boolean fin) {
+        return new Frame(FrameType.DATA, fin ? FLAG_FIN : 0, priority, streamId, chunk);
+    }
+
+    public static Frame fin(int streamId, StreamPriority priority) {
+        return data(streamId, priority, EMPTY, true);
+    }
+
+    public static Frame window(int streamId, int credit) {
+        byte[] payload = {(byte) (credit >>> 24), (byte) (credit >>> 16), (byte) (credit >>> 8), (byte) credit};
+        return new Frame(FrameType.WINDOW, 0, StreamPriority.CONTROL, streamId, payload);
+    }
+
+    public static Frame reset(int streamId, String reason) {
+        return new Frame(FrameType.RESET, 0, StreamPriority.CONTROL, streamId,
+                (reason == null ? "" : reason).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Round-trip probe; not part of any stream
+     * @param sentAt sender's System.nanoTime(), echoed back in the PONG
+     */
+    public static Frame ping(long sentAt) {
+        byte[] payload = new byte[8];
+        for (int i = 0; i < 8; i++) {
+            payload[i] = (byte) (sentAt >>> (56 - 8 * i));
+        }
+        return new Frame(FrameType.PING, 0, StreamPriority.CONTROL, 0, payload);
+    }
+
+    public static Frame pong(Frame ping) {
+        return new Frame(FrameType.PONG, 0, StreamPriority.CONTROL, 0, ping.payload);
+    }
+
+    public FrameType type() {
+        return type;
+    }
+
+    public boolean isFin() {
+        return (flags & FLAG_FIN) != 0;
+    }
+
+    public StreamPriority priority() {
+        return priority;
+    }
+
+    public int streamId() {
+        return streamId;
+    }
+
+    public byte[] payload() {
+        return payload;
+    }
+
+    public String payloadString() {
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Credit carried by a WINDOW frame
+     */
+    public int credit() {
+        return ((payload[0] & 0xFF) << 24) | ((payload[1] & 0xFF) << 16) | ((payload[2] & 0xFF) << 8) | (payload[3] & 0xFF);
+    }
+
+    /**
+     * Send time carried by a PING or PONG frame
+     */
+    public long timestamp() {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (payload[i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * Encoded frame, ready to write
+     */
+    public ByteBuffer toBuffer() {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        buf.putInt(payload.length)
+                .put(type.getCode())
+                .put((byte) flags)
+                .put((byte) priority.ordinal())
+                .putInt(streamId)
+                .put(payload);
+        return buf.flip();
+    }
+
+    @Override
+    public String toString() {
+        return type + "#" + streamId + (isFin() ? " FIN" : "") + " " + payload.length + "B";
+    }
+}
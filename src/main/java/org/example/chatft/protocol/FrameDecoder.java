@@ -0,0 +1,103 @@
+package org.example.chatft.protocol;
+
+import org.example.chatft.config.NetworkConfig;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Incremental frame parser for non-blocking reads: feed it whatever bytes arrived and
+ * take complete frames out. A frame may arrive split across any number of reads; only the
+ * frame being parsed is buffered. The first bytes on a connection must be Frame.PREFACE.
+ *
+ * Not thread-safe: one decoder per connection, used by its I/O thread.
+ */
+public class FrameDecoder {
+    private enum State { PREFACE, HEADER, PAYLOAD }
+
+    private State state = State.PREFACE;
+    private final byte[] header = new byte[Frame.HEADER_SIZE];
+    private int headerFilled;
+
+    private FrameType type;
+    private int flags;
+    private StreamPriority priority;
+    private int streamId;
+    private byte[] payload;
+    private int payloadFilled;
+
+    /**
+     * Consume bytes from buf up to the end of the next complete frame
+     * @return the frame, or null if buf ran out first (its bytes are kept for the next call)
+     * @throws ProtocolException on a bad preface or malformed frame header
+     */
+    public Frame decode(ByteBuffer buf) throws ProtocolException {
+        while (true) {
+            switch (state) {
+                case PREFACE:
+                    if (!fillHeader(buf, Frame.PREFACE.length)) {
+                        return null;
+                    }
+                    if (!Arrays.equals(Arrays.copyOf(header, Frame.PREFACE.length), Frame.PREFACE)) {
+                        throw new ProtocolException("Not a chat peer connection (bad preface)");
+                    }
+                    headerFilled = 0;
+                    state = State.HEADER;
+                    break;
+
+                case HEADER:
+                    if (!fillHeader(buf, Frame.HEADER_SIZE)) {
+                        return null;
+                    }
+                    parseHeader();
+                    headerFilled = 0;
+                    state = State.PAYLOAD;
+                    break;
+
+                case PAYLOAD:
+                    int n = Math.min(buf.remaining(), payload.length - payloadFilled);
+                    buf.get(payload, payloadFilled, n);
+                    payloadFilled += n;
+                    if (payloadFilled < payload.length) {
+                        return null;
+                    }
+                    state = State.HEADER;
+                    Frame frame = new Frame(type, flags, priority, streamId, payload);
+                    payload = null;
+                    return frame;
+            }
+        }
+    }
+
+    private boolean fillHeader(ByteBuffer buf, int size) {
+        int n = Math.min(buf.remaining(), size - headerFilled);
+        buf.get(header, headerFilled, n);
+        headerFilled += n;
+        return headerFilled == size;
+    }
+
+    private void parseHeader() throws ProtocolException {
+        ByteBuffer h = ByteBuffer.wrap(header);
+        int length = h.getInt();
+        type = FrameType.fromCode(h.get());
+        flags = h.get() & 0xFF;
+        priority = StreamPriority.fromCode(h.get());
+        streamId = h.getInt();
+
+        if (length < 0 || length > NetworkConfig.TCP_FRAME_MAX_PAYLOAD) {
+            throw new ProtocolException("Frame payload too large: " + length);
+        }
+        if (type == null || priority == null) {
+            throw new ProtocolException("Unknown frame type or priority");
+        }
+        if (type == FrameType.WINDOW && length != 4) {
+            throw new ProtocolException("Bad WINDOW frame");
+        }
+        if ((type == FrameType.PING || type == FrameType.PONG) && length != 8) {
+            throw new ProtocolException("Bad " + type + " frame");
+        }
+        payload = length == 0 ? Frame.EMPTY : new byte[length];
+        payloadFilled = 0;
+    }
+}
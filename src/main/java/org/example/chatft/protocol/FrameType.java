@@ -0,0 +1,43 @@
+package org.example.chatft.protocol;
+
+/**
+ * Frame types on a multiplexed peer TCP connection and their wire codes.
+ * Payload for each type is documented next to the constant.
+ */
+public enum FrameType {
+    OPEN(1),    // stream header (UTF-8), FIN if the opener sends no body
+    DATA(2),    // body bytes, at most TCP_DATA_CHUNK_SIZE; FIN marks the last frame from this side
+    WINDOW(3),  // credit (int): bytes the receiver has consumed and the sender may send again
+    RESET(4),   // reason (UTF-8): stream aborted in both directions
+    PING(5),    // send time (long, sender's clock), stream 0: answered at once with PONG
+    PONG(6);    // the PING payload echoed back
+
+    private static final FrameType[] BY_CODE = new FrameType[8];
+
+    static {
+        for (FrameType type : values()) {
+            BY_CODE[type.code] = type;
+        }
+    }
+
+    private final byte code;
+
+    FrameType(int code) {
+        this.code = (byte) code;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * Look up type by wire code
+     * @return the type, or null if the code is unknown
+     */
+    public static FrameType fromCode(int code) {
+        if (code < 0 || code >= BY_CODE.length) {
+            return null;
+        }
+        return BY_CODE[code];
+    }
+}
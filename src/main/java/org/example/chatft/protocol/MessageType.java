@@ -0,0 +1,57 @@
+package org.example.chatft.protocol;
+
+/**
+ * UDP control message types and their wire codes.
+ * Field order for each type is documented next to the constant.
+ */
+public enum MessageType {
+    ONLINE(1),              // nickname, tcpPort, heartbeatIntervalMs (also sent periodically as heartbeat)
+    OFFLINE(2),             // nickname
+    GROUP_PUBLIC(3),        // groupName
+    GROUP_PRIVATE(4),       // groupName, password
+    GMSG(5),                // streamSeq, groupName, sender, content
+    GFILE(6),               // groupName, sender, fileName, fileSize, tcpPort
+    JOIN_GROUP(7),          // groupName, nickname
+    LEAVE_GROUP(8),         // groupName, nickname
+    VIDEO_CALL_REQUEST(9),  // nickname, tcpPort
+    VIDEO_CALL_ACCEPT(10),  // nickname
+    VIDEO_CALL_REJECT(11),  // nickname
+    VIDEO_FRAME(12),        // fromNickname, toNickname, frameBytes
+    GROUP_DIGEST(13),       // bucketCount, bucketHash (int) x bucketCount
+    GROUP_SYNC_REQUEST(14), // targetPeerId (long), bucketMask, bucketCount, requesterBucketHash (int) x bucketCount
+    GROUP_ENTRIES(15),      // [groupName, isPublic (0/1), password, ageSeconds] repeated until end of datagram
+    ROSTER(16),             // nickname, tcpPort, heartbeatIntervalMs, rosterHash (int), [nickname, ip, tcpPort] until end
+    GMSG_NACK(17),          // targetPeerId (long), [firstSeq, count] until end
+    GMSG_TAIL(18),          // highestSeq
+    FRAGMENT(19),           // innerType, messageSeq (int), index, count, chunk (slice of the original datagram)
+    BATCH(20);              // [datagram] until end, each a complete stamped message
+
+    private static final MessageType[] BY_CODE = new MessageType[64];
+
+    static {
+        for (MessageType type : values()) {
+            BY_CODE[type.code] = type;
+        }
+    }
+
+    private final byte code;
+
+    MessageType(int code) {
+        this.code = (byte) code;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * Look up type by wire code
+     * @return the type, or null if the code is unknown
+     */
+    public static MessageType fromCode(int code) {
+        if (code < 0 || code >= BY_CODE.length) {
+            return null;
+        }
+        return BY_CODE[code];
+    }
+}
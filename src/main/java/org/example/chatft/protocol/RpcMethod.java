@@ -0,0 +1,103 @@
+package org.example.chatft.protocol;
+
+/**
+ * A request/response call between peers (see RpcService): its name on the wire, the
+ * stream priority it travels at, how long the caller waits for the reply, and how
+ * request and response are turned into a text body and back.
+ *
+ * @param <Q> request type
+ * @param <R> response type
+ */
+public final class RpcMethod<Q, R> {
+
+    /**
+     * Text form of a request or response; null means no body at all
+     */
+    public interface Codec<T> {
+        String encode(T value);
+
+        T decode(String text);
+    }
+
+    public static final Codec<Void> NONE = new Codec<>() {
+        @Override
+        public String encode(Void value) {
+            return null;
+        }
+
+        @Override
+        public Void decode(String text) {
+            return null;
+        }
+    };
+
+    public static final Codec<String> TEXT = new Codec<>() {
+        @Override
+        public String encode(String value) {
+            return value == null ? "" : value;
+        }
+
+        @Override
+        public String decode(String text) {
+            return text == null ? "" : text;
+        }
+    };
+
+    public static final Codec<Boolean> BOOLEAN = new Codec<>() {
+        @Override
+        public String encode(Boolean value) {
+            return Boolean.TRUE.equals(value) ? "1" : "0";
+        }
+
+        @Override
+        public Boolean decode(String text) {
+            return "1".equals(text);
+        }
+    };
+
+    private final String name;
+    private final StreamPriority priority;
+    private final long timeoutMs;
+    private final Codec<Q> request;
+    private final Codec<R> response;
+
+    /**
+     * @param name Unique method name, no ':' (it goes in the stream header)
+     * @param timeoutMs How long the caller waits for the reply, handling on the other side included
+     */
+    public RpcMethod(String name, StreamPriority priority, long timeoutMs, Codec<Q> request, Codec<R> response) {
+        if (name.indexOf(':') >= 0) {
+            throw new IllegalArgumentException("RPC method name with ':' " + name);
+        }
+        this.name = name;
+        this.priority = priority;
+        this.timeoutMs = timeoutMs;
+        this.request = request;
+        this.response = response;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public StreamPriority priority() {
+        return priority;
+    }
+
+    public long timeoutMs() {
+        return timeoutMs;
+    }
+
+    public Codec<Q> request() {
+        return request;
+    }
+
+    public Codec<R> response() {
+        return response;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
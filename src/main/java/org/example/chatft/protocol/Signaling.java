@@ -0,0 +1,28 @@
+package org.example.chatft.protocol;
+
+import org.example.chatft.config.NetworkConfig;
+
+/**
+ * Video call signaling as RPC methods: every step of call setup is one round trip, and
+ * its reply is the other side's answer to that step.
+ */
+public final class Signaling {
+    // true if the callee accepted; the reply waits for the callee to decide
+    public static final RpcMethod<Void, Boolean> CALL_REQUEST = new RpcMethod<>("call.request",
+            StreamPriority.SIGNAL, NetworkConfig.VIDEO_CALL_RING_TIMEOUT_MS, RpcMethod.NONE, RpcMethod.BOOLEAN);
+
+    // SDP offer, answered with the callee's SDP answer
+    public static final RpcMethod<String, String> SDP_OFFER = new RpcMethod<>("call.offer",
+            StreamPriority.SIGNAL, NetworkConfig.RPC_TIMEOUT_MS, RpcMethod.TEXT, RpcMethod.TEXT);
+
+    // ICE candidate (JSON)
+    public static final RpcMethod<String, Void> ICE_CANDIDATE = new RpcMethod<>("call.ice",
+            StreamPriority.SIGNAL, NetworkConfig.RPC_TIMEOUT_MS, RpcMethod.TEXT, RpcMethod.NONE);
+
+    public static final RpcMethod<Void, Void> CALL_END = new RpcMethod<>("call.end",
+            StreamPriority.SIGNAL, NetworkConfig.RPC_TIMEOUT_MS, RpcMethod.NONE, RpcMethod.NONE);
+
+    private Signaling() {
+        // Prevent instantiation
+    }
+}
@@ -0,0 +1,24 @@
+package org.example.chatft.protocol;
+
+/**
+ * Send priority of a stream's frames on a shared peer connection, most urgent first.
+ * Frames of equal priority leave in the order they were queued.
+ */
+public enum StreamPriority {
+    CONTROL,    // WINDOW/RESET/PING/PONG frames and presence notices
+    SIGNAL,     // video call setup: a late SDP/ICE message stalls the call
+    CHAT,       // private messages
+    BULK;       // file content
+
+    private static final StreamPriority[] VALUES = values();
+
+    /**
+     * @return the priority, or null if the wire value is unknown
+     */
+    public static StreamPriority fromCode(int code) {
+        if (code < 0 || code >= VALUES.length) {
+            return null;
+        }
+        return VALUES[code];
+    }
+}
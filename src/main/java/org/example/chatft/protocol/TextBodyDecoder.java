@@ -0,0 +1,82 @@
+package org.example.chatft.protocol;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Incremental UTF-8 decoder for a text body that arrives in chunks (DATA frames).
+ *
+ * Each chunk is decoded as it comes in and the raw bytes are not kept; a character split
+ * across two chunks is carried over to the next one. Malformed input becomes U+FFFD,
+ * as with new String(bytes, UTF_8). Not thread-safe: one stream feeds one decoder.
+ */
+public class TextBodyDecoder {
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final long maxBytes;
+    private final StringBuilder text = new StringBuilder();
+    private final CharBuffer chars = CharBuffer.allocate(4096);
+    private final ByteBuffer carry = ByteBuffer.allocate(8);  // incomplete sequence from the last chunk
+    private long bytes;
+
+    public TextBodyDecoder(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Decode the next part of the body
+     * @throws ProtocolException once the body is longer than maxBytes
+     */
+    public void feed(byte[] chunk, int offset, int length) throws ProtocolException {
+        bytes += length;
+        if (bytes > maxBytes) {
+            throw new ProtocolException("Text body over " + maxBytes + " bytes");
+        }
+        ByteBuffer in = ByteBuffer.wrap(chunk, offset, length);
+
+        // Complete a character split across chunks one byte at a time (at most 3 bytes)
+        while (carry.position() > 0 && in.hasRemaining()) {
+            carry.put(in.get());
+            carry.flip();
+            decode(carry, false);
+            carry.compact();
+        }
+        decode(in, false);
+        carry.put(in);
+    }
+
+    /**
+     * End of body: decode what is left
+     */
+    public String finish() {
+        carry.flip();
+        decode(carry, true);
+        while (decoder.flush(chars).isOverflow()) {
+            drain();
+        }
+        drain();
+        return text.toString();
+    }
+
+    public long getByteCount() {
+        return bytes;
+    }
+
+    private void decode(ByteBuffer in, boolean endOfInput) {
+        while (decoder.decode(in, chars, endOfInput).isOverflow()) {
+            drain();
+        }
+        drain();
+    }
+
+    private void drain() {
+        chars.flip();
+        text.append(chars);
+        chars.clear();
+    }
+}
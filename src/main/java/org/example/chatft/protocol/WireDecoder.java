@@ -0,0 +1,148 @@
+package org.example.chatft.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes one UDP control message in place from the receive buffer.
+ * Strings are built straight from the packet bytes, the datagram is never
+ * turned into one big String first.
+ */
+public class WireDecoder {
+    private ByteBuffer buf;
+    private MessageType type;
+    private long peerId;
+    private int sequence;
+    private byte[] scratch; // allocated on first string read from a direct buffer
+
+    public WireDecoder() {
+    }
+
+    public WireDecoder(ByteBuffer buf) {
+        reset(buf);
+    }
+
+    /**
+     * Point decoder at a new datagram (position..limit) and read its header
+     * @throws WireFormatException if version or type is not recognized
+     */
+    public WireDecoder reset(ByteBuffer buf) {
+        this.buf = buf;
+        if (buf.remaining() < WireEncoder.HEADER_SIZE) {
+            throw new WireFormatException("Datagram too short: " + buf.remaining() + " bytes");
+        }
+        byte version = buf.get();
+        if (version != WireEncoder.VERSION) {
+            throw new WireFormatException("Unsupported version: " + version);
+        }
+        int code = buf.get();
+        this.type = MessageType.fromCode(code);
+        if (type == null) {
+            throw new WireFormatException("Unknown message type: " + code);
+        }
+        this.peerId = buf.getLong();
+        this.sequence = buf.getInt();
+        return this;
+    }
+
+    public MessageType type() {
+        return type;
+    }
+
+    /**
+     * Random id of the sending client instance
+     */
+    public long peerId() {
+        return peerId;
+    }
+
+    /**
+     * Per-sender datagram sequence number
+     */
+    public int sequence() {
+        return sequence;
+    }
+
+    public boolean hasRemaining() {
+        return buf.hasRemaining();
+    }
+
+    public int readVarInt() {
+        long value = readVarLong();
+        if (value > 0xFFFFFFFFL) {
+            throw new WireFormatException("Varint overflow");
+        }
+        return (int) value;
+    }
+
+    public long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!buf.hasRemaining()) {
+                throw new WireFormatException("Truncated varint");
+            }
+            byte b = buf.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new WireFormatException("Varint too long");
+    }
+
+    public int readInt() {
+        if (buf.remaining() < 4) {
+            throw new WireFormatException("Truncated int");
+        }
+        return buf.getInt();
+    }
+
+    public long readLong() {
+        if (buf.remaining() < 8) {
+            throw new WireFormatException("Truncated long");
+        }
+        return buf.getLong();
+    }
+
+    public String readString() {
+        int length = readLength();
+        String value;
+        if (buf.hasArray()) {
+            value = new String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8);
+            buf.position(buf.position() + length);
+        } else {
+            // Direct buffer: copy through a reusable scratch array
+            if (scratch == null || scratch.length < length) {
+                scratch = new byte[Math.max(length, 256)];
+            }
+            buf.get(scratch, 0, length);
+            value = new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    /**
+     * Length-prefixed field as a view into the datagram (no copy)
+     */
+    public ByteBuffer readSlice() {
+        int length = readLength();
+        ByteBuffer slice = buf.slice(buf.position(), length);
+        buf.position(buf.position() + length);
+        return slice;
+    }
+
+    public byte[] readBytes() {
+        int length = readLength();
+        byte[] value = new byte[length];
+        buf.get(value);
+        return value;
+    }
+
+    private int readLength() {
+        int length = readVarInt();
+        if (length < 0 || length > buf.remaining()) {
+            throw new WireFormatException("Truncated field: need " + length + " bytes, have " + buf.remaining());
+        }
+        return length;
+    }
+}
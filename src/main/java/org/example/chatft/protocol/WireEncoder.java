@@ -0,0 +1,114 @@
+package org.example.chatft.protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encodes one UDP control message.
+ *
+ * Layout: [version][type][peerId: 8 bytes][sequence: 4 bytes][field]...
+ * - peerId/sequence are stamped by UdpService right before sending
+ * - integers are unsigned varints (7 bits per byte, low bits first),
+ *   hashes and ids that are uniformly random use fixed big-endian ints/longs instead
+ * - strings and byte arrays are a varint length followed by the raw bytes (UTF-8 for strings)
+ */
+public class WireEncoder {
+    public static final byte VERSION = 2;
+    public static final int HEADER_SIZE = 14;
+
+    private final MessageType type;
+    private byte[] buf;
+    private int size;
+
+    public WireEncoder(MessageType type) {
+        this(type, 64);
+    }
+
+    public WireEncoder(MessageType type, int initialCapacity) {
+        this.type = type;
+        this.buf = new byte[Math.max(initialCapacity, HEADER_SIZE)];
+        buf[size++] = VERSION;
+        buf[size++] = type.getCode();
+        size = HEADER_SIZE; // peerId + sequence filled in by stamp()
+    }
+
+    public MessageType type() {
+        return type;
+    }
+
+    /**
+     * Fill in sender id and per-sender sequence number
+     */
+    public WireEncoder stamp(long peerId, int sequence) {
+        for (int i = 0; i < 8; i++) {
+            buf[2 + i] = (byte) (peerId >>> (56 - 8 * i));
+        }
+        buf[10] = (byte) (sequence >>> 24);
+        buf[11] = (byte) (sequence >>> 16);
+        buf[12] = (byte) (sequence >>> 8);
+        buf[13] = (byte) sequence;
+        return this;
+    }
+
+    public WireEncoder writeVarInt(int value) {
+        return writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    public WireEncoder writeVarLong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buf[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[size++] = (byte) value;
+        return this;
+    }
+
+    public WireEncoder writeInt(int value) {
+        ensureCapacity(4);
+        buf[size++] = (byte) (value >>> 24);
+        buf[size++] = (byte) (value >>> 16);
+        buf[size++] = (byte) (value >>> 8);
+        buf[size++] = (byte) value;
+        return this;
+    }
+
+    public WireEncoder writeLong(long value) {
+        writeInt((int) (value >>> 32));
+        return writeInt((int) value);
+    }
+
+    public WireEncoder writeString(String value) {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        return writeBytes(bytes, 0, bytes.length);
+    }
+
+    public WireEncoder writeBytes(byte[] bytes) {
+        return writeBytes(bytes, 0, bytes.length);
+    }
+
+    public WireEncoder writeBytes(byte[] bytes, int offset, int length) {
+        writeVarInt(length);
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buf, size, length);
+        size += length;
+        return this;
+    }
+
+    /**
+     * Get encoded datagram payload
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+        }
+    }
+}
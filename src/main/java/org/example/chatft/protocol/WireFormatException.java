@@ -0,0 +1,12 @@
+package org.example.chatft.protocol;
+
+/**
+ * Thrown when a datagram cannot be decoded (bad version, truncated field, unknown type)
+ */
+public class WireFormatException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public WireFormatException(String message) {
+        super(message);
+    }
+}
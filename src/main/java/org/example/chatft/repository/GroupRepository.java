@@ -120,6 +120,13 @@ public class GroupRepository {
         return discoveredGroups.values();
     }
 
+    /**
+     * Forget a discovered group nobody announces any more
+     */
+    public void removeDiscoveredGroup(String groupName) {
+        discoveredGroups.remove(groupName);
+    }
+
     /**
      * Add file to group
      */
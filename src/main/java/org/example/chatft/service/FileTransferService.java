@@ -3,22 +3,30 @@ package org.example.chatft.service;
 import org.example.chatft.config.NetworkConfig;
 import org.example.chatft.model.FileMessage;
 import org.example.chatft.model.User;
+import org.example.chatft.protocol.StreamPriority;
+import org.example.chatft.utils.Logger;
 
 import java.io.*;
-import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 public class FileTransferService {
+    private static final Logger log = Logger.get("TCP");
+
     private final String nickname;
     private final ExecutorService executor;
+    private final PeerConnectionPool connectionPool;
     private final Consumer<FileMessage> onFileReceived;
 
     public FileTransferService(String nickname,
                                ExecutorService executor,
+                               PeerConnectionPool connectionPool,
                                Consumer<FileMessage> onFileReceived) {
         this.nickname = nickname;
         this.executor = executor;
+        this.connectionPool = connectionPool;
         this.onFileReceived = onFileReceived;
 
         // Create download directory
@@ -27,41 +35,62 @@ public class FileTransferService {
 
     /**
      * Send file to specific user
+     * @return completes when the peer has stored the whole file, fails with the cause otherwise
      */
-    public void sendFile(User user, String filePath) {
-        executor.submit(() -> {
-            File file = new File(filePath);
-            if (!file.exists()) {
-                System.err.println("[FILE-ERR] File not found: " + filePath);
-                return;
-            }
-
-            try (Socket socket = new Socket(user.getIp(), user.getTcpPort());
-                 DataOutputStream out = new DataOutputStream(socket.getOutputStream());
-                 FileInputStream fis = new FileInputStream(file)) {
+    public CompletableFuture<Void> sendFile(User user, String filePath) {
+        File file = new File(filePath);
+        if (!file.exists()) {
+            log.error(() -> "[FILE-ERR] File not found: " + filePath);
+            return CompletableFuture.failedFuture(new FileNotFoundException(filePath));
+        }
 
-                String header = "FILE:" + nickname + ":" + file.getName() + ":" + file.length();
-                out.writeUTF(header);
-                out.flush();
+        // Opened here, in send order with the caller's messages; only the body waits on the window
+        String header = "FILE:" + nickname + ":" + file.getName() + ":" + file.length();
+        FrameStream stream;
+        try {
+            stream = connectionPool.open(user.getIp(), user.getTcpPort(), StreamPriority.BULK, header, false);
+        } catch (IOException e) {
+            log.error(() -> "[FILE-ERR] Failed to send to " + user + ": " + e.getMessage());
+            return CompletableFuture.failedFuture(e);
+        }
 
-                byte[] buffer = new byte[NetworkConfig.FILE_BUFFER_SIZE];
-                int bytesRead;
-                while ((bytesRead = fis.read(buffer)) != -1) {
-                    out.write(buffer, 0, bytesRead);
+        CompletableFuture<Void> stored = new CompletableFuture<>();
+        executor.submit(() -> {
+            try (FileInputStream fis = new FileInputStream(file)) {
+                try {
+                    // Window-limited: blocks while the receiver is behind, other streams keep flowing
+                    OutputStream out = stream.out();
+                    byte[] buffer = new byte[NetworkConfig.TCP_DATA_CHUNK_SIZE];
+                    int bytesRead;
+                    while ((bytesRead = fis.read(buffer)) != -1) {
+                        out.write(buffer, 0, bytesRead);
+                    }
+                    stream.finish();
+                } catch (IOException e) {
+                    stream.reset("send failed"); // a FIN would make a short file look complete
+                    throw e;
                 }
-                out.flush();
 
-                System.out.println("[FILE] Sent: " + file.getName() + " to " + user);
-
-                // Small delay to ensure file is sent
-                Thread.sleep(NetworkConfig.FILE_SEND_DELAY_MS);
+                // The receiver ends its half once the file is on disk
+                stream.remoteFinished()
+                        .orTimeout(NetworkConfig.TCP_ACK_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                        .whenComplete((ok, error) -> {
+                            if (error == null) {
+                                log.info(() -> "[FILE] Sent: " + file.getName() + " to " + user);
+                                stored.complete(null);
+                            } else {
+                                stream.reset("no acknowledgement");
+                                log.error(() -> "[FILE-ERR] No confirmation from " + user + " for " + file.getName());
+                                stored.completeExceptionally(error);
+                            }
+                        });
 
             } catch (IOException e) {
-                System.err.println("[FILE-ERR] Failed to send to " + user + ": " + e.getMessage());
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+                log.error(() -> "[FILE-ERR] Failed to send to " + user + ": " + e.getMessage());
+                stored.completeExceptionally(e);
             }
         });
+        return stored;
     }
 
     /**
@@ -72,7 +101,7 @@ public class FileTransferService {
             String safeName = fileName.replaceAll("[^a-zA-Z0-9._-]", "_");
             File file = new File(NetworkConfig.DOWNLOAD_DIR, System.currentTimeMillis() + "_" + safeName);
 
-            System.out.println("[FILE] Receiving: " + fileName + " (" + fileSize + " bytes)");
+            log.info(() -> "[FILE] Receiving: " + fileName + " (" + fileSize + " bytes)");
 
             try (FileOutputStream fos = new FileOutputStream(file)) {
                 byte[] buffer = new byte[NetworkConfig.FILE_BUFFER_SIZE];
@@ -87,11 +116,12 @@ public class FileTransferService {
                     totalRead += bytesRead;
                 }
 
-                System.out.println("[FILE] Received " + totalRead + "/" + fileSize + " bytes");
+                long received = totalRead;
+                log.debug(() -> "[FILE] Received " + received + "/" + fileSize + " bytes");
                 return file.getAbsolutePath();
             }
         } catch (IOException e) {
-            System.err.println("[FILE-ERR] " + e.getMessage());
+            log.error(() -> "[FILE-ERR] " + e.getMessage());
             return null;
         }
     }
@@ -102,18 +132,17 @@ public class FileTransferService {
     public void downloadGroupFile(String senderIp, int senderTcpPort, String groupName,
                                   String sender, String fileName, long fileSize) {
         executor.submit(() -> {
-            System.out.println("[GROUP] Downloading " + fileName + " from " + sender);
-
-            try (Socket socket = new Socket(senderIp, senderTcpPort);
-                 DataInputStream in = new DataInputStream(socket.getInputStream());
-                 DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
+            log.info(() -> "[GROUP] Downloading " + fileName + " from " + sender);
 
-                String request = "REQUEST_GROUP_FILE:" + groupName + ":" + fileName;
-                out.writeUTF(request);
-                System.out.println("[GROUP] Sent request: " + request);
+            String request = "REQUEST_GROUP_FILE:" + groupName + ":" + fileName;
+            FrameStream stream = null;
+            try {
+                stream = connectionPool.open(senderIp, senderTcpPort, StreamPriority.BULK, request, true);
+                DataInputStream in = new DataInputStream(stream.in());
+                log.debug(() -> "[GROUP] Sent request: " + request);
 
                 String response = in.readUTF();
-                System.out.println("[GROUP] Response: " + response);
+                log.debug(() -> "[GROUP] Response: " + response);
 
                 if (response.startsWith("GROUP_FILE:")) {
                     String[] responseParts = response.split(":");
@@ -127,15 +156,20 @@ public class FileTransferService {
                             fileMsg.setGroupMessage(true);
                             fileMsg.setGroupName(groupName);
                             onFileReceived.accept(fileMsg);
-                            System.out.println("[GROUP] Downloaded: " + receivedFileName + " -> " + savedPath);
+                            log.info(() -> "[GROUP] Downloaded: " + receivedFileName + " -> " + savedPath);
                         }
                     }
                 } else if (response.startsWith("ERROR:")) {
-                    System.err.println("[GROUP-FILE-ERR] " + response);
+                    log.error(() -> "[GROUP-FILE-ERR] " + response);
                 }
 
             } catch (IOException e) {
-                System.err.println("[GROUP-FILE-ERR] " + e.getMessage());
+                log.error(() -> "[GROUP-FILE-ERR] " + e.getMessage());
+            } finally {
+                // Stop the sender if we gave up before the end of the file
+                if (stream != null && !stream.isDone()) {
+                    stream.reset("download abandoned");
+                }
             }
         });
     }
@@ -0,0 +1,531 @@
+package org.example.chatft.service;
+
+import org.example.chatft.config.NetworkConfig;
+import org.example.chatft.protocol.Frame;
+import org.example.chatft.protocol.StreamPriority;
+import org.example.chatft.protocol.TextBodyDecoder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One logical, bidirectional stream on a PeerConnection.
+ *
+ * The opener sends a header (OPEN) and optionally a body; the other side answers on the
+ * same stream. Each side ends its half with FIN. Flow control is per stream: a sender may
+ * have at most TCP_STREAM_WINDOW unread bytes in flight and blocks in out().write until
+ * the receiver's WINDOW frames return credit, so one slow file transfer can't fill
+ * memory or starve the other streams on the connection.
+ *
+ * The receiver ends its half only after it has handled the message, so the peer's FIN
+ * doubles as the application-level acknowledgement (see remoteFinished()).
+ *
+ * Readers and writers wait on a ReentrantLock condition, not a monitor: a virtual thread
+ * parked in Object.wait would hold on to its carrier thread for the whole transfer.
+ */
+public class FrameStream implements Closeable {
+
+    /**
+     * The peer reset the stream: it got the message and refused it, so sending it again
+     * won't help (unlike a failed connection)
+     */
+    public static class ResetByPeerException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ResetByPeerException(String reason) {
+            super("Stream reset by peer: " + reason);
+        }
+    }
+
+    private final PeerConnection connection;
+    private final int id;
+    private final StreamPriority priority;
+    private final String header;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();  // data, credit, FIN or failure
+
+    // Inbound half (guarded by lock)
+    private final ArrayDeque<byte[]> received = new ArrayDeque<>();
+    private int readOffset;          // into received.peek()
+    private int buffered;            // received, not yet read
+    private int unacknowledged;      // read since the last WINDOW frame
+    private boolean remoteFinished;
+
+    // Outbound half (guarded by lock)
+    private int sendWindow = NetworkConfig.TCP_STREAM_WINDOW;
+    private boolean localFinished;
+
+    private ReadableByteChannel pumpSource;  // body sent as credit arrives, see pumpFrom
+    private TextBodyDecoder textBody;        // body decoded as it arrives, see readText
+    private CompletableFuture<String> textDone;
+
+    private IOException failure;
+    private final CompletableFuture<Void> remoteDone = new CompletableFuture<>();
+
+    private final InputStream in = new StreamInput();
+    private final OutputStream out = new StreamOutput();
+
+    FrameStream(PeerConnection connection, int id, StreamPriority priority, String header,
+                boolean localFinished, boolean remoteFinished) {
+        this.connection = connection;
+        this.id = id;
+        this.priority = priority;
+        this.header = header;
+        this.localFinished = localFinished;
+        this.remoteFinished = remoteFinished;
+        if (remoteFinished) {
+            remoteDone.complete(null);
+        }
+    }
+
+    public int id() {
+        return id;
+    }
+
+    public StreamPriority priority() {
+        return priority;
+    }
+
+    /**
+     * Header sent with OPEN (e.g. "MSG:alice: hi")
+     */
+    public String header() {
+        return header;
+    }
+
+    public PeerConnection connection() {
+        return connection;
+    }
+
+    /**
+     * Body sent by the other side; ends when it sends FIN
+     */
+    public InputStream in() {
+        return in;
+    }
+
+    /**
+     * Body to the other side; close() sends FIN
+     */
+    public OutputStream out() {
+        return out;
+    }
+
+    /**
+     * Completes when the other side ends its half (FIN), i.e. once it handled what we sent;
+     * fails with the cause if the stream is reset or the connection drops first
+     */
+    public CompletableFuture<Void> remoteFinished() {
+        return remoteDone;
+    }
+
+    /**
+     * Take the body as UTF-8 text, decoded chunk by chunk on the I/O thread as it arrives:
+     * no thread waits for it and no copy of the raw bytes is kept. Instead of in(), not with it.
+     * @return completes with the text at the other side's FIN; fails if the stream fails,
+     *         or resets it if the body is longer than maxBytes
+     */
+    public CompletableFuture<String> readText(long maxBytes) {
+        CompletableFuture<String> done = new CompletableFuture<>();
+        IOException error;
+        String text = null;
+        int credit = 0;
+        lock.lock();
+        try {
+            error = failure;
+            if (error == null) {
+                textBody = new TextBodyDecoder(maxBytes);
+                textDone = done;
+                try {
+                    // Whatever arrived before this call
+                    byte[] chunk;
+                    while ((chunk = received.poll()) != null) {
+                        textBody.feed(chunk, readOffset, chunk.length - readOffset);
+                        readOffset = 0;
+                    }
+                    credit = consumed(buffered);
+                    buffered = 0;
+                    if (remoteFinished) {
+                        text = textBody.finish();
+                    }
+                } catch (ProtocolException e) {
+                    error = e;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (error instanceof ProtocolException) {
+            reset("message too long");
+        } else if (error != null) {
+            done.completeExceptionally(error);
+        } else if (text != null) {
+            done.complete(text);
+        } else if (credit > 0) {
+            connection.sendQuietly(Frame.window(id, credit));
+        }
+        return done;
+    }
+
+    /**
+     * Send the rest of the body from source without holding a thread: a chunk is read
+     * whenever window credit comes back, and FIN follows the end of the source. The source
+     * is closed when done or when the stream fails. Reads happen on the I/O thread, so the
+     * source must be a local file or memory, never a socket.
+     */
+    public void pumpFrom(ReadableByteChannel source) {
+        lock.lock();
+        try {
+            pumpSource = source;
+        } finally {
+            lock.unlock();
+        }
+        pump();
+    }
+
+    /**
+     * End our half of the stream (FIN); the other side may still be sending
+     */
+    public void finish() throws IOException {
+        lock.lock();
+        try {
+            if (localFinished) {
+                return;
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            localFinished = true;
+        } finally {
+            lock.unlock();
+        }
+        connection.send(Frame.fin(id, priority));
+        removeIfDone();
+    }
+
+    /**
+     * Same as finish(), but never throws: for try-with-resources on either side
+     */
+    @Override
+    public void close() {
+        try {
+            finish();
+        } catch (IOException ignored) {
+            // stream already failed; nothing left to end
+        }
+    }
+
+    /**
+     * Abort the stream in both directions
+     */
+    public void reset(String reason) {
+        if (fail(new IOException("Stream reset: " + reason))) {
+            connection.sendQuietly(Frame.reset(id, reason));
+        }
+    }
+
+    public boolean isDone() {
+        lock.lock();
+        try {
+            return failure != null || (localFinished && remoteFinished);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ============= CALLED BY THE CONNECTION READER =============
+
+    void onData(byte[] chunk, boolean fin) {
+        boolean overrun = false;
+        boolean tooLong = false;
+        int credit = 0;
+        String text = null;
+        CompletableFuture<String> textReady = null;
+        lock.lock();
+        try {
+            if (failure != null || remoteFinished) {
+                return;
+            }
+            if (textBody != null) {
+                try {
+                    textBody.feed(chunk, 0, chunk.length);
+                    credit = fin ? 0 : consumed(chunk.length);
+                    if (fin) {
+                        text = textBody.finish();
+                        textReady = textDone;
+                    }
+                } catch (ProtocolException e) {
+                    tooLong = true;
+                }
+            } else if (chunk.length > 0) {
+                if (buffered + chunk.length > NetworkConfig.TCP_STREAM_WINDOW) {
+                    overrun = true;
+                } else {
+                    received.add(chunk);
+                    buffered += chunk.length;
+                }
+            }
+            remoteFinished |= fin && !tooLong;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (overrun) {
+            reset("flow control window exceeded");
+        } else if (tooLong) {
+            reset("message too long");
+        } else if (fin) {
+            if (textReady != null) {
+                textReady.complete(text);
+            }
+            remoteDone.complete(null);
+            removeIfDone();
+        } else if (credit > 0) {
+            connection.sendQuietly(Frame.window(id, credit));
+        }
+    }
+
+    void onWindow(int credit) {
+        if (credit <= 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            sendWindow = (int) Math.min((long) sendWindow + credit, Integer.MAX_VALUE);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        pump();
+    }
+
+    void onReset(String reason) {
+        fail(new ResetByPeerException(reason));
+    }
+
+    /**
+     * @return true if this call failed the stream (it was still alive)
+     */
+    boolean fail(IOException cause) {
+        CompletableFuture<String> textReady;
+        lock.lock();
+        try {
+            if (failure != null) {
+                return false;
+            }
+            failure = cause;
+            received.clear();
+            textReady = textDone;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (textReady != null) {
+            textReady.completeExceptionally(cause);
+        }
+        remoteDone.completeExceptionally(cause);
+        connection.remove(this);
+        closePumpSource();
+        return true;
+    }
+
+    /**
+     * Queue as much of the pumped body as the window allows. Called from the thread that
+     * set the source and from the I/O thread on credit: each chunk is read and queued under
+     * the lock, so chunks (and the FIN) go out in the order they were read.
+     */
+    private void pump() {
+        while (true) {
+            boolean failed = false;
+            boolean end = false;
+            lock.lock();
+            try {
+                if (pumpSource == null || failure != null || localFinished || sendWindow <= 0) {
+                    return;
+                }
+                ByteBuffer buf = ByteBuffer.allocate(Math.min(sendWindow, NetworkConfig.TCP_DATA_CHUNK_SIZE));
+                try {
+                    while (buf.hasRemaining() && !end) {
+                        end = pumpSource.read(buf) < 0;
+                    }
+                } catch (IOException e) {
+                    failed = true;
+                }
+                if (!failed) {
+                    byte[] chunk = Arrays.copyOf(buf.array(), buf.position());
+                    sendWindow -= chunk.length;
+                    localFinished = end;
+                    connection.sendQuietly(Frame.data(id, priority, chunk, end)); // only adds to a queue
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (failed) {
+                reset("cannot read body");
+                return;
+            }
+            if (end) {
+                closePumpSource();
+                removeIfDone();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Count bytes taken out of the receive window (lock held). Credit goes back in batches
+     * of half a window, not per read.
+     * @return credit to send to the peer now, or 0
+     */
+    private int consumed(int n) {
+        unacknowledged += n;
+        if (unacknowledged < NetworkConfig.TCP_STREAM_WINDOW / 2 || remoteFinished) {
+            return 0;
+        }
+        int credit = unacknowledged;
+        unacknowledged = 0;
+        return credit;
+    }
+
+    private void closePumpSource() {
+        ReadableByteChannel source;
+        lock.lock();
+        try {
+            source = pumpSource;
+            pumpSource = null;
+        } finally {
+            lock.unlock();
+        }
+        if (source != null) {
+            try {
+                source.close();
+            } catch (IOException ignored) {
+                // read-only source
+            }
+        }
+    }
+
+    private void removeIfDone() {
+        if (isDone()) {
+            connection.remove(this);
+        }
+    }
+
+    private class StreamInput extends InputStream {
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int n;
+            int credit = 0;
+            lock.lock();
+            try {
+                while (received.isEmpty() && !remoteFinished && failure == null) {
+                    try {
+                        changed.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while reading stream " + id);
+                    }
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+                if (received.isEmpty()) {
+                    return -1;
+                }
+
+                byte[] chunk = received.peek();
+                n = Math.min(len, chunk.length - readOffset);
+                System.arraycopy(chunk, readOffset, b, off, n);
+                readOffset += n;
+                if (readOffset == chunk.length) {
+                    received.poll();
+                    readOffset = 0;
+                }
+                buffered -= n;
+
+                credit = consumed(n);
+            } finally {
+                lock.unlock();
+            }
+            if (credit > 0) {
+                connection.sendQuietly(Frame.window(id, credit));
+            }
+            return n;
+        }
+
+        @Override
+        public int available() {
+            lock.lock();
+            try {
+                return buffered;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private class StreamOutput extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n;
+                lock.lock();
+                try {
+                    while (sendWindow <= 0 && failure == null) {
+                        try {
+                            changed.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IOException("Interrupted while writing stream " + id);
+                        }
+                    }
+                    if (failure != null) {
+                        throw failure;
+                    }
+                    if (localFinished) {
+                        throw new IOException("Stream " + id + " already finished");
+                    }
+                    n = Math.min(len, Math.min(sendWindow, NetworkConfig.TCP_DATA_CHUNK_SIZE));
+                    sendWindow -= n;
+                } finally {
+                    lock.unlock();
+                }
+                connection.send(Frame.data(id, priority, Arrays.copyOfRange(b, off, off + n), false));
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+        }
+    }
+}
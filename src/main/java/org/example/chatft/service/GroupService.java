@@ -1,28 +1,58 @@
 package org.example.chatft.service;
 
+import org.example.chatft.config.NetworkConfig;
+import org.example.chatft.handler.UdpMessageHandler;
 import org.example.chatft.model.Group;
 import org.example.chatft.repository.GroupRepository;
+import org.example.chatft.utils.Hashing;
+import org.example.chatft.utils.JitteredResponder;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 public class GroupService {
     private final String nickname;
     private final GroupRepository groupRepository;
     private final UdpService udpService;
+    private final ReliableGroupChannel groupChannel;
     private final FileTransferService fileTransferService;
     private final int tcpPort;
 
+    // Catalog sync holdoff timestamps, per digest bucket
+    private final long[] lastRequestedAt = new long[NetworkConfig.GROUP_DIGEST_BUCKETS];
+    private final long[] lastSentAt = new long[NetworkConfig.GROUP_DIGEST_BUCKETS];
+    private final JitteredResponder digestResponder;
+
+    // Catalog ageing: group name -> when a member last announced it (as far as we heard)
+    private final Map<String, Long> lastAnnouncedAt = new ConcurrentHashMap<>();
+
     public GroupService(String nickname,
                         GroupRepository groupRepository,
                         UdpService udpService,
+                        ReliableGroupChannel groupChannel,
                         FileTransferService fileTransferService,
+                        ScheduledExecutorService scheduler,
                         int tcpPort) {
         this.nickname = nickname;
         this.groupRepository = groupRepository;
         this.udpService = udpService;
+        this.groupChannel = groupChannel;
         this.fileTransferService = fileTransferService;
         this.tcpPort = tcpPort;
+        this.digestResponder = new JitteredResponder(scheduler,
+                () -> udpService.broadcastGroupDigest(computeDigest()));
+        // Random phase, so the members of a group don't all check (and re-announce) at once
+        scheduler.scheduleWithFixedDelay(this::refreshCatalog,
+                ThreadLocalRandom.current().nextLong(NetworkConfig.GROUP_REFRESH_CHECK_MS) + 1,
+                NetworkConfig.GROUP_REFRESH_CHECK_MS, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -35,6 +65,7 @@ public class GroupService {
         // Join the group
         groupRepository.joinPublicGroup(groupName);
         group.setJoined(true);
+        lastAnnouncedAt.put(groupName, now());
 
         // Broadcast to network
         udpService.broadcastPublicGroup(groupName);
@@ -51,6 +82,7 @@ public class GroupService {
         // Join the group
         groupRepository.joinPrivateGroup(groupName, password);
         group.setJoined(true);
+        lastAnnouncedAt.put(groupName, now());
 
         // Broadcast to network
         udpService.broadcastPrivateGroup(groupName, password);
@@ -93,6 +125,7 @@ public class GroupService {
 
     /**
      * Send message to group
+     * @throws IllegalArgumentException if the message is too large to send over UDP
      */
     public void sendGroupMessage(String groupName, String message) {
         if (!groupRepository.isJoined(groupName)) {
@@ -100,7 +133,7 @@ public class GroupService {
             return;
         }
 
-        udpService.sendGroupMessage(groupName, nickname, message);
+        groupChannel.send(groupName, nickname, message);
         System.out.println("[GROUP] Sent message to " + groupName + ": " + message);
     }
 
@@ -142,19 +175,173 @@ public class GroupService {
     }
 
     /**
-     * Broadcast all joined groups (used when new user detected)
+     * Broadcast digest of our group catalog after a random delay (used when new user detected).
+     * Peers with a different catalog pull only the buckets that differ; if someone else
+     * broadcasts an identical digest first, ours is suppressed.
+     */
+    public void scheduleDigest(long maxDelayMs) {
+        digestResponder.schedule(maxDelayMs);
+    }
+
+    /**
+     * Peer announced its digest: request the buckets where it has something we don't match
+     */
+    public void handleDigest(UdpMessageHandler.GroupDigest digest) {
+        int[] local = computeDigest();
+        if (Arrays.equals(local, digest.buckets)) {
+            digestResponder.suppress();
+            return;
+        }
+
+        int mask = claim(lastRequestedAt, diffMask(local, digest.buckets));
+        if (mask != 0) {
+            System.out.println("[GROUP-SYNC] Catalog differs, requesting buckets " + Integer.toBinaryString(mask));
+            udpService.sendGroupSyncRequest(digest.fromPeerId, mask, local);
+        }
+    }
+
+    /**
+     * Peer asked for our entries in some buckets: multicast them,
+     * then pull back whatever the requester has that we don't match
+     */
+    public void handleSyncRequest(UdpMessageHandler.GroupSyncRequest request) {
+        int sendMask = claim(lastSentAt, request.bucketMask);
+        if (sendMask != 0) {
+            List<Group> entries = new ArrayList<>();
+            for (Group group : groupRepository.getAllDiscoveredGroups()) {
+                if ((sendMask & (1 << bucketOf(group.getName()))) != 0) {
+                    entries.add(group);
+                }
+            }
+            if (!entries.isEmpty()) {
+                udpService.broadcastGroupEntries(entries, this::ageSeconds);
+                System.out.println("[GROUP-SYNC] Sent " + entries.size() + " catalog entries");
+            }
+        }
+
+        int[] local = computeDigest();
+        int pullMask = claim(lastRequestedAt, diffMask(local, request.requesterBuckets));
+        if (pullMask != 0) {
+            udpService.sendGroupSyncRequest(request.fromPeerId, pullMask, local);
+        }
+    }
+
+    /**
+     * Catalog entries received: remember the most recent member announcement they carry
+     */
+    public void handleEntries(List<UdpMessageHandler.GroupEntry> entries) {
+        long now = now();
+        for (UdpMessageHandler.GroupEntry entry : entries) {
+            if (groupRepository.getGroup(entry.groupName) != null) {
+                lastAnnouncedAt.merge(entry.groupName, now - entry.ageMs, Math::max);
+            }
+        }
+    }
+
+    /**
+     * Periodic catalog upkeep. For a group we are in that no member announced for
+     * GROUP_REFRESH_INTERVAL_MS, multicast its entry: with the random phase, about one
+     * member per group does it each interval. Drop groups we are not in that no member
+     * announced for GROUP_EXPIRY_MS; an entry passed on by others carries its age, so a
+     * dropped group doesn't come back from a peer that still has it.
+     */
+    private void refreshCatalog() {
+        try {
+            long now = now();
+            List<Group> announce = new ArrayList<>();
+            for (Group group : groupRepository.getAllDiscoveredGroups()) {
+                String groupName = group.getName();
+                Long announcedAt = lastAnnouncedAt.putIfAbsent(groupName, now);
+                if (announcedAt == null) {
+                    continue; // just announced to us (GROUP_PUBLIC/GROUP_PRIVATE by its creator)
+                }
+                if (groupRepository.isJoined(groupName)) {
+                    if (now - announcedAt >= NetworkConfig.GROUP_REFRESH_INTERVAL_MS) {
+                        announce.add(group);
+                        lastAnnouncedAt.put(groupName, now);
+                    }
+                } else if (now - announcedAt > NetworkConfig.GROUP_EXPIRY_MS) {
+                    groupRepository.removeDiscoveredGroup(groupName);
+                    lastAnnouncedAt.remove(groupName);
+                    System.out.println("[GROUP-SYNC] No member announced " + groupName + " any more, dropped");
+                }
+            }
+            lastAnnouncedAt.keySet().removeIf(groupName -> groupRepository.getGroup(groupName) == null);
+
+            if (!announce.isEmpty()) {
+                udpService.broadcastGroupEntries(announce, group -> 0);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("[GROUP-SYNC-ERR] " + e.getMessage());
+        }
+    }
+
+    /**
+     * Seconds since a member last announced the group, 0 if we are one
+     */
+    private int ageSeconds(Group group) {
+        if (groupRepository.isJoined(group.getName())) {
+            return 0;
+        }
+        long announcedAt = lastAnnouncedAt.getOrDefault(group.getName(), now());
+        return (int) TimeUnit.MILLISECONDS.toSeconds(Math.max(0, now() - announcedAt));
+    }
+
+    /**
+     * Digest = per-bucket XOR of entry hashes (order independent, 0 for an empty bucket)
+     */
+    private int[] computeDigest() {
+        int[] buckets = new int[NetworkConfig.GROUP_DIGEST_BUCKETS];
+        for (Group group : groupRepository.getAllDiscoveredGroups()) {
+            buckets[bucketOf(group.getName())] ^= entryHash(group);
+        }
+        return buckets;
+    }
+
+    /**
+     * Buckets that differ and are non-empty on the remote side
      */
-    public void broadcastAllGroups() {
-        // Gửi lại tất cả group public
-        for (String groupName : groupRepository.getJoinedPublicGroups()) {
-            udpService.broadcastPublicGroup(groupName);
+    private static int diffMask(int[] local, int[] remote) {
+        int mask = 0;
+        int count = Math.min(local.length, remote.length);
+        for (int i = 0; i < count; i++) {
+            if (remote[i] != 0 && remote[i] != local[i]) {
+                mask |= 1 << i;
+            }
         }
+        return mask;
+    }
 
-        // Gửi lại tất cả group private (có password)
-        for (var entry : groupRepository.getJoinedPrivateGroups().entrySet()) {
-            String groupName = entry.getKey();
-            String password = entry.getValue();
-            udpService.broadcastPrivateGroup(groupName, password);
+    /**
+     * Drop buckets handled within the holdoff window, stamp the rest
+     */
+    private synchronized int claim(long[] lastAt, int mask) {
+        long now = System.currentTimeMillis();
+        int claimed = 0;
+        for (int i = 0; i < lastAt.length; i++) {
+            if ((mask & (1 << i)) != 0 && now - lastAt[i] >= NetworkConfig.GROUP_SYNC_HOLDOFF_MS) {
+                lastAt[i] = now;
+                claimed |= 1 << i;
+            }
         }
+        return claimed;
+    }
+
+    private static int bucketOf(String groupName) {
+        return Hashing.mix(groupName.hashCode()) & (NetworkConfig.GROUP_DIGEST_BUCKETS - 1);
+    }
+
+    /**
+     * Covers name, visibility and password, so a changed password is synced too. Not the
+     * age: that differs from peer to peer and is not worth a sync on its own
+     */
+    private static int entryHash(Group group) {
+        String password = group.getPassword() == null ? "" : group.getPassword();
+        int h = Hashing.mix((group.getName().hashCode() * 31 + (group.isPublic() ? 1 : 0)) * 31 + password.hashCode());
+        return h == 0 ? 1 : h;
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,161 @@
+package org.example.chatft.service;
+
+import org.example.chatft.config.NetworkConfig;
+import org.example.chatft.model.LinkHealth;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moving RTT, jitter and loss estimate per peer host, fed by traffic that flows anyway.
+ *
+ * - RTT and jitter: PING/PONG frames riding along on the peer's TCP connections (see
+ *   PeerConnection.measureRtt), smoothed as in RFC 6298: srtt += (sample - srtt) / 8,
+ *   rttvar += (|sample - srtt| - rttvar) / 4. Jitter is reported as rttvar.
+ * - Loss: gaps in the sequence numbers of the peer's UDP datagrams that reached the
+ *   handler, over windows of LINK_LOSS_WINDOW sequence numbers, smoothed across windows.
+ *   Needs every datagram a sender stamps to reach every receiver, which is why unicast
+ *   video frames have a sequence space of their own (see UdpService).
+ *
+ * Keyed by IP address: peers are one per host, and TCP and UDP only share the address.
+ */
+public class LinkHealthRegistry {
+    private static final long MAX_RTT_NANOS = TimeUnit.MINUTES.toNanos(1);  // anything longer is a bogus echo
+
+    private final Map<String, Link> links = new ConcurrentHashMap<>();
+
+    /**
+     * Round-trip time measured on a connection to ip
+     */
+    public void onRtt(String ip, long rttNanos) {
+        if (rttNanos >= 0 && rttNanos <= MAX_RTT_NANOS) {
+            link(ip).onRtt(rttNanos / 1e6);
+        }
+    }
+
+    /**
+     * New (not duplicate) datagram from ip, stamped (peerId, sequence) by its sender
+     */
+    public void onDatagram(String ip, long peerId, int sequence) {
+        link(ip).onSequence(peerId, sequence);
+    }
+
+    /**
+     * Current estimate for ip, LinkHealth.UNKNOWN if nothing was measured yet
+     */
+    public LinkHealth get(String ip) {
+        Link link = ip == null ? null : links.get(ip);
+        return link == null ? LinkHealth.UNKNOWN : link.snapshot();
+    }
+
+    /**
+     * How long to wait for a peer to acknowledge a message: TCP_ACK_MIN_TIMEOUT_MS for
+     * handling on its side plus two retransmission timeouts (srtt + 4 * rttvar), never
+     * more than TCP_ACK_TIMEOUT_MS, which is also the answer while the RTT is unknown
+     */
+    public long ackTimeoutMs(String ip) {
+        LinkHealth health = get(ip);
+        if (!health.hasRtt()) {
+            return NetworkConfig.TCP_ACK_TIMEOUT_MS;
+        }
+        double rto = health.getRttMs() + 4 * health.getJitterMs();
+        return Math.min(NetworkConfig.TCP_ACK_TIMEOUT_MS, NetworkConfig.TCP_ACK_MIN_TIMEOUT_MS + Math.round(2 * rto));
+    }
+
+    private Link link(String ip) {
+        return links.computeIfAbsent(ip, k -> new Link());
+    }
+
+    private static class Link {
+        private double srtt;
+        private double rttvar;
+        private int rttSamples;
+        private double loss;
+        private int lossSamples;
+        private final Map<Long, SequenceWindow> senders = new LinkedHashMap<>(); // by peerId, oldest first
+
+        synchronized void onRtt(double sampleMs) {
+            if (rttSamples == 0) {
+                srtt = sampleMs;
+                rttvar = sampleMs / 2;
+            } else {
+                rttvar += (Math.abs(sampleMs - srtt) - rttvar) / 4;
+                srtt += (sampleMs - srtt) / 8;
+            }
+            rttSamples++;
+        }
+
+        synchronized void onSequence(long peerId, int sequence) {
+            SequenceWindow window = senders.get(peerId);
+            if (window == null) {
+                if (senders.size() >= NetworkConfig.LINK_MAX_SENDERS_PER_HOST) {
+                    // Restarted peers leave their old ids behind
+                    Iterator<Long> oldest = senders.keySet().iterator();
+                    oldest.next();
+                    oldest.remove();
+                }
+                window = new SequenceWindow();
+                senders.put(peerId, window);
+            }
+            window.accept(sequence);
+        }
+
+        private void onLossSample(double sample) {
+            loss = lossSamples == 0 ? sample : loss + (sample - loss) * NetworkConfig.LINK_LOSS_GAIN;
+            lossSamples++;
+        }
+
+        synchronized LinkHealth snapshot() {
+            return new LinkHealth(rttSamples > 0 ? srtt : -1, rttSamples > 0 ? rttvar : -1,
+                    lossSamples > 0 ? loss : -1, rttSamples, lossSamples);
+        }
+
+        /**
+         * Sequence numbers of one sender, counted in consecutive windows of LINK_LOSS_WINDOW.
+         * The deduplicator runs first, so each number arrives at most once. A window is
+         * closed only once the sender is a whole window past it: a fragmented message's
+         * own number comes after its fragments' when it is reassembled.
+         */
+        private class SequenceWindow {
+            private static final int WINDOW = NetworkConfig.LINK_LOSS_WINDOW;  // multiple of 64
+            private final long[] seen = new long[2 * WINDOW / 64];             // start .. start + 2 * WINDOW
+            private boolean started;
+            private int start;
+
+            void accept(int sequence) {
+                int offset = sequence - start;
+                if (!started || offset >= 2 * WINDOW + NetworkConfig.LINK_LOSS_MAX_GAP) {
+                    // First datagram, or the sender's counter jumped: start over from here
+                    started = true;
+                    start = sequence;
+                    Arrays.fill(seen, 0L);
+                    offset = 0;
+                }
+                if (offset < 0) {
+                    return; // its window is closed, it was counted as lost
+                }
+                while (offset >= 2 * WINDOW) {
+                    close();
+                    offset -= WINDOW;
+                }
+                seen[offset >>> 6] |= 1L << (offset & 63);
+            }
+
+            private void close() {
+                int words = WINDOW / 64;
+                int received = 0;
+                for (int i = 0; i < words; i++) {
+                    received += Long.bitCount(seen[i]);
+                }
+                System.arraycopy(seen, words, seen, 0, words);
+                Arrays.fill(seen, words, seen.length, 0L);
+                start += WINDOW;
+                onLossSample(1 - received / (double) WINDOW);
+            }
+        }
+    }
+}
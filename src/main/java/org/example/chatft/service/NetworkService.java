@@ -1,21 +1,35 @@
 package org.example.chatft.service;
 
+import org.example.chatft.config.NetworkConfig;
 import org.example.chatft.handler.TcpConnectionHandler;
 import org.example.chatft.handler.UdpMessageHandler;
 import org.example.chatft.model.*;
+import org.example.chatft.protocol.RpcMethod;
 import org.example.chatft.repository.GroupRepository;
 import org.example.chatft.repository.UserRepository;
 import org.example.chatft.service.*;
+import org.example.chatft.utils.ExecutionModel;
+import org.example.chatft.utils.Logger;
 import org.example.chatft.utils.MessageDeduplicator;
 
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 public class NetworkService {
+    private static final Logger log = Logger.get("UDP");
+
     private final String nickname;
+    private final long localPeerId;
     // Repositories
     private final UserRepository userRepository;
     private final GroupRepository groupRepository;
@@ -25,10 +39,19 @@ public class NetworkService {
     private final TcpService tcpService;
     private final GroupService groupService;
     private final FileTransferService fileTransferService;
+    private final PresenceService presenceService;
+    private final ReliableGroupChannel groupChannel;
+    private final PeerConnectionPool connectionPool;
+    private final TcpReactor tcpReactor;
+    private final LinkHealthRegistry linkHealth;
+    private final RpcService rpcService;
+    private final Outbox outbox;
 
     // Utilities
     private final MessageDeduplicator messageDeduplicator;
+    private final ExecutionModel executionModel;
     private final ExecutorService executor;
+    private final ScheduledExecutorService scheduler;
 
     // Callbacks
     private final Consumer<User> onUserOnline;
@@ -39,11 +62,6 @@ public class NetworkService {
     private final Consumer<Group> onGroupDiscovered;
 
     private UdpMessageHandler udpHandler;
-    private Consumer<User> incomingVideoCallCallback;
-    private Consumer<String[]> onSdpOfferCallback;
-    private Consumer<String[]> onSdpAnswerCallback;
-    private Consumer<String[]> onIceCandidateCallback;
-    private Consumer<String> onCallEndCallback;
     private Consumer<UdpMessageHandler.VideoFrameData> onVideoFrameCallback;
     
     public NetworkService(String nickname,
@@ -54,6 +72,8 @@ public class NetworkService {
                           Consumer<GroupMessage> onGroupMessage,
                           Consumer<Group> onGroupDiscovered) throws IOException {
         this.nickname = nickname;
+        // Random per-run id stamped on every datagram (dedup key together with the sequence number)
+        this.localPeerId = ThreadLocalRandom.current().nextLong();
         this.onUserOnline = onUserOnline;
         this.onUserOffline = onUserOffline;
         this.onMessage = onMessage;
@@ -61,9 +81,13 @@ public class NetworkService {
         this.onGroupMessage = onGroupMessage;
         this.onGroupDiscovered = onGroupDiscovered;
 
-        // Initialize executor with daemon threads so app can exit
-        this.executor = Executors.newCachedThreadPool(r -> {
-            Thread t = new Thread(r);
+        // Blocking network tasks: a virtual thread each, or the old cached pool (-Dchatft.threads=platform)
+        this.executionModel = ExecutionModel.fromSystemProperty();
+        this.executor = executionModel.newTaskExecutor("net");
+
+        // Single timer thread for heartbeats, expiry and jittered responses
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "network-timer");
             t.setDaemon(true);
             return t;
         });
@@ -74,61 +98,31 @@ public class NetworkService {
 
         // Initialize utilities
         this.messageDeduplicator = new MessageDeduplicator();
+        this.presenceService = new PresenceService(nickname, userRepository, scheduler, onUserOffline);
+        this.groupChannel = new ReliableGroupChannel(scheduler, this::deliverGroupMessage);
+
+        // Selector threads for every peer TCP connection, plus one long-lived
+        // connection per peer shared by chat, files and signaling
+        this.tcpReactor = new TcpReactor(NetworkConfig.TCP_IO_THREADS);
+        tcpReactor.start();
+        this.linkHealth = new LinkHealthRegistry();
+        this.connectionPool = new PeerConnectionPool(tcpReactor, scheduler, linkHealth);
 
         // Initialize FileTransferService
-        this.fileTransferService = new FileTransferService(nickname, executor, onFileReceived);
+        this.fileTransferService = new FileTransferService(nickname, executor, connectionPool, onFileReceived);
 
         // Initialize TCP service
         TcpConnectionHandler tcpHandler = new TcpConnectionHandler(
-                nickname, groupRepository, fileTransferService, onMessage, onFileReceived
+                nickname, groupRepository, fileTransferService, executor, onMessage, onFileReceived
         );
         
-        // Set video call request handler
-        tcpHandler.setOnVideoCallRequest(parts -> {
-            String fromNickname = parts[1].trim();
-            int fromPort = Integer.parseInt(parts[2].trim());
-            
-            User caller = userRepository.getUser(fromNickname);
-            if (caller != null && udpHandler != null) {
-                System.out.println("[TCP-VIDEO] Forwarding incoming call from " + fromNickname + " to UI");
-                javafx.application.Platform.runLater(() -> {
-                    if (udpHandler != null) {
-                        var callback = getIncomingVideoCallCallback();
-                        if (callback != null) {
-                            callback.accept(caller);
-                        }
-                    }
-                });
-            }
-        });
-        
-        // Set SDP/ICE handlers
-        tcpHandler.setOnSdpOffer(parts -> {
-            if (onSdpOfferCallback != null) {
-                javafx.application.Platform.runLater(() -> onSdpOfferCallback.accept(parts));
-            }
-        });
-        
-        tcpHandler.setOnSdpAnswer(parts -> {
-            if (onSdpAnswerCallback != null) {
-                javafx.application.Platform.runLater(() -> onSdpAnswerCallback.accept(parts));
-            }
-        });
-        
-        tcpHandler.setOnIceCandidate(parts -> {
-            if (onIceCandidateCallback != null) {
-                javafx.application.Platform.runLater(() -> onIceCandidateCallback.accept(parts));
-            }
-        });
-        
-        tcpHandler.setOnCallEnd(fromNickname -> {
-            if (onCallEndCallback != null) {
-                javafx.application.Platform.runLater(() -> onCallEndCallback.accept(fromNickname));
-            }
-        });
-        
+        // Signaling and other request/response calls from peers
+        this.rpcService = new RpcService(nickname, connectionPool);
+        tcpHandler.setRpcService(rpcService);
+
         // Set TCP offline handler
         tcpHandler.setOnUserOfflineTcp(offlineNick -> {
+            presenceService.forget(offlineNick);
             User removed = userRepository.removeUser(offlineNick);
             if (removed != null) {
                 System.out.println("[TCP-OFFLINE] Removing user: " + offlineNick);
@@ -136,34 +130,57 @@ public class NetworkService {
             }
         });
         
-        this.tcpService = new TcpService(nickname, executor, tcpHandler);
+        this.tcpService = new TcpService(nickname, scheduler, tcpReactor, tcpHandler, connectionPool);
+
+        // Direct messages and files for peers we can't reach wait on disk until they are back
+        this.outbox = new Outbox(Paths.get(NetworkConfig.OUTBOX_DIR, nickname.replaceAll("[^a-zA-Z0-9._-]", "_")),
+                tcpService, fileTransferService, userRepository, scheduler);
 
         // Initialize UDP service
         this.udpHandler = new UdpMessageHandler(
                 nickname,
                 tcpService.getTcpPort(),
+                localPeerId,
                 userRepository,
                 groupRepository,
                 messageDeduplicator,
-                onUserOnline,
+                presenceService,
+                groupChannel,
+                user -> {
+                    outbox.onPeerOnline(user); // whatever waited for this peer goes out now
+                    onUserOnline.accept(user);
+                },
                 onUserOffline,
                 onGroupMessage,
                 onGroupDiscovered,
                 this::handleNewUserDetected,
                 this::handleFileDownloadRequest
         );
-        this.udpService = new UdpService(nickname, tcpService.getTcpPort(), executor, udpHandler);
+        this.udpService = new UdpService(nickname, tcpService.getTcpPort(), localPeerId, executor, scheduler, udpHandler);
 
         // Initialize GroupService
         this.groupService = new GroupService(
-                nickname, groupRepository, udpService, fileTransferService, tcpService.getTcpPort()
+                nickname, groupRepository, udpService, groupChannel, fileTransferService, scheduler, tcpService.getTcpPort()
         );
 
+        // After a network change, tell the LAN we are (back) here instead of waiting for the next heartbeat
+        udpService.setOnInterfacesChanged(presenceService::announce);
+
+        // Sequence gaps in what peers multicast to us: the loss half of the link estimates
+        udpHandler.setLinkHealth(linkHealth);
+
+        // Group catalog anti-entropy
+        udpHandler.setOnGroupDigest(groupService::handleDigest);
+        udpHandler.setOnGroupSyncRequest(groupService::handleSyncRequest);
+        udpHandler.setOnGroupEntries(groupService::handleEntries);
+
         // Start services
-        System.out.println("[START] " + nickname + " started with TCP port " + tcpService.getTcpPort());
+        System.out.println("[START] " + nickname + " started with TCP port " + tcpService.getTcpPort()
+                + ", " + executionModel.name().toLowerCase() + " task threads");
         udpService.startListener();
         tcpService.startListener();
-        udpService.broadcastOnline();
+        presenceService.start(udpService);
+        groupChannel.start(udpService);
     }
 
     // ============= PUBLIC API =============
@@ -236,66 +253,74 @@ public class NetworkService {
     }
 
     // Direct messaging
-    public void sendMessage(User user, String message) {
-        tcpService.sendMessage(user, message);
+    /**
+     * Queued in the outbox if the peer can't be reached, and sent when it can
+     * @return completes when the peer acknowledged the message, fails with the cause if it never will
+     */
+    public CompletableFuture<Void> sendMessage(User user, String message) {
+        return outbox.sendMessage(user, message);
     }
 
-    public void sendFile(User user, String filePath) {
-        fileTransferService.sendFile(user, filePath);
+    /**
+     * Queued in the outbox if the peer can't be reached, and sent when it can
+     * @return completes when the peer has stored the whole file
+     */
+    public CompletableFuture<Void> sendFile(User user, String filePath) {
+        return outbox.sendFile(user, filePath);
     }
 
     // Network status
     public void broadcastOnline() {
-        udpService.broadcastOnline();
+        presenceService.announce();
     }
 
-    public void broadcastOffline() {
+    /**
+     * Tell the LAN we are leaving, then shut down. Takes at most OFFLINE_NOTIFY_DEADLINE_MS
+     * plus the socket closes, whatever the roster size.
+     * @return number of peers that acknowledged the TCP offline notice
+     */
+    public int broadcastOffline() {
         System.out.println("[SHUTDOWN] ========================================");
         System.out.println("[SHUTDOWN] Broadcasting OFFLINE message...");
         System.out.println("[SHUTDOWN] ========================================");
         
-        try {
-            // 1. Send TCP offline notifications directly to all known users
-            System.out.println("[SHUTDOWN] Sending TCP offline notifications to all users...");
-            for (User user : userRepository.getAllUsers()) {
-                tcpService.notifyOffline(user);
-                Thread.sleep(50);
-            }
-            System.out.println("[SHUTDOWN] TCP offline notifications sent to " + userRepository.getUserCount() + " users");
-            
-            // 2. Send OFFLINE via UDP multiple times to ensure delivery
-            System.out.println("[SHUTDOWN] Sending UDP OFFLINE broadcasts...");
-            for (int i = 0; i < 5; i++) {
-                udpService.broadcastOffline();
-                Thread.sleep(150);
-            }
-            
-            System.out.println("[SHUTDOWN] OFFLINE messages sent (5x UDP)");
-            
-            // 3. Wait longer to ensure all messages are received
-            System.out.println("[SHUTDOWN] Waiting for message delivery...");
-            Thread.sleep(500);
-            
-        } catch (InterruptedException e) {
-            System.err.println("[SHUTDOWN] Interrupted during offline broadcast");
-            Thread.currentThread().interrupt();
-        }
+        // 1. One UDP OFFLINE; peers that miss it expire us after a few missed heartbeats
+        udpService.broadcastOffline();
+
+        // 2. TCP offline notices to all peers in parallel, under one deadline
+        long start = System.nanoTime();
+        List<User> users = new ArrayList<>(userRepository.getAllUsers());
+        int reached = tcpService.notifyOffline(users, NetworkConfig.OFFLINE_NOTIFY_DEADLINE_MS);
+        System.out.println("[SHUTDOWN] Offline notice acknowledged by " + reached + "/" + users.size()
+                + " peers in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
         
         System.out.println("[SHUTDOWN] Shutting down services...");
         shutdown();
         System.out.println("[SHUTDOWN] ========================================");
         System.out.println("[SHUTDOWN] Complete.");
         System.out.println("[SHUTDOWN] ========================================");
+        return reached;
     }
 
     // ============= PRIVATE METHODS =============
 
     /**
-     * Called when new user is detected - broadcast our presence and groups
+     * Called when new user is detected - answer with roster and group catalog digest,
+     * each after a random delay and only if no other peer answered the same first
      */
     private void handleNewUserDetected() {
-        udpService.broadcastOnline();
-        groupService.broadcastAllGroups();
+        presenceService.respondToNewPeer();
+        groupService.scheduleDigest(NetworkConfig.PRESENCE_RESPONSE_MAX_DELAY_MS);
+    }
+
+    /**
+     * Group message released in order by the reliable channel
+     */
+    private void deliverGroupMessage(GroupMessage message) {
+        if (!message.getSender().equals(nickname) && groupRepository.isJoined(message.getGroupName())) {
+            onGroupMessage.accept(message);
+            log.debug(() -> "[GROUP] Message in " + message.getGroupName() + " from " + message.getSender() + ": " + message.getContent());
+        }
     }
 
     /**
@@ -316,14 +341,9 @@ public class NetworkService {
      * Set incoming video call callback
      */
     public void setOnIncomingVideoCall(Consumer<User> callback) {
-        this.incomingVideoCallCallback = callback;
         udpHandler.setOnIncomingVideoCall(callback);
     }
     
-    private Consumer<User> getIncomingVideoCallCallback() {
-        return incomingVideoCallCallback;
-    }
-    
     /**
      * Set video frame callback
      */
@@ -333,138 +353,51 @@ public class NetworkService {
     }
     
     /**
-     * Set video signaling callbacks
+     * Answer calls of an RPC method (e.g. Signaling.SDP_OFFER) from peers. The handler runs
+     * on a connection's I/O thread and must not block; see RpcService.Handler.
      */
-    public void setOnSdpOffer(Consumer<String[]> callback) {
-        this.onSdpOfferCallback = callback;
-    }
-    
-    public void setOnSdpAnswer(Consumer<String[]> callback) {
-        this.onSdpAnswerCallback = callback;
-    }
-    
-    public void setOnIceCandidate(Consumer<String[]> callback) {
-        this.onIceCandidateCallback = callback;
+    public <Q, R> void setRpcHandler(RpcMethod<Q, R> method, RpcService.Handler<Q, R> handler) {
+        rpcService.register(method, handler);
     }
-    
-    public void setOnCallEnd(Consumer<String> callback) {
-        this.onCallEndCallback = callback;
-    }
-    
-    /**
-     * Send video call request to a user (via TCP direct)
-     */
-    public void sendVideoCallRequest(User targetUser) {
-        executor.submit(() -> {
-            try (java.net.Socket socket = new java.net.Socket(targetUser.getIp(), targetUser.getTcpPort());
-                 java.io.DataOutputStream out = new java.io.DataOutputStream(socket.getOutputStream())) {
-
-                String msg = "VIDEO_CALL_REQUEST;" + nickname + ";" + tcpService.getTcpPort();
-                out.writeUTF(msg);
-                out.flush();
 
-                System.out.println("[VIDEO-SIGNAL] Sent VIDEO_CALL_REQUEST to " + targetUser.getNickname());
-
-            } catch (Exception e) {
-                System.err.println("[VIDEO-SIGNAL-ERR] Failed to send call request: " + e.getMessage());
-            }
-        });
-    }
-    
     /**
-     * Send SDP Offer via TCP
+     * Call an RPC method on a user (e.g. Signaling.CALL_REQUEST)
+     * @return completes with the user's response, fails on error or the method's timeout
      */
-    public void sendSdpOffer(User targetUser, String sdp) {
-        executor.submit(() -> {
-            try (java.net.Socket socket = new java.net.Socket(targetUser.getIp(), targetUser.getTcpPort());
-                 java.io.DataOutputStream out = new java.io.DataOutputStream(socket.getOutputStream())) {
-
-                String msg = "VIDEO_SDP_OFFER:" + nickname + ":" + sdp;
-                out.writeUTF(msg);
-                out.flush();
-
-                System.out.println("[VIDEO-SIGNAL] Sent SDP Offer to " + targetUser.getNickname());
-
-            } catch (Exception e) {
-                System.err.println("[VIDEO-SIGNAL-ERR] Failed to send SDP Offer: " + e.getMessage());
-            }
-        });
+    public <Q, R> CompletableFuture<R> call(User targetUser, RpcMethod<Q, R> method, Q request) {
+        return rpcService.call(targetUser, method, request);
     }
-    
-    /**
-     * Send SDP Answer via TCP
-     */
-    public void sendSdpAnswer(User targetUser, String sdp) {
-        executor.submit(() -> {
-            try (java.net.Socket socket = new java.net.Socket(targetUser.getIp(), targetUser.getTcpPort());
-                 java.io.DataOutputStream out = new java.io.DataOutputStream(socket.getOutputStream())) {
-
-                String msg = "VIDEO_SDP_ANSWER:" + nickname + ":" + sdp;
-                out.writeUTF(msg);
-                out.flush();
 
-                System.out.println("[VIDEO-SIGNAL] Sent SDP Answer to " + targetUser.getNickname());
-
-            } catch (Exception e) {
-                System.err.println("[VIDEO-SIGNAL-ERR] Failed to send SDP Answer: " + e.getMessage());
-            }
-        });
-    }
-    
     /**
-     * Send ICE Candidate via TCP
+     * Online user by nickname, or null
      */
-    public void sendIceCandidate(User targetUser, String candidate) {
-        executor.submit(() -> {
-            try (java.net.Socket socket = new java.net.Socket(targetUser.getIp(), targetUser.getTcpPort());
-                 java.io.DataOutputStream out = new java.io.DataOutputStream(socket.getOutputStream())) {
-
-                String msg = "VIDEO_ICE_CANDIDATE:" + nickname + ":" + candidate;
-                out.writeUTF(msg);
-                out.flush();
-
-                System.out.println("[VIDEO-SIGNAL] Sent ICE Candidate to " + targetUser.getNickname());
-
-            } catch (Exception e) {
-                System.err.println("[VIDEO-SIGNAL-ERR] Failed to send ICE Candidate: " + e.getMessage());
-            }
-        });
+    public User getUser(String nickname) {
+        return userRepository.getUser(nickname);
     }
-    
-    /**
-     * Send call end notification via TCP
-     */
-    public void sendCallEnd(User targetUser) {
-        executor.submit(() -> {
-            try (java.net.Socket socket = new java.net.Socket(targetUser.getIp(), targetUser.getTcpPort());
-                 java.io.DataOutputStream out = new java.io.DataOutputStream(socket.getOutputStream())) {
 
-                String msg = "VIDEO_CALL_END:" + nickname;
-                out.writeUTF(msg);
-                out.flush();
-
-                System.out.println("[VIDEO-SIGNAL] Sent Call End to " + targetUser.getNickname());
-
-            } catch (Exception e) {
-                System.err.println("[VIDEO-SIGNAL-ERR] Failed to send Call End: " + e.getMessage());
-            }
-        });
-    }
-    
     /**
      * Send video frame via UDP unicast
      */
     public void sendVideoFrame(String toNickname, String toIp, byte[] frameData) {
         udpService.sendVideoFrame(toNickname, toIp, frameData);
     }
+
+    /**
+     * Current RTT, jitter and loss estimate for the path to a user
+     */
+    public LinkHealth getLinkHealth(User user) {
+        return linkHealth.get(user.getIp());
+    }
     
     /**
      * Shutdown all services
      */
     private void shutdown() {
-        messageDeduplicator.shutdown();
+        scheduler.shutdownNow();
+        outbox.close();
         udpService.shutdown();
         tcpService.shutdown();
+        tcpReactor.shutdown();
         executor.shutdownNow();
         System.out.println("[INFO] NetworkService shutdown for " + nickname);
     }
@@ -0,0 +1,414 @@
+package org.example.chatft.service;
+
+import org.example.chatft.config.NetworkConfig;
+import org.example.chatft.model.User;
+import org.example.chatft.repository.UserRepository;
+import org.example.chatft.utils.Logger;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Store-and-forward for direct messages and files.
+ *
+ * Sends to a peer go through a queue per peer and kind (one lane for messages, one for
+ * files, so chat doesn't wait behind a big file). A lane sends what it holds back to
+ * back on the peer's pooled connection, and the next batch only once every entry of the
+ * current one is resolved, so nothing sent later can overtake an earlier entry that
+ * failed. When a batch fails because the peer can't be reached (connect refused or timed
+ * out, connection dropped), the lane goes down: its queue is written to the peer's
+ * OutboxJournal, in order, and so is every later send until the peer is back. The queue
+ * is replayed with exponential backoff (OUTBOX_RETRY_INITIAL_MS doubling up to
+ * OUTBOX_RETRY_MAX_MS), and at once when presence shows the peer (again), in one burst
+ * on one connection. Journals outlive a restart: their entries wait for the peer's next
+ * presence.
+ *
+ * Failures a retry can't fix (the peer refused the message, the file is gone) fail the
+ * send as before. No acknowledgement in time is not retried either: the peer may have
+ * the message already.
+ */
+public class Outbox {
+    private static final Logger log = Logger.get("TCP");
+
+    private final Path dir;
+    private final TcpService tcpService;
+    private final FileTransferService fileTransferService;
+    private final UserRepository userRepository;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+
+    public Outbox(Path dir,
+                  TcpService tcpService,
+                  FileTransferService fileTransferService,
+                  UserRepository userRepository,
+                  ScheduledExecutorService scheduler) {
+        this.dir = dir;
+        this.tcpService = tcpService;
+        this.fileTransferService = fileTransferService;
+        this.userRepository = userRepository;
+        this.scheduler = scheduler;
+        load();
+    }
+
+    /**
+     * Send a text message, queueing it if the peer can't be reached
+     * @return completes when the peer acknowledged the message, now or on a later replay
+     */
+    public CompletableFuture<Void> sendMessage(User user, String message) {
+        // Longer than the peer accepts: fail now rather than journal something never deliverable
+        if (message.length() > OutboxJournal.MAX_VALUE_BYTES / 3
+                && message.getBytes(StandardCharsets.UTF_8).length > OutboxJournal.MAX_VALUE_BYTES) {
+            return CompletableFuture.failedFuture(
+                    new IOException("Message over " + OutboxJournal.MAX_VALUE_BYTES + " bytes"));
+        }
+        return send(user, OutboxJournal.MESSAGE, message);
+    }
+
+    /**
+     * Send a file, queueing it (the path, not a copy) if the peer can't be reached
+     * @return completes when the peer has stored the whole file, now or on a later replay
+     */
+    public CompletableFuture<Void> sendFile(User user, String filePath) {
+        return send(user, OutboxJournal.FILE, new File(filePath).getAbsolutePath());
+    }
+
+    /**
+     * Presence shows the peer: replay its queues now, wherever the backoff was
+     */
+    public void onPeerOnline(User user) {
+        for (byte kind : new byte[]{OutboxJournal.MESSAGE, OutboxJournal.FILE}) {
+            Lane lane = lanes.get(laneKey(user.getNickname(), kind));
+            if (lane == null) {
+                continue;
+            }
+            synchronized (lane) {
+                lane.lastKnown = user;
+                lane.backoffMs = NetworkConfig.OUTBOX_RETRY_INITIAL_MS;
+                if (lane.retry != null) {
+                    lane.retry.cancel(false);
+                    lane.retry = null;
+                }
+            }
+            flush(lane);
+        }
+    }
+
+    /**
+     * @return messages and files not yet delivered to a peer
+     */
+    public int getPendingCount(String nickname) {
+        int count = 0;
+        for (byte kind : new byte[]{OutboxJournal.MESSAGE, OutboxJournal.FILE}) {
+            Lane lane = lanes.get(laneKey(nickname, kind));
+            if (lane != null) {
+                synchronized (lane) {
+                    count += lane.queue.size();
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Stop replaying and close the journals; what is still queued, in flight included,
+     * stays on disk for the next run
+     */
+    public void close() {
+        for (Lane lane : lanes.values()) {
+            synchronized (lane) {
+                if (lane.retry != null) {
+                    lane.retry.cancel(false);
+                    lane.retry = null;
+                }
+                for (Pending pending : lane.queue) {
+                    if (pending.entry == null) {
+                        journal(lane, pending);
+                    }
+                }
+                if (lane.journal != null) {
+                    try {
+                        lane.journal.close();
+                    } catch (IOException ignored) {
+                        // entries are on disk already
+                    }
+                    lane.journal = null;
+                }
+            }
+        }
+    }
+
+    private CompletableFuture<Void> send(User user, byte kind, String value) {
+        Lane lane = lanes.computeIfAbsent(laneKey(user.getNickname(), kind), key -> new Lane(user.getNickname()));
+        Pending pending = new Pending(kind, value);
+        synchronized (lane) {
+            lane.lastKnown = user;
+            lane.queue.add(pending);
+            if (lane.down) {
+                journal(lane, pending); // goes out with the next replay
+                return pending.delivered;
+            }
+        }
+        flush(lane);
+        return pending.delivered;
+    }
+
+    private CompletableFuture<Void> deliver(User user, Pending pending) {
+        return pending.kind == OutboxJournal.FILE
+                ? fileTransferService.sendFile(user, pending.value)
+                : tcpService.sendMessage(user, pending.value);
+    }
+
+    /**
+     * Connection-level failures; anything else would fail again the same way
+     */
+    private static boolean isRetryable(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error instanceof IOException
+                && !(error instanceof FrameStream.ResetByPeerException)
+                && !(error instanceof FileNotFoundException);
+    }
+
+    /**
+     * Write an entry to the lane's journal (caller holds the lane's lock). If the disk
+     * fails it stays queued in memory only.
+     */
+    private void journal(Lane lane, Pending pending) {
+        try {
+            if (lane.journal == null) {
+                Files.createDirectories(dir);
+                lane.journal = OutboxJournal.create(journalPath(lane.nickname, pending.kind), lane.nickname);
+            }
+            pending.entry = lane.journal.append(pending.kind, pending.value);
+            log.info("[OUTBOX] Queued " + describe(pending) + " for " + lane.nickname
+                    + " (" + lane.queue.size() + " waiting)");
+        } catch (IOException e) {
+            log.error("[OUTBOX-ERR] Could not journal " + describe(pending) + " for " + lane.nickname
+                    + ", kept in memory only: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Replay after the current backoff, then double it (caller holds the lane's lock)
+     */
+    private void scheduleRetry(Lane lane) {
+        if (lane.retry != null || lane.flushing || lane.queue.isEmpty()) {
+            return;
+        }
+        long delay = lane.backoffMs;
+        try {
+            lane.retry = scheduler.schedule(() -> {
+                synchronized (lane) {
+                    lane.retry = null;
+                }
+                flush(lane);
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            return; // shutting down: the journal keeps the queue for the next run
+        }
+        lane.backoffMs = Math.min(delay * 2, NetworkConfig.OUTBOX_RETRY_MAX_MS);
+        log.debug(() -> "[OUTBOX] Retrying " + lane.nickname + " in " + delay + " ms");
+    }
+
+    /**
+     * Send the lane's whole queue in one burst on the peer's pooled connection, unless a
+     * batch is still unresolved (then this one follows when it is)
+     */
+    private void flush(Lane lane) {
+        List<Pending> batch;
+        User user;
+        boolean replay;
+        synchronized (lane) {
+            if (lane.flushing || lane.queue.isEmpty()) {
+                return;
+            }
+            // Where the last send or presence said the peer is; journals from an earlier run only have presence
+            user = lane.lastKnown != null ? lane.lastKnown : userRepository.getUser(lane.nickname);
+            if (user == null) {
+                return; // queued in an earlier run: wait for the peer to show up
+            }
+            lane.flushing = true;
+            replay = lane.down;
+            batch = new ArrayList<>(lane.queue);
+        }
+        if (replay) {
+            log.info("[OUTBOX] Replaying " + batch.size() + " to " + user);
+        }
+
+        AtomicBoolean unreachable = new AtomicBoolean();
+        CompletableFuture<?>[] results = new CompletableFuture<?>[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            Pending pending = batch.get(i);
+            results[i] = deliver(user, pending).whenComplete((ok, error) -> {
+                if (error != null && isRetryable(error)) {
+                    unreachable.set(true);
+                } else {
+                    settle(lane, pending, error);
+                }
+            });
+        }
+        CompletableFuture.allOf(results).whenComplete((ok, error) -> afterFlush(lane, unreachable.get()));
+    }
+
+    /**
+     * The entry got through, or never will: out of the queue and the journal
+     */
+    private void settle(Lane lane, Pending pending, Throwable error) {
+        synchronized (lane) {
+            lane.queue.remove(pending);
+            if (pending.entry != null && lane.journal != null) {
+                try {
+                    lane.journal.delivered(pending.entry.id());
+                } catch (IOException e) {
+                    log.warn("[OUTBOX-ERR] Journal write for " + lane.nickname + ": " + e.getMessage());
+                }
+            }
+        }
+        if (error == null) {
+            pending.delivered.complete(null);
+        } else {
+            log.warn("[OUTBOX-ERR] Gave up on " + describe(pending) + " for " + lane.nickname
+                    + ": " + TcpService.describe(error));
+            pending.delivered.completeExceptionally(error);
+        }
+    }
+
+    private void afterFlush(Lane lane, boolean unreachable) {
+        synchronized (lane) {
+            lane.flushing = false;
+            if (unreachable) {
+                // Journal what is left in send order, this batch and anything queued behind it
+                lane.down = true;
+                for (Pending pending : lane.queue) {
+                    if (pending.entry == null) {
+                        journal(lane, pending);
+                    }
+                }
+                scheduleRetry(lane);
+                return;
+            }
+            if (lane.down) {
+                lane.down = false;
+                lane.backoffMs = NetworkConfig.OUTBOX_RETRY_INITIAL_MS;
+                log.info("[OUTBOX] " + lane.nickname + " reachable again");
+            }
+            if (lane.queue.isEmpty()) {
+                if (lane.journal != null) {
+                    log.info("[OUTBOX] Everything queued for " + lane.nickname + " delivered");
+                    try {
+                        lane.journal.delete();
+                    } catch (IOException e) {
+                        log.warn("[OUTBOX-ERR] Could not remove journal for " + lane.nickname + ": " + e.getMessage());
+                    }
+                    lane.journal = null;
+                }
+                return;
+            }
+        }
+        flush(lane); // queued while the batch was in flight
+    }
+
+    /**
+     * Pick up the journals an earlier run left behind
+     */
+    private void load() {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.journal")) {
+            for (Path file : files) {
+                try {
+                    OutboxJournal journal = OutboxJournal.open(file);
+                    if (journal.pending().isEmpty()) {
+                        journal.delete();
+                        continue;
+                    }
+                    String nickname = journal.nickname();
+                    byte kind = journal.pending().get(0).kind();
+                    Lane lane = lanes.computeIfAbsent(laneKey(nickname, kind), key -> new Lane(nickname));
+                    lane.journal = journal;
+                    lane.down = true;
+                    for (OutboxJournal.Entry entry : journal.pending()) {
+                        lane.queue.add(new Pending(entry));
+                    }
+                    log.info("[OUTBOX] " + lane.queue.size() + " waiting for " + nickname + " from the last run");
+                } catch (IOException e) {
+                    log.warn("[OUTBOX-ERR] Skipping " + file + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            log.warn("[OUTBOX-ERR] Could not read " + dir + ": " + e.getMessage());
+        }
+    }
+
+    private static String laneKey(String nickname, byte kind) {
+        return kind + ":" + nickname;
+    }
+
+    private Path journalPath(String nickname, byte kind) {
+        // Readable, and distinct for nicknames that only differ in replaced characters
+        String safeName = nickname.replaceAll("[^a-zA-Z0-9._-]", "_");
+        return dir.resolve(safeName + "-" + Integer.toHexString(nickname.hashCode())
+                + (kind == OutboxJournal.FILE ? ".files" : ".messages") + ".journal");
+    }
+
+    private static String describe(Pending pending) {
+        if (pending.kind == OutboxJournal.FILE) {
+            return "file " + new File(pending.value).getName();
+        }
+        return pending.entry != null ? "message #" + pending.entry.id() : "message";
+    }
+
+    /**
+     * Everything waiting for one peer, of one kind (guarded by this)
+     */
+    private static final class Lane {
+        final String nickname;
+        final ArrayDeque<Pending> queue = new ArrayDeque<>();  // oldest first
+        User lastKnown;               // address of the last send, until presence has one
+        OutboxJournal journal;        // open while journaled entries are queued
+        boolean down;                 // last batch couldn't reach the peer: new sends are journaled
+        boolean flushing;             // a batch is in flight
+        long backoffMs = NetworkConfig.OUTBOX_RETRY_INITIAL_MS;
+        ScheduledFuture<?> retry;
+
+        Lane(String nickname) {
+            this.nickname = nickname;
+        }
+    }
+
+    private static final class Pending {
+        final byte kind;
+        final String value;
+        final CompletableFuture<Void> delivered = new CompletableFuture<>();
+        OutboxJournal.Entry entry;    // set once on disk
+
+        Pending(byte kind, String value) {
+            this.kind = kind;
+            this.value = value;
+        }
+
+        Pending(OutboxJournal.Entry entry) {
+            this(entry.kind(), entry.value());
+            this.entry = entry;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package org.example.chatft.service;
+
+import org.example.chatft.config.NetworkConfig;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only file of what is waiting to be sent to one peer (see Outbox).
+ *
+ * Record: [length4][kind][id8][payload], length covering kind, id and payload. The first
+ * record names the peer; then come queued entries and, as they get through, DELIVERED
+ * records with the id of the entry. What is queued and not delivered is what reopening
+ * the file gives back. Entries are forced to disk before append returns; a record cut
+ * short by a crash is dropped when the file is opened again. Values are at most
+ * MAX_VALUE_BYTES (UTF-8), the longest message a peer accepts.
+ *
+ * Not thread-safe: the Outbox calls it under the peer's lock.
+ */
+public class OutboxJournal implements Closeable {
+    public static final byte MESSAGE = 1;   // chat text
+    public static final byte FILE = 2;      // absolute path of a file to send
+    public static final long MAX_VALUE_BYTES = NetworkConfig.TCP_MAX_TEXT_BODY;
+
+    private static final byte PEER = 0;
+    private static final byte DELIVERED = 3;
+    private static final int RECORD_HEADER = 1 + 8;
+
+    /**
+     * One queued message or file
+     */
+    public static final class Entry {
+        private final long id;
+        private final byte kind;
+        private final String value;
+
+        Entry(long id, byte kind, String value) {
+            this.id = id;
+            this.kind = kind;
+            this.value = value;
+        }
+
+        public long id() {
+            return id;
+        }
+
+        public byte kind() {
+            return kind;
+        }
+
+        public String value() {
+            return value;
+        }
+    }
+
+    private final Path file;
+    private final FileChannel channel;
+    private final String nickname;
+    private final List<Entry> pending;
+    private long nextId;
+
+    private OutboxJournal(Path file, FileChannel channel, String nickname, List<Entry> pending, long nextId) {
+        this.file = file;
+        this.channel = channel;
+        this.nickname = nickname;
+        this.pending = pending;
+        this.nextId = nextId;
+    }
+
+    /**
+     * Start an empty journal for a peer (replaces the file if there is one)
+     */
+    public static OutboxJournal create(Path file, String nickname) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        OutboxJournal journal = new OutboxJournal(file, channel, nickname, new ArrayList<>(), 1);
+        try {
+            journal.write(PEER, 0, nickname.getBytes(StandardCharsets.UTF_8));
+            channel.force(true);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return journal;
+    }
+
+    /**
+     * Reopen a journal left by an earlier run
+     * @throws IOException if it can't be read or doesn't start with the peer record
+     */
+    public static OutboxJournal open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            String nickname = null;
+            Map<Long, Entry> queued = new LinkedHashMap<>();
+            long maxId = 0;
+            long valid = 0;  // end of the last complete record
+
+            channel.position(0);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            while (true) {
+                int length;
+                byte kind;
+                long id;
+                byte[] payload;
+                try {
+                    length = in.readInt();
+                    if (length < RECORD_HEADER) {
+                        break; // garbage where the next record should be: nothing after it can be trusted
+                    }
+                    kind = in.readByte();
+                    id = in.readLong();
+                    if (length - RECORD_HEADER > MAX_VALUE_BYTES) {
+                        // Not one we would write, but whole: skip it and keep the records after it
+                        in.skipNBytes(length - RECORD_HEADER);
+                        valid += 4 + length;
+                        continue;
+                    }
+                    payload = new byte[length - RECORD_HEADER];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    break; // end of file, or a record cut short
+                }
+                valid += 4 + length;
+
+                if (kind == PEER) {
+                    nickname = new String(payload, StandardCharsets.UTF_8);
+                } else if (kind == DELIVERED) {
+                    queued.remove(id);
+                } else if (kind == MESSAGE || kind == FILE) {
+                    queued.put(id, new Entry(id, kind, new String(payload, StandardCharsets.UTF_8)));
+                    maxId = Math.max(maxId, id);
+                }
+            }
+            if (nickname == null) {
+                throw new IOException("Not an outbox journal: " + file);
+            }
+            if (valid < channel.size()) {
+                channel.truncate(valid);
+            }
+            channel.position(valid);
+            return new OutboxJournal(file, channel, nickname, new ArrayList<>(queued.values()), maxId + 1);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public String nickname() {
+        return nickname;
+    }
+
+    /**
+     * Entries not yet delivered when the journal was opened, oldest first
+     */
+    public List<Entry> pending() {
+        return pending;
+    }
+
+    /**
+     * Queue an entry; on disk when this returns
+     * @throws IOException also if the value is over MAX_VALUE_BYTES
+     */
+    public Entry append(byte kind, String value) throws IOException {
+        byte[] payload = value.getBytes(StandardCharsets.UTF_8);
+        if (payload.length > MAX_VALUE_BYTES) {
+            throw new IOException("Outbox entry over " + MAX_VALUE_BYTES + " bytes");
+        }
+        Entry entry = new Entry(nextId++, kind, value);
+        write(kind, entry.id, payload);
+        channel.force(false);
+        return entry;
+    }
+
+    /**
+     * The entry got through (or was given up): it won't come back on reopen. Not forced,
+     * so after a crash the entry may be sent once more.
+     */
+    public void delivered(long id) throws IOException {
+        write(DELIVERED, id, new byte[0]);
+    }
+
+    /**
+     * Close and remove the file: nothing is waiting any more
+     */
+    public void delete() throws IOException {
+        channel.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void write(byte kind, long id, byte[] payload) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(4 + RECORD_HEADER + payload.length);
+        record.putInt(RECORD_HEADER + payload.length).put(kind).putLong(id).put(payload).flip();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+    }
+}
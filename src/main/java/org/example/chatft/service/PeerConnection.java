@@ -0,0 +1,438 @@
+package org.example.chatft.service;
+
+import org.example.chatft.config.NetworkConfig;
+import org.example.chatft.protocol.Frame;
+import org.example.chatft.protocol.FrameDecoder;
+import org.example.chatft.protocol.FrameType;
+import org.example.chatft.protocol.StreamPriority;
+import org.example.chatft.utils.Logger;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * One TCP connection to a peer carrying many independent FrameStreams.
+ *
+ * Runs on a TcpReactor I/O thread: reads are parsed incrementally by a FrameDecoder and
+ * demultiplexed by stream id; queued frames are written most urgent priority first (see
+ * StreamPriority), so a chat message or call-setup frame overtakes file data that is
+ * already queued. Frames of the same priority go out in the order they were queued, and
+ * everything queued when the socket becomes writable is gathered into one write.
+ * The same class runs on both ends: the dialing side opens streams, the accepting side
+ * hands each new stream to its stream handler and answers on it.
+ *
+ * A dialed connection accepts streams while it is still connecting; their frames wait in
+ * the queue and follow the preface once the connect completes.
+ *
+ * With measureRtt() set, a PING rides along with outgoing frames now and then and the
+ * peer's I/O thread answers it with a PONG straight away. Nothing is sent for the probe
+ * alone, so an idle connection stays idle.
+ */
+public class PeerConnection {
+    private static final Logger log = Logger.get("TCP");
+
+    /**
+     * Receives streams opened by the other side. Called on the I/O thread in arrival
+     * order, so it must not block: anything that reads a body or writes a reply with
+     * blocking calls hands the stream to an executor.
+     */
+    @FunctionalInterface
+    public interface StreamHandler {
+        void onStream(FrameStream stream);
+    }
+
+    private final SocketChannel channel;
+    private final String name;
+    private final StreamHandler streamHandler;
+    private final Consumer<PeerConnection> onClosed;
+
+    private final Map<Integer, FrameStream> streams = new ConcurrentHashMap<>();
+    private final AtomicInteger nextStreamId;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean connected;
+    private volatile long lastActivityAt = now();
+    private volatile LongConsumer rttListener;
+
+    // Outbound: any thread queues, the I/O thread writes
+    private final PriorityBlockingQueue<Outgoing> outgoing = new PriorityBlockingQueue<>();
+    private final AtomicLong queuedCount = new AtomicLong();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    // I/O thread only
+    private CompletableFuture<?> deliveryTail = CompletableFuture.completedFuture(null);
+    private final FrameDecoder decoder = new FrameDecoder();
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(NetworkConfig.TCP_READ_BUFFER_SIZE);
+    private final ByteBuffer[] batch = new ByteBuffer[NetworkConfig.TCP_WRITE_BATCH_FRAMES];
+    private int batchHead;   // first buffer in batch not completely written
+    private int batchSize;
+    private long nextPingAt = System.nanoTime();
+    private TcpReactor.IoLoop loop;
+    private SelectionKey key;
+
+    /**
+     * @param channel Connected or connecting channel, switched to non-blocking here
+     * @param dialed true on the side that connected (it opens odd stream ids)
+     * @param streamHandler Handler for streams the peer opens, or null to refuse them
+     * @param onClosed Called once when the connection is gone
+     */
+    public PeerConnection(SocketChannel channel, boolean dialed, String name,
+                          StreamHandler streamHandler, Consumer<PeerConnection> onClosed) throws IOException {
+        this.channel = channel;
+        this.name = name;
+        this.streamHandler = streamHandler;
+        this.onClosed = onClosed;
+        this.nextStreamId = new AtomicInteger(dialed ? 1 : 2);
+        channel.configureBlocking(false);
+    }
+
+    /**
+     * Open a new stream and queue its header. Headers are small (type and fields); anything
+     * of unbounded size goes in the body.
+     * @param finished true if no body follows (the peer can only answer)
+     * @throws IOException if the connection is closed or the header doesn't fit one frame
+     */
+    public FrameStream open(StreamPriority priority, String header, boolean finished) throws IOException {
+        if (header.length() * 3 > NetworkConfig.TCP_FRAME_MAX_PAYLOAD
+                && header.getBytes(StandardCharsets.UTF_8).length > NetworkConfig.TCP_FRAME_MAX_PAYLOAD) {
+            throw new IOException("Stream header over " + NetworkConfig.TCP_FRAME_MAX_PAYLOAD + " bytes");
+        }
+        int id = nextStreamId.getAndAdd(2);
+        if (id < 0) {
+            close(); // ids exhausted: the pool dials a fresh connection
+            throw new IOException("Stream ids exhausted on " + name);
+        }
+        FrameStream stream = new FrameStream(this, id, priority, header, finished, false);
+        streams.put(id, stream);
+        send(Frame.open(id, priority, header, finished));
+        return stream;
+    }
+
+    public boolean isOpen() {
+        return !closed.get();
+    }
+
+    /**
+     * For the stream handler: a future completing like ready, but never before the futures
+     * passed in earlier. Messages whose bodies finish out of order (a long paste, then a
+     * short line) are still handled in the order the peer opened them.
+     */
+    public <T> CompletableFuture<T> inArrivalOrder(CompletableFuture<T> ready) {
+        CompletableFuture<T> ordered = deliveryTail.handle((ok, error) -> null).thenCompose(x -> ready);
+        deliveryTail = ordered;
+        return ordered;
+    }
+
+    /**
+     * No open streams and nothing sent or received for idleMs
+     */
+    public boolean isIdle(long idleMs) {
+        return streams.isEmpty() && now() - lastActivityAt >= idleMs;
+    }
+
+    /**
+     * Sample the round-trip time to the peer from now on, at most once per LINK_PING_INTERVAL_MS
+     * and only while frames are being sent anyway
+     * @param onSample round-trip time in nanoseconds, called on the I/O thread
+     */
+    public void measureRtt(LongConsumer onSample) {
+        this.rttListener = onSample;
+    }
+
+    public int getStreamCount() {
+        return streams.size();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Close the socket and fail every open stream
+     */
+    public void close() {
+        fail(new IOException("Connection to " + name + " closed"));
+    }
+
+    /**
+     * Queue a frame for the I/O thread
+     * @throws IOException if the connection is already closed
+     */
+    void send(Frame frame) throws IOException {
+        if (closed.get()) {
+            throw new IOException("Connection to " + name + " closed");
+        }
+        sendQuietly(frame);
+    }
+
+    void sendQuietly(Frame frame) {
+        if (closed.get()) {
+            return;
+        }
+        outgoing.add(new Outgoing(frame, queuedCount.incrementAndGet()));
+        TcpReactor.IoLoop target = loop;
+        if (target != null && flushScheduled.compareAndSet(false, true)) {
+            target.execute(this::flush);
+        }
+    }
+
+    void remove(FrameStream stream) {
+        streams.remove(stream.id(), stream);
+    }
+
+    // ============= CALLED BY THE REACTOR =============
+
+    SocketChannel channel() {
+        return channel;
+    }
+
+    void bind(TcpReactor.IoLoop loop) {
+        this.loop = loop;
+    }
+
+    boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Registered with the selector and connected: the preface goes out before any queued frame
+     */
+    void attached(SelectionKey key) {
+        this.key = key;
+        this.connected = true;
+        batch[0] = ByteBuffer.wrap(Frame.PREFACE);
+        batchSize = 1;
+        flush();
+    }
+
+    /**
+     * Non-blocking connect finished (or failed)
+     */
+    void onConnectable(SelectionKey key) {
+        try {
+            if (!channel.finishConnect()) {
+                return;
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            log.debug(() -> "[TCP-POOL] Connected to " + name);
+            attached(key);
+        } catch (IOException e) {
+            log.debug(() -> "[TCP-POOL] Connect to " + name + " failed: " + e.getMessage());
+            fail(e);
+        }
+    }
+
+    void onReadable() {
+        try {
+            int n = channel.read(readBuffer);
+            if (n < 0) {
+                fail(new IOException("Connection closed by " + name));
+                return;
+            }
+            lastActivityAt = now();
+            readBuffer.flip();
+            Frame frame;
+            while (!closed.get() && (frame = decoder.decode(readBuffer)) != null) {
+                dispatch(frame);
+            }
+            readBuffer.compact();
+        } catch (IOException e) {
+            if (!closed.get()) {
+                log.info("[TCP-ERR] " + name + ": " + e.getMessage());
+            }
+            fail(e);
+        }
+    }
+
+    void onWritable() {
+        flush();
+    }
+
+    /**
+     * Close the channel and fail every open stream with the cause (any thread, once)
+     */
+    void fail(IOException cause) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            channel.close(); // also cancels the selection key
+        } catch (IOException ignored) {
+            // already closed
+        }
+        outgoing.clear();
+        for (FrameStream stream : streams.values()) {
+            stream.fail(cause);
+        }
+        streams.clear();
+        onClosed.accept(this);
+    }
+
+    // ============= I/O THREAD =============
+
+    private void dispatch(Frame frame) throws IOException {
+        log.trace(() -> "[TCP-FRAME] " + name + " <- " + frame);
+        int id = frame.streamId();
+        switch (frame.type()) {
+            case OPEN:
+                if (streams.containsKey(id) || (id & 1) == (nextStreamId.get() & 1)) {
+                    throw new ProtocolException("Bad stream id " + id + " in OPEN");
+                }
+                if (streamHandler == null) {
+                    sendQuietly(Frame.reset(id, "streams not accepted"));
+                    return;
+                }
+                if (streams.size() >= NetworkConfig.TCP_MAX_STREAMS_PER_CONNECTION) {
+                    sendQuietly(Frame.reset(id, "too many open streams"));
+                    return;
+                }
+                FrameStream stream = new FrameStream(this, id, frame.priority(), frame.payloadString(), false, frame.isFin());
+                streams.put(id, stream);
+                try {
+                    streamHandler.onStream(stream);
+                } catch (RuntimeException e) {
+                    log.error("[TCP-ERR] Stream handler failed for " + name + ": " + e.getMessage());
+                    stream.reset("handler error");
+                }
+                break;
+            case DATA: {
+                FrameStream target = streams.get(id);
+                if (target != null) {
+                    target.onData(frame.payload(), frame.isFin());
+                }
+                break;
+            }
+            case WINDOW: {
+                FrameStream target = streams.get(id);
+                if (target != null) {
+                    target.onWindow(frame.credit());
+                }
+                break;
+            }
+            case RESET: {
+                FrameStream target = streams.get(id);
+                if (target != null) {
+                    target.onReset(frame.payloadString());
+                }
+                break;
+            }
+            case PING:
+                sendQuietly(Frame.pong(frame));
+                break;
+            case PONG: {
+                LongConsumer listener = rttListener;
+                long rtt = System.nanoTime() - frame.timestamp();
+                if (listener != null && rtt >= 0) {
+                    listener.accept(rtt);
+                }
+                break;
+            }
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+        if (key == null || closed.get()) {
+            return; // not registered yet: attached() flushes
+        }
+        try {
+            while (true) {
+                if (batchHead == batchSize && !fillBatch()) {
+                    break;
+                }
+                // One gathering write for the whole batch instead of one per frame
+                channel.write(batch, batchHead, batchSize - batchHead);
+                while (batchHead < batchSize && !batch[batchHead].hasRemaining()) {
+                    batch[batchHead++] = null;
+                }
+                if (batchHead < batchSize) {
+                    // Socket buffer full: continue when the selector says writable
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            lastActivityAt = now();
+        } catch (IOException e) {
+            if (!closed.get()) {
+                log.info("[TCP-ERR] Write to " + name + " failed: " + e.getMessage());
+            }
+            fail(e);
+        } catch (CancelledKeyException e) {
+            fail(new IOException("Connection to " + name + " closed"));
+        }
+    }
+
+    /**
+     * Take queued frames, most urgent first, up to TCP_WRITE_BATCH_FRAMES frames and about
+     * TCP_WRITE_BATCH_BYTES bytes: a frame queued later waits at most one batch.
+     * A due PING goes first, so it doesn't time our own queue; it is dropped again if
+     * the batch turns out to hold nothing but PONGs.
+     * @return false if nothing was queued
+     */
+    private boolean fillBatch() {
+        batchHead = 0;
+        batchSize = 0;
+        long now = System.nanoTime();
+        boolean ping = rttListener != null && now - nextPingAt >= 0;
+        if (ping) {
+            batch[batchSize++] = Frame.ping(now).toBuffer();
+        }
+        boolean traffic = false;
+        int bytes = 0;
+        Outgoing next;
+        while (batchSize < batch.length && bytes < NetworkConfig.TCP_WRITE_BATCH_BYTES
+                && (next = outgoing.poll()) != null) {
+            Frame frame = next.frame;
+            log.trace(() -> "[TCP-FRAME] " + name + " -> " + frame);
+            ByteBuffer buffer = frame.toBuffer();
+            bytes += buffer.remaining();
+            batch[batchSize++] = buffer;
+            traffic |= frame.type() != FrameType.PONG;
+        }
+        if (ping) {
+            if (traffic) {
+                nextPingAt = now + TimeUnit.MILLISECONDS.toNanos(NetworkConfig.LINK_PING_INTERVAL_MS);
+            } else {
+                // Nothing to ride along with: shift the batch back over the probe
+                System.arraycopy(batch, 1, batch, 0, --batchSize);
+                batch[batchSize] = null;
+            }
+        }
+        return batchSize > 0;
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private static class Outgoing implements Comparable<Outgoing> {
+        final Frame frame;
+        final long order;
+
+        Outgoing(Frame frame, long order) {
+            this.frame = frame;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(Outgoing other) {
+            int byPriority = Integer.compare(frame.priority().ordinal(), other.frame.priority().ordinal());
+            return byPriority != 0 ? byPriority : Long.compare(order, other.order);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package org.example.chatft.service;
+
+import org.example.chatft.config.NetworkConfig;
+import org.example.chatft.protocol.StreamPriority;
+import org.example.chatft.utils.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Long-lived outbound TCP connections, one per peer (ip:tcpPort).
+ *
+ * Every message, file and signaling exchange with a peer is a FrameStream on the peer's
+ * one connection, so no send pays for a TCP handshake. Connections without open streams
+ * are closed after TCP_IDLE_TIMEOUT_MS by the timer; a connection the peer closed is
+ * noticed by its reader and replaced on the next open.
+ *
+ * open() never blocks: a missing connection is dialed without waiting for the handshake,
+ * and streams opened meanwhile queue on it in call order. A failed or timed-out connect
+ * fails those streams with the cause.
+ *
+ * Every connection samples its round-trip time into the LinkHealthRegistry.
+ */
+public class PeerConnectionPool {
+    private static final Logger log = Logger.get("TCP");
+
+    private final TcpReactor reactor;
+    private final ScheduledExecutorService scheduler;
+    private final LinkHealthRegistry linkHealth;
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    public PeerConnectionPool(TcpReactor reactor, ScheduledExecutorService scheduler, LinkHealthRegistry linkHealth) {
+        this.reactor = reactor;
+        this.scheduler = scheduler;
+        this.linkHealth = linkHealth;
+        scheduler.scheduleWithFixedDelay(this::closeIdle,
+                NetworkConfig.TCP_IDLE_CHECK_INTERVAL_MS, NetworkConfig.TCP_IDLE_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Open a stream to the peer over its pooled connection, connecting if needed.
+     * Streams opened by one thread to the same peer reach it in the same order.
+     * @param finished true if the header is the whole message (no body follows)
+     * @throws IOException if no socket can be opened (an unreachable peer fails the stream)
+     */
+    public FrameStream open(String ip, int port, StreamPriority priority, String header, boolean finished) throws IOException {
+        try {
+            return connection(ip, port).open(priority, header, finished);
+        } catch (IOException e) {
+            if (closed) {
+                throw e;
+            }
+            // Connection died between lookup and open: one retry on a fresh one
+            return connection(ip, port).open(priority, header, finished);
+        }
+    }
+
+    /**
+     * Number of open pooled connections
+     */
+    public int size() {
+        int open = 0;
+        for (Slot slot : slots.values()) {
+            PeerConnection connection = slot.connection;
+            if (connection != null && connection.isOpen()) {
+                open++;
+            }
+        }
+        return open;
+    }
+
+    public LinkHealthRegistry getLinkHealth() {
+        return linkHealth;
+    }
+
+    /**
+     * Close every connection (application shutdown)
+     */
+    public void closeAll() {
+        closed = true;
+        for (Slot slot : slots.values()) {
+            PeerConnection connection = slot.connection;
+            if (connection != null) {
+                connection.close();
+            }
+        }
+        slots.clear();
+    }
+
+    private PeerConnection connection(String ip, int port) throws IOException {
+        if (closed) {
+            throw new IOException("Connection pool closed");
+        }
+        String key = ip + ":" + port;
+        while (true) {
+            Slot slot = slots.computeIfAbsent(key, k -> new Slot());
+            // Per-peer lock, held only while a socket is opened (the connect itself is asynchronous)
+            slot.lock.lock();
+            try {
+                if (slot.removed) {
+                    continue; // closeIdle dropped it after our lookup: the next lookup makes a new one
+                }
+                PeerConnection connection = slot.connection;
+                if (connection != null && connection.isOpen()) {
+                    return connection;
+                }
+                slot.connection = dial(key, ip, port);
+                return slot.connection;
+            } finally {
+                slot.lock.unlock();
+            }
+        }
+    }
+
+    private PeerConnection dial(String key, String ip, int port) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        PeerConnection connection;
+        try {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.configureBlocking(false);
+            channel.connect(new InetSocketAddress(ip, port)); // the reactor finishes it
+            connection = new PeerConnection(channel, true, key, null, c -> {});
+            connection.measureRtt(rtt -> linkHealth.onRtt(ip, rtt));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        reactor.register(connection);
+        scheduler.schedule(() -> {
+            if (!connection.isConnected()) {
+                connection.fail(new SocketTimeoutException("Connect to " + key + " timed out"));
+            }
+        }, NetworkConfig.TCP_CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        log.debug(() -> "[TCP-POOL] Connecting to " + key);
+        return connection;
+    }
+
+    /**
+     * Close connections without streams for TCP_IDLE_TIMEOUT_MS and drop the slots of
+     * closed ones, so peers that left don't keep an entry each
+     */
+    private void closeIdle() {
+        for (Map.Entry<String, Slot> entry : slots.entrySet()) {
+            Slot slot = entry.getValue();
+            if (!slot.lock.tryLock()) {
+                continue; // a connection is being looked up or dialed: next round
+            }
+            try {
+                PeerConnection connection = slot.connection;
+                if (connection != null && connection.isOpen() && connection.isIdle(NetworkConfig.TCP_IDLE_TIMEOUT_MS)) {
+                    connection.close();
+                    log.debug(() -> "[TCP-POOL] Closed idle connection to " + entry.getKey());
+                }
+                // Under the slot's lock, so no dial can be putting a connection into it
+                if (connection == null || !connection.isOpen()) {
+                    slot.removed = true;
+                    slots.remove(entry.getKey(), slot);
+                }
+            } finally {
+                slot.lock.unlock();
+            }
+        }
+    }
+
+    private static class Slot {
+        final ReentrantLock lock = new ReentrantLock();
+        volatile PeerConnection connection;
+        boolean removed;  // out of the map; guarded by lock
+    }
+}
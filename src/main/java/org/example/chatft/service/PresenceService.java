@@ -0,0 +1,217 @@
+package org.example.chatft.service;
+
+import org.example.chatft.config.NetworkConfig;
+import org.example.chatft.model.User;
+import org.example.chatft.repository.UserRepository;
+import org.example.chatft.utils.Hashing;
+import org.example.chatft.utils.JitteredResponder;
+import org.example.chatft.utils.Logger;
+
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Heartbeat-based presence.
+ *
+ * - We multicast ONLINE periodically; the interval grows with the number of peers so that
+ *   the whole LAN stays around PRESENCE_TARGET_RATE heartbeats per second.
+ * - Every heartbeat carries the sender's interval, a peer expires after
+ *   PRESENCE_EXPIRY_FACTOR missed heartbeats (crashed peers disappear on their own).
+ * - Deadlines are kept in a min-heap, a sweep pops only the ones that are due.
+ * - A new peer is answered with one aggregated ROSTER after a random delay; peers that
+ *   hear an equivalent roster from someone else first stay quiet.
+ */
+public class PresenceService {
+    private static final Logger log = Logger.get("UDP");
+
+    private final String nickname;
+    private final UserRepository userRepository;
+    private final Consumer<User> onUserExpired;
+
+    // nickname -> current deadline (ms, monotonic clock)
+    private final Map<String, Long> deadlines = new ConcurrentHashMap<>();
+    // pending deadlines, stale entries are skipped when popped
+    private final PriorityQueue<Deadline> timeline = new PriorityQueue<>();
+
+    private final ScheduledExecutorService scheduler;
+    private final JitteredResponder rosterResponder;
+
+    private UdpService udpService;
+    private volatile int heartbeatIntervalMs = NetworkConfig.HEARTBEAT_MIN_INTERVAL_MS;
+
+    public PresenceService(String nickname,
+                           UserRepository userRepository,
+                           ScheduledExecutorService scheduler,
+                           Consumer<User> onUserExpired) {
+        this.nickname = nickname;
+        this.userRepository = userRepository;
+        this.scheduler = scheduler;
+        this.onUserExpired = onUserExpired;
+        this.rosterResponder = new JitteredResponder(scheduler, this::sendRoster);
+    }
+
+    /**
+     * Send first heartbeat and start heartbeat/expiry timers
+     */
+    public void start(UdpService udpService) {
+        this.udpService = udpService;
+        scheduler.execute(this::heartbeat);
+        scheduler.scheduleWithFixedDelay(this::expireDuePeers,
+                NetworkConfig.PRESENCE_SWEEP_INTERVAL_MS,
+                NetworkConfig.PRESENCE_SWEEP_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Announce ourselves right now (outside the heartbeat schedule)
+     */
+    public void announce() {
+        udpService.broadcastOnline(heartbeatIntervalMs);
+    }
+
+    /**
+     * A new peer announced itself: answer with our roster after a random delay,
+     * unless somebody else sends an equivalent one first
+     */
+    public void respondToNewPeer() {
+        long window = Math.min(NetworkConfig.PRESENCE_RESPONSE_MAX_DELAY_MS,
+                NetworkConfig.PRESENCE_RESPONSE_BASE_DELAY_MS
+                        + (long) userRepository.getUserCount() * NetworkConfig.PRESENCE_RESPONSE_DELAY_PER_PEER_MS);
+        rosterResponder.schedule(window);
+    }
+
+    /**
+     * Another peer sent a roster; if it describes the same set of peers as ours, ours is redundant
+     */
+    public void onRosterHeard(int remoteRosterHash) {
+        if (remoteRosterHash == rosterHash() && rosterResponder.suppress()) {
+            log.debug("[PRESENCE] Equivalent roster already sent by another peer, suppressing ours");
+        }
+    }
+
+    /**
+     * Order-independent hash of everyone we know, ourselves included
+     */
+    public int rosterHash() {
+        int hash = Hashing.of(nickname);
+        for (User user : userRepository.getAllUsers()) {
+            hash ^= Hashing.of(user.getNickname());
+        }
+        return hash;
+    }
+
+    private void sendRoster() {
+        udpService.broadcastRoster(heartbeatIntervalMs, rosterHash(), userRepository.getAllUsers());
+    }
+
+    /**
+     * Record a heartbeat from a peer
+     * @param intervalMs Heartbeat interval announced by the peer
+     */
+    public void touch(String nickname, int intervalMs) {
+        int interval = Math.max(intervalMs, NetworkConfig.HEARTBEAT_MIN_INTERVAL_MS);
+        long deadline = now() + (long) interval * NetworkConfig.PRESENCE_EXPIRY_FACTOR;
+        deadlines.put(nickname, deadline);
+        synchronized (timeline) {
+            timeline.add(new Deadline(nickname, deadline));
+        }
+    }
+
+    /**
+     * A peer we only heard of through another peer's roster: it expires unless its own
+     * heartbeat arrives within PRESENCE_HEARSAY_EXPIRY_FACTOR intervals. Never moves the
+     * deadline of a peer already tracked, so stale rosters can't keep a crashed peer alive.
+     */
+    public void expect(String nickname, int intervalMs) {
+        int interval = Math.max(intervalMs, NetworkConfig.HEARTBEAT_MIN_INTERVAL_MS);
+        long deadline = now() + (long) interval * NetworkConfig.PRESENCE_HEARSAY_EXPIRY_FACTOR;
+        if (deadlines.putIfAbsent(nickname, deadline) == null) {
+            synchronized (timeline) {
+                timeline.add(new Deadline(nickname, deadline));
+            }
+        }
+    }
+
+    /**
+     * Stop tracking a peer (explicit OFFLINE)
+     */
+    public void forget(String nickname) {
+        deadlines.remove(nickname);
+    }
+
+    public int getHeartbeatIntervalMs() {
+        return heartbeatIntervalMs;
+    }
+
+    private void heartbeat() {
+        try {
+            heartbeatIntervalMs = computeInterval(userRepository.getUserCount() + 1);
+            announce();
+        } catch (RuntimeException e) {
+            log.error(() -> "[PRESENCE-ERR] Heartbeat failed: " + e.getMessage());
+        }
+
+        // +-10% jitter so peers that started together drift apart
+        int jitter = heartbeatIntervalMs / 10;
+        long delay = heartbeatIntervalMs + ThreadLocalRandom.current().nextInt(-jitter, jitter + 1);
+        if (!scheduler.isShutdown()) {
+            scheduler.schedule(this::heartbeat, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Interval so that peerCount peers together send about PRESENCE_TARGET_RATE heartbeats/s
+     */
+    static int computeInterval(int peerCount) {
+        long interval = peerCount * 1000L / NetworkConfig.PRESENCE_TARGET_RATE;
+        return (int) Math.max(NetworkConfig.HEARTBEAT_MIN_INTERVAL_MS,
+                Math.min(NetworkConfig.HEARTBEAT_MAX_INTERVAL_MS, interval));
+    }
+
+    private void expireDuePeers() {
+        long now = now();
+        while (true) {
+            Deadline due;
+            synchronized (timeline) {
+                Deadline head = timeline.peek();
+                if (head == null || head.deadline > now) {
+                    return;
+                }
+                due = timeline.poll();
+            }
+
+            // Only expire if no newer heartbeat moved the deadline
+            if (deadlines.remove(due.nickname, due.deadline)) {
+                User removed = userRepository.removeUser(due.nickname);
+                if (removed != null) {
+                    log.info(() -> "[PRESENCE] Peer expired (no heartbeat): " + due.nickname);
+                    onUserExpired.accept(removed);
+                }
+            }
+        }
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private static class Deadline implements Comparable<Deadline> {
+        final String nickname;
+        final long deadline;
+
+        Deadline(String nickname, long deadline) {
+            this.nickname = nickname;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int compareTo(Deadline other) {
+            return Long.compare(deadline, other.deadline);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package org.example.chatft.service;
+
+import org.example.chatft.config.NetworkConfig;
+import org.example.chatft.model.GroupMessage;
+import org.example.chatft.protocol.WireEncoder;
+import org.example.chatft.utils.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * NACK-based reliable multicast for group messages (receiver-driven, no per-message ACKs).
+ *
+ * - Every GMSG we send carries a per-sender stream sequence and stays in a bounded
+ *   retransmit ring until it is overwritten.
+ * - Receivers deliver in order per sender; a gap holds later messages back and triggers a
+ *   NACK (after a short random delay) listing the missing ranges. Hearing another receiver's
+ *   NACK for the same sender postpones ours, since the multicast repair reaches everyone.
+ * - After the last message of a burst the sender multicasts a TAIL with its highest sequence,
+ *   so losing the last message is detected too.
+ * - A gap that stays open after RELIABLE_MAX_NACK_ATTEMPTS is given up and skipped.
+ */
+public class ReliableGroupChannel {
+    private static final Logger log = Logger.get("UDP");
+
+    private final ScheduledExecutorService scheduler;
+    private final Consumer<GroupMessage> onDeliver;
+
+    // Sender side
+    private final WireEncoder[] retransmitRing = new WireEncoder[NetworkConfig.RELIABLE_RETRANSMIT_BUFFER];
+    private final int[] ringSequence = new int[NetworkConfig.RELIABLE_RETRANSMIT_BUFFER];
+    private final long[] lastRetransmitAt = new long[NetworkConfig.RELIABLE_RETRANSMIT_BUFFER];
+    private int nextSequence;
+    private int lastAdvertised = -1;
+    private long lastSentAt;
+
+    // Receiver side: sender peerId -> stream state
+    private final Map<Long, InboundStream> inbound = new HashMap<>();
+
+    private UdpService udpService;
+
+    public ReliableGroupChannel(ScheduledExecutorService scheduler, Consumer<GroupMessage> onDeliver) {
+        this.scheduler = scheduler;
+        this.onDeliver = onDeliver;
+    }
+
+    /**
+     * Start NACK/TAIL timer
+     */
+    public void start(UdpService udpService) {
+        this.udpService = udpService;
+        scheduler.scheduleWithFixedDelay(this::tick,
+                NetworkConfig.RELIABLE_TICK_MS,
+                NetworkConfig.RELIABLE_TICK_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Send group message and keep it for retransmission
+     * @throws IllegalArgumentException if it is too large to send over UDP (no sequence number is used up)
+     */
+    public synchronized void send(String groupName, String sender, String content) {
+        int seq = nextSequence;
+        int slot = seq & (retransmitRing.length - 1);
+        WireEncoder msg = udpService.sendGroupMessage(seq, groupName, sender, content);
+        nextSequence++;
+        retransmitRing[slot] = msg;
+        ringSequence[slot] = seq;
+        lastRetransmitAt[slot] = 0;
+        lastSentAt = now();
+    }
+
+    /**
+     * A receiver is missing some of our messages: re-multicast what is still buffered
+     * @param ranges pairs of (firstSeq, count)
+     */
+    public synchronized void onNack(int[] ranges) {
+        long now = now();
+        int budget = retransmitRing.length;
+        for (int i = 0; i + 1 < ranges.length && budget > 0; i += 2) {
+            for (int k = 0; k < ranges[i + 1] && budget > 0; k++, budget--) {
+                int seq = ranges[i] + k;
+                if (seq - nextSequence >= 0) {
+                    break; // never sent
+                }
+                int slot = seq & (retransmitRing.length - 1);
+                if (retransmitRing[slot] == null || ringSequence[slot] != seq) {
+                    continue; // already overwritten, receiver will give up on it
+                }
+                // Several receivers NACK the same loss: one repair is enough
+                if (now - lastRetransmitAt[slot] < NetworkConfig.RELIABLE_RETRANSMIT_HOLDOFF_MS) {
+                    continue;
+                }
+                lastRetransmitAt[slot] = now;
+                udpService.sendMessage(retransmitRing[slot]);
+            }
+        }
+    }
+
+    /**
+     * Group message received from a peer (possibly a retransmission)
+     */
+    public synchronized void receive(long peerId, int seq, GroupMessage message) {
+        InboundStream stream = inbound.get(peerId);
+        if (stream == null) {
+            // Joined mid-stream: history before the first message we see is not recovered
+            stream = new InboundStream(seq);
+            inbound.put(peerId, stream);
+        }
+        stream.lastHeardAt = now();
+
+        if (seq - stream.nextExpected < 0 || stream.held.containsKey(seq)) {
+            return; // Late retransmission of something we already have
+        }
+        if (seq - stream.highestSeen > 0) {
+            stream.highestSeen = seq;
+        }
+
+        if (seq == stream.nextExpected) {
+            onDeliver.accept(message);
+            stream.nextExpected++;
+            drainHeld(stream);
+        } else {
+            stream.held.put(seq, message);
+            if (stream.held.size() > NetworkConfig.RELIABLE_MAX_HELD) {
+                giveUp(peerId, stream);
+            }
+        }
+        updateGap(stream);
+    }
+
+    /**
+     * Sender advertised its highest sequence (detects loss of the last message of a burst)
+     */
+    public synchronized void onTail(long peerId, int highestSeq) {
+        InboundStream stream = inbound.get(peerId);
+        if (stream == null) {
+            inbound.put(peerId, new InboundStream(highestSeq + 1));
+            return;
+        }
+        stream.lastHeardAt = now();
+        if (highestSeq - stream.highestSeen > 0) {
+            stream.highestSeen = highestSeq;
+            updateGap(stream);
+        }
+    }
+
+    /**
+     * Another receiver NACKed this sender; its repair will reach us too, so hold our own NACK back
+     */
+    public synchronized void onForeignNack(long targetPeerId) {
+        InboundStream stream = inbound.get(targetPeerId);
+        if (stream != null && stream.gapOpen) {
+            stream.nextNackAt = Math.max(stream.nextNackAt, now() + NetworkConfig.RELIABLE_NACK_INTERVAL_MS);
+        }
+    }
+
+    private void tick() {
+        try {
+            announceTail();
+            sendDueNacks(now());
+        } catch (RuntimeException e) {
+            log.error(() -> "[RELIABLE-ERR] " + e.getMessage());
+        }
+    }
+
+    private synchronized void announceTail() {
+        int highest = nextSequence - 1;
+        if (highest != lastAdvertised && now() - lastSentAt >= NetworkConfig.RELIABLE_TAIL_DELAY_MS) {
+            lastAdvertised = highest;
+            udpService.sendGroupTail(highest);
+        }
+    }
+
+    /**
+     * NACK every open gap whose time has come, give up on those out of attempts
+     */
+    synchronized void sendDueNacks(long now) {
+        Iterator<Map.Entry<Long, InboundStream>> it = inbound.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, InboundStream> entry = it.next();
+            InboundStream stream = entry.getValue();
+
+            if (!stream.gapOpen) {
+                if (now - stream.lastHeardAt > NetworkConfig.RELIABLE_STREAM_IDLE_MS) {
+                    it.remove();
+                }
+                continue;
+            }
+            if (now < stream.nextNackAt) {
+                continue;
+            }
+
+            if (stream.nackAttempts >= NetworkConfig.RELIABLE_MAX_NACK_ATTEMPTS) {
+                giveUp(entry.getKey(), stream);
+                updateGap(stream);
+                continue;
+            }
+
+            stream.nackAttempts++;
+            stream.nextNackAt = now + NetworkConfig.RELIABLE_NACK_INTERVAL_MS
+                    + ThreadLocalRandom.current().nextLong(NetworkConfig.RELIABLE_NACK_DELAY_MS + 1);
+            sendNack(entry.getKey(), missingRanges(stream));
+        }
+    }
+
+    /**
+     * Multicast a NACK to the sender (package-private so tests can catch it)
+     */
+    void sendNack(long peerId, int[] ranges) {
+        udpService.sendGroupNack(peerId, ranges);
+    }
+
+    /**
+     * Skip the current gap and deliver whatever is held after it
+     */
+    private void giveUp(long peerId, InboundStream stream) {
+        int resumeAt = stream.held.isEmpty() ? stream.highestSeen + 1 : stream.held.firstKey();
+        int lost = resumeAt - stream.nextExpected;
+        log.warn(() -> "[RELIABLE] Gave up on " + lost + " lost group message(s) from peer " + Long.toHexString(peerId));
+        stream.nextExpected = resumeAt;
+        drainHeld(stream);
+    }
+
+    private void drainHeld(InboundStream stream) {
+        GroupMessage next;
+        while ((next = stream.held.remove(stream.nextExpected)) != null) {
+            onDeliver.accept(next);
+            stream.nextExpected++;
+        }
+    }
+
+    private void updateGap(InboundStream stream) {
+        boolean gap = stream.highestSeen - stream.nextExpected >= 0;
+        if (!gap) {
+            stream.gapOpen = false;
+            stream.nackAttempts = 0;
+        } else if (!stream.gapOpen || stream.gapStart != stream.nextExpected) {
+            // A new gap, or the first hole was repaired or given up on: the hole now first gets
+            // its own attempts. Random delay so that receivers sharing a loss don't all NACK at once
+            stream.gapOpen = true;
+            stream.gapStart = stream.nextExpected;
+            stream.nackAttempts = 0;
+            stream.nextNackAt = now() + ThreadLocalRandom.current().nextLong(NetworkConfig.RELIABLE_NACK_DELAY_MS + 1);
+        }
+    }
+
+    private static int[] missingRanges(InboundStream stream) {
+        List<Integer> ranges = new ArrayList<>();
+        int seq = stream.nextExpected;
+        while (seq - stream.highestSeen <= 0 && ranges.size() < NetworkConfig.RELIABLE_MAX_NACK_RANGES * 2) {
+            if (stream.held.containsKey(seq)) {
+                seq++;
+                continue;
+            }
+            int first = seq;
+            while (seq - stream.highestSeen <= 0 && !stream.held.containsKey(seq)) {
+                seq++;
+            }
+            ranges.add(first);
+            ranges.add(seq - first);
+        }
+
+        int[] result = new int[ranges.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ranges.get(i);
+        }
+        return result;
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private static class InboundStream {
+        int nextExpected;
+        int highestSeen;
+        // Sequence order across the int wrap: every key is ahead of nextExpected by less than 2^31
+        final TreeMap<Integer, GroupMessage> held = new TreeMap<>((a, b) -> Integer.compare(a - b, 0));
+        boolean gapOpen;      // something between nextExpected and highestSeen is missing
+        int gapStart;         // nextExpected when nackAttempts started counting
+        int nackAttempts;
+        long nextNackAt;      // when gapOpen
+        long lastHeardAt;
+
+        InboundStream(int firstSeq) {
+            this.nextExpected = firstSeq;
+            this.highestSeen = firstSeq - 1;
+            this.lastHeardAt = now();
+        }
+    }
+}
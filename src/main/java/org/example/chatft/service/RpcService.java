@@ -0,0 +1,158 @@
+package org.example.chatft.service;
+
+import org.example.chatft.config.NetworkConfig;
+import org.example.chatft.model.User;
+import org.example.chatft.protocol.RpcMethod;
+import org.example.chatft.utils.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Typed request/response calls to peers over their pooled connection.
+ *
+ * A call is one stream: the header names the method and the caller ("RPC:method:nickname"),
+ * the request is the body, and the callee answers on its half of the same stream (the
+ * response body, then FIN) or resets it with the reason if the call failed. The stream id
+ * is the correlation id, so any number of calls can be in flight on one connection and a
+ * reply can't be matched to the wrong request. A call fails on its method's timeout.
+ *
+ * A new kind of call needs an RpcMethod and a handler registered for it, nothing else.
+ * Calls one thread makes to a peer reach the peer's handlers in the order they were made.
+ */
+public class RpcService {
+    private static final Logger log = Logger.get("TCP");
+
+    public static final String HEADER_PREFIX = "RPC:";
+
+    /**
+     * Answers calls of one method. Called on the connection's I/O thread, so it must not
+     * block: anything slow (a user decision, disk) completes the future later.
+     */
+    @FunctionalInterface
+    public interface Handler<Q, R> {
+        CompletableFuture<R> handle(String fromNickname, Q request);
+    }
+
+    private final String nickname;
+    private final PeerConnectionPool connectionPool;
+    private final Map<String, Registration<?, ?>> handlers = new ConcurrentHashMap<>();
+
+    public RpcService(String nickname, PeerConnectionPool connectionPool) {
+        this.nickname = nickname;
+        this.connectionPool = connectionPool;
+    }
+
+    /**
+     * Answer calls of method with handler (replaces the previous one)
+     */
+    public <Q, R> void register(RpcMethod<Q, R> method, Handler<Q, R> handler) {
+        handlers.put(method.name(), new Registration<>(method, handler));
+    }
+
+    /**
+     * Call method on a peer
+     * @return completes with the peer's response; fails if the peer can't be reached,
+     *         has no handler, its handler failed, or no reply came within the method's timeout
+     */
+    public <Q, R> CompletableFuture<R> call(User user, RpcMethod<Q, R> method, Q request) {
+        long start = System.nanoTime();
+        String body = method.request().encode(request);
+        FrameStream stream;
+        try {
+            stream = connectionPool.open(user.getIp(), user.getTcpPort(), method.priority(),
+                    HEADER_PREFIX + method.name() + ":" + nickname, body == null);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<String> reply = stream.readText(NetworkConfig.TCP_MAX_TEXT_BODY);
+        if (body != null) {
+            stream.pumpFrom(Channels.newChannel(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8))));
+        }
+
+        CompletableFuture<R> result = new CompletableFuture<>();
+        reply.orTimeout(method.timeoutMs(), TimeUnit.MILLISECONDS).whenComplete((text, error) -> {
+            long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            String call = method + " #" + stream.id() + " to " + user.getNickname();
+            if (error == null) {
+                try {
+                    result.complete(method.response().decode(text));
+                    log.info("[RPC] " + call + " answered in " + ms + " ms");
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+                return;
+            }
+            if (error instanceof TimeoutException) {
+                stream.reset("timed out");
+                error = new TimeoutException("no reply within " + method.timeoutMs() + " ms");
+            }
+            log.info("[RPC-ERR] " + call + " failed after " + ms + " ms: " + error.getMessage());
+            result.completeExceptionally(error);
+        });
+        return result;
+    }
+
+    /**
+     * A peer's call (stream header starts with HEADER_PREFIX), on the connection's I/O thread
+     */
+    public void onStream(FrameStream stream) {
+        String[] parts = stream.header().split(":", 3);
+        Registration<?, ?> registration = parts.length == 3 ? handlers.get(parts[1]) : null;
+        if (registration == null) {
+            log.warn("[RPC-ERR] No handler for " + stream.header());
+            stream.reset("unknown method");
+            return;
+        }
+        String from = parts[2];
+
+        CompletableFuture<String> body = stream.remoteFinished().isDone()
+                ? CompletableFuture.completedFuture(null)
+                : stream.readText(NetworkConfig.TCP_MAX_TEXT_BODY);
+        stream.connection().inArrivalOrder(body)
+                .thenCompose(text -> registration.invoke(from, text))
+                .whenComplete((reply, error) -> {
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                ? error.getCause() : error;
+                        log.info("[RPC-ERR] " + parts[1] + " #" + stream.id() + " from " + from + ": " + cause.getMessage());
+                        stream.reset("failed: " + cause.getMessage());
+                    } else if (reply == null) {
+                        stream.close();
+                    } else {
+                        stream.pumpFrom(Channels.newChannel(new ByteArrayInputStream(reply.getBytes(StandardCharsets.UTF_8))));
+                    }
+                });
+    }
+
+    private static class Registration<Q, R> {
+        final RpcMethod<Q, R> method;
+        final Handler<Q, R> handler;
+
+        Registration(RpcMethod<Q, R> method, Handler<Q, R> handler) {
+            this.method = method;
+            this.handler = handler;
+        }
+
+        /**
+         * Decode the request, run the handler, encode its response
+         */
+        CompletableFuture<String> invoke(String from, String text) {
+            CompletableFuture<R> response;
+            try {
+                response = handler.handle(from, method.request().decode(text));
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            return response.thenApply(method.response()::encode);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package org.example.chatft.service;
+
+import org.example.chatft.utils.Logger;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Fixed set of selector threads ("tcp-io-N") that run every peer connection, inbound and
+ * dialed: accepts, non-blocking connects, reads parsed by each connection's FrameDecoder,
+ * and queued writes. Thread count does not grow with the number of connections.
+ */
+public class TcpReactor {
+    private static final Logger log = Logger.get("TCP");
+
+    private final IoLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    public TcpReactor(int threads) throws IOException {
+        this.loops = new IoLoop[Math.max(1, threads)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new IoLoop("tcp-io-" + i);
+        }
+    }
+
+    public void start() {
+        for (IoLoop loop : loops) {
+            Thread thread = new Thread(loop::run, loop.name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    public int getThreadCount() {
+        return loops.length;
+    }
+
+    /**
+     * Accept connections on the first loop; onAccept runs on that loop's thread
+     */
+    public void listen(ServerSocketChannel server, Consumer<SocketChannel> onAccept) throws IOException {
+        server.configureBlocking(false);
+        IoLoop loop = loops[0];
+        loop.execute(() -> {
+            try {
+                server.register(loop.selector, SelectionKey.OP_ACCEPT, onAccept);
+            } catch (IOException e) {
+                log.error("[TCP-ERR] Cannot listen: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Hand a connected or connecting channel to one of the loops (round robin)
+     */
+    public void register(PeerConnection connection) {
+        IoLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+        connection.bind(loop);
+        loop.execute(() -> {
+            try {
+                SocketChannel channel = connection.channel();
+                if (channel.isConnectionPending()) {
+                    channel.register(loop.selector, SelectionKey.OP_CONNECT, connection);
+                } else {
+                    connection.attached(channel.register(loop.selector, SelectionKey.OP_READ, connection));
+                }
+            } catch (IOException e) {
+                connection.fail(e);
+            }
+        });
+    }
+
+    public void shutdown() {
+        for (IoLoop loop : loops) {
+            loop.running = false;
+            try {
+                loop.selector.close();
+            } catch (IOException ignored) {
+                // closing anyway
+            }
+        }
+    }
+
+    /**
+     * One selector and its thread. Other threads reach it only through execute().
+     */
+    static class IoLoop {
+        final String name;
+        final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private volatile boolean running = true;
+        private volatile Thread thread;
+
+        IoLoop(String name) throws IOException {
+            this.name = name;
+            this.selector = Selector.open();
+        }
+
+        /**
+         * Run a task on this loop's thread (soon, in submission order)
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (Thread.currentThread() != thread) {
+                selector.wakeup();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        void run() {
+            thread = Thread.currentThread();
+            while (running) {
+                try {
+                    // Tasks queued by this thread while handling keys don't wake the selector
+                    if (tasks.isEmpty()) {
+                        selector.select();
+                    } else {
+                        selector.selectNow();
+                    }
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        runSafely(task);
+                    }
+
+                    Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                    while (selected.hasNext()) {
+                        SelectionKey key = selected.next();
+                        selected.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            // Drain the backlog: peers dialing at the same moment arrive together
+                            SocketChannel channel;
+                            while ((channel = ((ServerSocketChannel) key.channel()).accept()) != null) {
+                                ((Consumer<SocketChannel>) key.attachment()).accept(channel);
+                            }
+                            continue;
+                        }
+                        PeerConnection connection = (PeerConnection) key.attachment();
+                        if (key.isConnectable()) {
+                            connection.onConnectable(key);
+                            continue;
+                        }
+                        if (key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    }
+                } catch (ClosedSelectorException e) {
+                    break;
+                } catch (IOException | RuntimeException e) {
+                    if (running) {
+                        log.error("[TCP-ERR] " + name + ": " + e.getMessage());
+                    }
+                }
+            }
+            log.debug(() -> "[TCP] " + name + " stopped");
+        }
+
+        private void runSafely(Runnable task) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                log.error("[TCP-ERR] " + name + " task failed: " + e.getMessage());
+            }
+        }
+    }
+}
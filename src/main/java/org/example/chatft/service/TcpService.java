@@ -3,106 +3,227 @@ package org.example.chatft.service;
 import org.example.chatft.config.NetworkConfig;
 import org.example.chatft.handler.TcpConnectionHandler;
 import org.example.chatft.model.User;
+import org.example.chatft.protocol.StreamPriority;
+import org.example.chatft.utils.Logger;
 
-import java.io.DataOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.concurrent.ExecutorService;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class TcpService {
+    private static final Logger log = Logger.get("TCP");
+
     private final String nickname;
-    private final ServerSocket serverSocket;
+    private final ServerSocketChannel serverChannel;
     private final int tcpPort;
-    private final ExecutorService executor;
+    private final TcpReactor reactor;
     private final TcpConnectionHandler connectionHandler;
+    private final PeerConnectionPool connectionPool;
+    private final LinkHealthRegistry linkHealth;
+    private final Set<PeerConnection> inbound = ConcurrentHashMap.newKeySet();
 
     public TcpService(String nickname,
-                      ExecutorService executor,
-                      TcpConnectionHandler connectionHandler) throws IOException {
+                      ScheduledExecutorService scheduler,
+                      TcpReactor reactor,
+                      TcpConnectionHandler connectionHandler,
+                      PeerConnectionPool connectionPool) throws IOException {
         this.nickname = nickname;
-        this.executor = executor;
+        this.reactor = reactor;
         this.connectionHandler = connectionHandler;
+        this.connectionPool = connectionPool;
+        this.linkHealth = connectionPool.getLinkHealth();
+
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(0), NetworkConfig.TCP_ACCEPT_BACKLOG);
+        this.tcpPort = serverChannel.socket().getLocalPort();
 
-        this.serverSocket = new ServerSocket(0);
-        this.tcpPort = serverSocket.getLocalPort();
+        scheduler.scheduleWithFixedDelay(this::closeIdleInbound,
+                NetworkConfig.TCP_IDLE_CHECK_INTERVAL_MS, NetworkConfig.TCP_IDLE_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
 
-        System.out.println("[TCP] Server started on port: " + tcpPort);
+        log.info("[TCP] Server started on port: " + tcpPort);
     }
 
     /**
-     * Start listening for TCP connections
+     * Start accepting TCP connections on the reactor; each accepted connection carries the
+     * peer's streams for as long as the peer keeps it open
      */
     public void startListener() {
-        executor.submit(() -> {
-            while (!serverSocket.isClosed()) {
-                try {
-                    Socket socket = serverSocket.accept();
-                    System.out.println("[TCP] Connection from " + socket.getInetAddress().getHostAddress());
-
-                    executor.submit(() -> {
-                        connectionHandler.handleConnection(socket);
-                        try {
-                            socket.close();
-                        } catch (IOException e) {
-                            System.err.println("[TCP] Error closing socket: " + e.getMessage());
-                        }
-                    });
-
-                } catch (IOException e) {
-                    if (!serverSocket.isClosed()) {
-                        System.err.println("[TCP-ERR] " + e.getMessage());
-                    }
-                    break;
-                }
+        try {
+            reactor.listen(serverChannel, this::accept);
+        } catch (IOException e) {
+            log.error("[TCP-ERR] " + e.getMessage());
+        }
+    }
+
+    private void accept(SocketChannel channel) {
+        String from = describe(channel);
+        try {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            PeerConnection connection = new PeerConnection(
+                    channel, false, from, connectionHandler::onStream, inbound::remove);
+            String ip = ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress();
+            connection.measureRtt(rtt -> linkHealth.onRtt(ip, rtt));
+            inbound.add(connection);
+            reactor.register(connection);
+            log.debug(() -> "[TCP] Connection from " + from + " (" + inbound.size() + " inbound)");
+        } catch (IOException e) {
+            log.error("[TCP-ERR] Accept from " + from + " failed: " + e.getMessage());
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // dropping it anyway
             }
-            System.out.println("[TCP] Listener stopped");
-        });
+        }
     }
 
     /**
-     * Send text message to user
+     * Drop inbound connections the peer left open but stopped using. Longer than the
+     * sender's own idle timeout, so normally the sender closes first.
      */
-    public void sendMessage(User user, String message) {
-        executor.submit(() -> {
-            try (Socket socket = new Socket(user.getIp(), user.getTcpPort());
-                 DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
-
-                String fullMsg = nickname + ": " + message;
-                out.writeUTF("MSG:" + fullMsg);
-                out.flush();
+    private void closeIdleInbound() {
+        for (PeerConnection connection : inbound) {
+            if (connection.isIdle(NetworkConfig.TCP_READ_IDLE_TIMEOUT_MS)) {
+                log.debug(() -> "[TCP] Closing idle connection " + connection.getName());
+                connection.close();
+            }
+        }
+    }
 
-                System.out.println("[TCP-SEND] to " + user + " => " + fullMsg);
+    public int getInboundCount() {
+        return inbound.size();
+    }
 
-                // Small delay to ensure data is sent
-                Thread.sleep(NetworkConfig.TCP_SEND_DELAY_MS);
+    private static String describe(SocketChannel channel) {
+        try {
+            InetSocketAddress remote = (InetSocketAddress) channel.getRemoteAddress();
+            return remote.getAddress().getHostAddress() + ":" + remote.getPort();
+        } catch (IOException e) {
+            return "unknown peer";
+        }
+    }
 
-            } catch (IOException e) {
-                System.err.println("[ERROR] Failed to send to " + user + ": " + e.getMessage());
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+    /**
+     * Send text message to user
+     * @return completes when the peer acknowledged the message, fails with the cause otherwise
+     */
+    public CompletableFuture<Void> sendMessage(User user, String message) {
+        String fullMsg = nickname + ": " + message;
+        return send(user, StreamPriority.CHAT, "MSG:" + nickname, message).whenComplete((ok, error) -> {
+            if (error == null) {
+                log.debug(() -> "[TCP-SEND] to " + user + " => " + fullMsg);
+            } else {
+                log.error("[ERROR] Failed to send to " + user + ": " + describe(error));
             }
         });
     }
 
     /**
      * Send TCP offline notification to a user
+     * @return completes when the peer acknowledged the notice
      */
-    public void notifyOffline(User user) {
-        executor.submit(() -> {
-            try (Socket socket = new Socket(user.getIp(), user.getTcpPort());
-                 DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
+    public CompletableFuture<Void> notifyOffline(User user) {
+        return send(user, StreamPriority.CONTROL, "TCP_OFFLINE:" + nickname, null).whenComplete((ok, error) -> {
+            if (error == null) {
+                log.info("[TCP-OFFLINE] Notified " + user.getNickname() + " that " + nickname + " is offline");
+            } else {
+                log.debug(() -> "[TCP-OFFLINE] Could not notify " + user.getNickname() + ": " + describe(error));
+            }
+        });
+    }
 
-                String msg = "TCP_OFFLINE:" + nickname;
-                out.writeUTF(msg);
-                out.flush();
+    /**
+     * Tell every peer at once that we are going offline and wait for the acknowledgements,
+     * but never longer than deadlineMs in total, however many peers there are. Notices
+     * still in flight at the deadline are abandoned (the UDP OFFLINE and heartbeat expiry
+     * cover those peers).
+     * @return number of peers that acknowledged in time
+     */
+    public int notifyOffline(Collection<User> users, long deadlineMs) {
+        List<CompletableFuture<Void>> notices = new ArrayList<>(users.size());
+        for (User user : users) {
+            notices.add(notifyOffline(user));
+        }
+        try {
+            CompletableFuture.allOf(notices.toArray(new CompletableFuture<?>[0])).get(deadlineMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            // counted below
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int reached = 0;
+        for (CompletableFuture<Void> notice : notices) {
+            if (notice.isDone() && !notice.isCompletedExceptionally()) {
+                reached++;
+            }
+        }
+        return reached;
+    }
 
-                System.out.println("[TCP-OFFLINE] Notified " + user.getNickname() + " that " + nickname + " is offline");
+    /**
+     * Send a message on its own stream: a short header, then the text body (UTF-8, any
+     * length, split into DATA frames and ended by FIN). The peer ends its half of the stream
+     * once it has handled the message; that FIN completes the future. A reset, a dropped
+     * connection or no answer in time fails it: TCP_ACK_TIMEOUT_MS, or less once the
+     * round-trip time to the peer is known (see LinkHealthRegistry.ackTimeoutMs).
+     *
+     * Queued on the caller's thread without blocking, so messages one thread sends to a
+     * peer are handled by the peer in the order they were sent.
+     * @param body text body, or null for a header-only message
+     */
+    private CompletableFuture<Void> send(User user, StreamPriority priority, String header, String body) {
+        FrameStream stream;
+        try {
+            stream = connectionPool.open(user.getIp(), user.getTcpPort(), priority, header, body == null);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        byte[] utf8 = body == null ? null : body.getBytes(StandardCharsets.UTF_8);
+        if (utf8 != null) {
+            // Sent as window credit allows, so a long paste never blocks the caller
+            stream.pumpFrom(Channels.newChannel(new ByteArrayInputStream(utf8)));
+        }
+        // While connecting, or for a body over one window, the RTT says little about how long it takes
+        long timeout = stream.connection().isConnected() && (utf8 == null || utf8.length <= NetworkConfig.TCP_STREAM_WINDOW)
+                ? linkHealth.ackTimeoutMs(user.getIp()) : NetworkConfig.TCP_ACK_TIMEOUT_MS;
+        CompletableFuture<Void> acked = new CompletableFuture<>();
+        stream.remoteFinished()
+                .orTimeout(timeout, TimeUnit.MILLISECONDS)
+                .whenComplete((ok, error) -> {
+                    if (error == null) {
+                        acked.complete(null);
+                    } else {
+                        stream.reset("no acknowledgement");
+                        acked.completeExceptionally(error instanceof TimeoutException
+                                ? new TimeoutException("no acknowledgement within " + timeout + " ms") : error);
+                    }
+                });
+        return acked;
+    }
 
-            } catch (IOException e) {
-                System.out.println("[TCP-OFFLINE] Could not notify " + user.getNickname() + ": " + e.getMessage());
-            }
-        });
+    static String describe(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error instanceof TimeoutException && error.getMessage() == null) {
+            return "no acknowledgement within " + NetworkConfig.TCP_ACK_TIMEOUT_MS + " ms";
+        }
+        return error.getMessage();
     }
 
     /**
@@ -113,16 +234,18 @@ public class TcpService {
     }
 
     /**
-     * Close server socket
+     * Close server socket and all peer connections
      */
     public void shutdown() {
+        connectionPool.closeAll();
+        for (PeerConnection connection : inbound) {
+            connection.close();
+        }
         try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
-            }
-            System.out.println("[TCP] Shutdown complete");
+            serverChannel.close();
+            log.info("[TCP] Shutdown complete");
         } catch (IOException e) {
-            System.err.println("[TCP-SHUTDOWN-ERR] " + e.getMessage());
+            log.error("[TCP-SHUTDOWN-ERR] " + e.getMessage());
         }
     }
 }
\ No newline at end of file
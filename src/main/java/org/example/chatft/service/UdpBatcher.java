@@ -0,0 +1,77 @@
+package org.example.chatft.service;
+
+import org.example.chatft.protocol.WireEncoder;
+import org.example.chatft.utils.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Send-side coalescing of small control messages.
+ *
+ * The first message of a burst starts a short window (UDP_BATCH_WINDOW_MS); everything
+ * sent during the window is handed to onFlush together, so UdpService can pack it into
+ * one BATCH datagram. A batch is flushed early when the next message would push it
+ * past the path MTU.
+ */
+public class UdpBatcher {
+    private static final Logger log = Logger.get("UDP");
+
+    // Worst-case length varint in front of each entry
+    private static final int ENTRY_OVERHEAD = 3;
+
+    private final ScheduledExecutorService scheduler;
+    private final long windowMs;
+    private final Consumer<List<byte[]>> onFlush;
+
+    private List<byte[]> pending = new ArrayList<>();
+    private int pendingSize = WireEncoder.HEADER_SIZE;
+
+    public UdpBatcher(ScheduledExecutorService scheduler, long windowMs, Consumer<List<byte[]>> onFlush) {
+        this.scheduler = scheduler;
+        this.windowMs = windowMs;
+        this.onFlush = onFlush;
+    }
+
+    /**
+     * Queue one stamped datagram for the current window
+     * @param maxDatagramSize Largest batch that still fits in one packet
+     */
+    public synchronized void add(byte[] datagram, int maxDatagramSize) {
+        if (!pending.isEmpty() && pendingSize + datagram.length + ENTRY_OVERHEAD > maxDatagramSize) {
+            flush();
+        }
+        boolean first = pending.isEmpty();
+        pending.add(datagram);
+        pendingSize += datagram.length + ENTRY_OVERHEAD;
+
+        if (first) {
+            try {
+                scheduler.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                flush(); // Shutting down: no timer left, send right away
+            }
+        }
+    }
+
+    /**
+     * Send whatever is queued now (under the lock, so batches leave in order)
+     */
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<byte[]> batch = pending;
+        pending = new ArrayList<>();
+        pendingSize = WireEncoder.HEADER_SIZE;
+        try {
+            onFlush.accept(batch);
+        } catch (RuntimeException e) {
+            log.error("[UDP-BATCH-ERR] " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package org.example.chatft.service;
+
+import org.example.chatft.config.NetworkConfig;
+import org.example.chatft.handler.UdpMessageHandler;
+import org.example.chatft.protocol.MessageType;
+import org.example.chatft.protocol.WireDecoder;
+import org.example.chatft.protocol.WireEncoder;
+import org.example.chatft.protocol.WireFormatException;
+import org.example.chatft.utils.InboundRateLimiter;
+import org.example.chatft.utils.Logger;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Staged UDP pipeline: the receive thread only copies the datagram and files it into a
+ * bounded queue per traffic class; one worker per class decodes and handles it.
+ *
+ * A burst of video frames can't delay presence or chat, and a slow UI callback
+ * no longer stops the socket from being drained. When a queue is full its drop policy
+ * decides what is lost, and every queue counts what it dropped.
+ */
+public class UdpDispatcher {
+    private static final Logger log = Logger.get("UDP");
+
+    public enum DropPolicy {
+        DROP_NEWEST,   // reject the incoming datagram (older work is kept)
+        DROP_OLDEST    // evict the oldest queued datagram (latest wins)
+    }
+
+    public enum TrafficClass {
+        PRESENCE(NetworkConfig.UDP_QUEUE_PRESENCE_CAPACITY, DropPolicy.DROP_OLDEST),
+        GROUP_CHAT(NetworkConfig.UDP_QUEUE_GROUP_CAPACITY, DropPolicy.DROP_NEWEST),
+        FILE(NetworkConfig.UDP_QUEUE_FILE_CAPACITY, DropPolicy.DROP_NEWEST),
+        VIDEO(NetworkConfig.UDP_QUEUE_VIDEO_CAPACITY, DropPolicy.DROP_OLDEST);
+
+        final int capacity;
+        final DropPolicy policy;
+
+        TrafficClass(int capacity, DropPolicy policy) {
+            this.capacity = capacity;
+            this.policy = policy;
+        }
+    }
+
+    private final UdpMessageHandler messageHandler;
+    private final InboundRateLimiter rateLimiter = new InboundRateLimiter();
+    private final Lane[] lanes = new Lane[TrafficClass.values().length];
+    private volatile boolean running = true;
+
+    public UdpDispatcher(UdpMessageHandler messageHandler) {
+        this.messageHandler = messageHandler;
+        for (TrafficClass trafficClass : TrafficClass.values()) {
+            lanes[trafficClass.ordinal()] = new Lane(trafficClass);
+        }
+    }
+
+    /**
+     * Start one worker per traffic class
+     */
+    public void start(ExecutorService executor) {
+        for (Lane lane : lanes) {
+            executor.submit(() -> drain(lane));
+        }
+    }
+
+    /**
+     * Receive stage: rate-limit, copy datagram (position..limit) and queue it, never blocks
+     * @return false if the datagram (or an older one, for latest-wins queues) was dropped
+     */
+    public boolean dispatch(ByteBuffer datagram, InetAddress from) {
+        if (datagram.remaining() > WireEncoder.HEADER_SIZE
+                && datagram.get(datagram.position() + 1) == MessageType.BATCH.getCode()) {
+            return unpack(datagram, from);
+        }
+
+        MessageType type = peekType(datagram);
+        if (!rateLimiter.tryAcquire(from, type, System.nanoTime())) {
+            return false;
+        }
+
+        Lane lane = lanes[classify(type).ordinal()];
+        byte[] data = new byte[datagram.remaining()];
+        datagram.get(data);
+        Received received = new Received(data, from);
+
+        if (lane.queue.offer(received)) {
+            return true;
+        }
+
+        if (lane.trafficClass.policy == DropPolicy.DROP_OLDEST) {
+            lane.queue.poll();
+            lane.queue.offer(received);
+        }
+        lane.countDrop();
+        return false;
+    }
+
+    /**
+     * Split a BATCH into its messages and queue each like a datagram of its own
+     */
+    private boolean unpack(ByteBuffer batch, InetAddress from) {
+        boolean allQueued = true;
+        try {
+            WireDecoder decoder = new WireDecoder(batch);
+            while (decoder.hasRemaining()) {
+                ByteBuffer message = decoder.readSlice();
+                if (message.remaining() > WireEncoder.HEADER_SIZE
+                        && message.get(message.position() + 1) == MessageType.BATCH.getCode()) {
+                    continue; // never nested by the sender
+                }
+                allQueued &= dispatch(message, from);
+            }
+        } catch (WireFormatException e) {
+            log.warn("[UDP-SKIP] Malformed batch from " + from.getHostAddress() + ": " + e.getMessage());
+        }
+        return allQueued;
+    }
+
+    /**
+     * Message type from the type byte, without decoding.
+     * Fragments report the type of the message they belong to.
+     * @return the type, or null if the datagram is too short or the type is unknown
+     */
+    static MessageType peekType(ByteBuffer datagram) {
+        int pos = datagram.position();
+        if (datagram.remaining() < WireEncoder.HEADER_SIZE) {
+            return null;
+        }
+
+        MessageType type = MessageType.fromCode(datagram.get(pos + 1));
+        if (type == MessageType.FRAGMENT && datagram.remaining() > WireEncoder.HEADER_SIZE) {
+            type = MessageType.fromCode(datagram.get(pos + WireEncoder.HEADER_SIZE));
+        }
+        return type;
+    }
+
+    static TrafficClass classify(MessageType type) {
+        if (type == null) {
+            return TrafficClass.GROUP_CHAT; // handler reports it as malformed
+        }
+
+        switch (type) {
+            case ONLINE:
+            case OFFLINE:
+            case ROSTER:
+            case VIDEO_CALL_REQUEST:
+            case VIDEO_CALL_ACCEPT:
+            case VIDEO_CALL_REJECT:
+                return TrafficClass.PRESENCE;
+            case GFILE:
+                return TrafficClass.FILE;
+            case VIDEO_FRAME:
+                return TrafficClass.VIDEO;
+            default:
+                return TrafficClass.GROUP_CHAT;
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        log.info("[UDP-QUEUE] " + stats());
+        log.info("[UDP-LIMIT] " + rateLimiter.stats());
+    }
+
+    /**
+     * Queue depth, handled and dropped counts per traffic class
+     */
+    public String stats() {
+        StringBuilder sb = new StringBuilder();
+        for (Lane lane : lanes) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(lane.trafficClass).append(" depth=").append(lane.queue.size())
+                    .append(" handled=").append(lane.handled.get())
+                    .append(" dropped=").append(lane.dropped.get());
+        }
+        return sb.toString();
+    }
+
+    public int getDepth(TrafficClass trafficClass) {
+        return lanes[trafficClass.ordinal()].queue.size();
+    }
+
+    public long getDropped(TrafficClass trafficClass) {
+        return lanes[trafficClass.ordinal()].dropped.get();
+    }
+
+    private void drain(Lane lane) {
+        Thread.currentThread().setName("udp-" + lane.trafficClass.name().toLowerCase());
+        while (running) {
+            Received received;
+            try {
+                received = lane.queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            log.debug(() -> "[UDP-RECV] from " + received.from.getHostAddress() + ": " + received.data.length + " bytes");
+            try {
+                messageHandler.handleMessage(ByteBuffer.wrap(received.data), received.from);
+            } catch (RuntimeException e) {
+                log.error("[UDP-ERR] Handler failed for packet from " + received.from.getHostAddress() + ": " + e.getMessage());
+            }
+            lane.handled.incrementAndGet();
+        }
+    }
+
+    private static class Lane {
+        final TrafficClass trafficClass;
+        final BlockingQueue<Received> queue;
+        final AtomicLong handled = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+
+        Lane(TrafficClass trafficClass) {
+            this.trafficClass = trafficClass;
+            this.queue = new ArrayBlockingQueue<>(trafficClass.capacity);
+        }
+
+        void countDrop() {
+            long count = dropped.incrementAndGet();
+            // Log 1st, 2nd, 4th, 8th... drop so a sustained overload doesn't flood the console
+            if (Long.bitCount(count) == 1) {
+                log.warn("[UDP-QUEUE] " + trafficClass + " queue full (" + trafficClass.policy
+                        + "), " + count + " dropped so far");
+            }
+        }
+    }
+
+    private static class Received {
+        final byte[] data;
+        final InetAddress from;
+
+        Received(byte[] data, InetAddress from) {
+            this.data = data;
+            this.from = from;
+        }
+    }
+}
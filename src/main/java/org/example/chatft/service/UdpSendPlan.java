@@ -0,0 +1,142 @@
+package org.example.chatft.service;
+
+import org.example.chatft.config.NetworkConfig;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Precomputed list of UDP destinations for one outgoing message:
+ * the multicast group plus the directed broadcast address of every IPv4 subnet
+ * we sit on (computed from the real prefix length, ZeroTier included).
+ * Each destination appears once, so one payload is sent once per broadcast domain.
+ *
+ * Built when interfaces are detected and rebuilt only when they change.
+ */
+public class UdpSendPlan {
+    private final InetSocketAddress multicastTarget;
+    private final List<InetSocketAddress> broadcastTargets;
+    private final List<String> broadcastLabels; // interface name for each broadcast target (for logs)
+    private final int maxDatagramSize;
+
+    private UdpSendPlan(InetSocketAddress multicastTarget, Map<InetSocketAddress, String> broadcasts, int maxDatagramSize) {
+        this.multicastTarget = multicastTarget;
+        this.broadcastTargets = Collections.unmodifiableList(new ArrayList<>(broadcasts.keySet()));
+        this.broadcastLabels = Collections.unmodifiableList(new ArrayList<>(broadcasts.values()));
+        this.maxDatagramSize = maxDatagramSize;
+    }
+
+    /**
+     * Build plan for the given interfaces
+     */
+    public static UdpSendPlan build(InetAddress multicastGroup, int port, List<NetworkInterface> interfaces) {
+        Map<InetSocketAddress, String> broadcasts = new LinkedHashMap<>();
+        int minMtu = Integer.MAX_VALUE;
+
+        for (NetworkInterface iface : interfaces) {
+            try {
+                int mtu = iface.getMTU();
+                if (mtu > 0) {
+                    minMtu = Math.min(minMtu, mtu);
+                }
+            } catch (SocketException e) {
+                // Keep the default for this interface
+            }
+            for (InterfaceAddress addr : iface.getInterfaceAddresses()) {
+                InetAddress broadcast = directedBroadcast(addr);
+                if (broadcast != null) {
+                    broadcasts.putIfAbsent(new InetSocketAddress(broadcast, port), iface.getDisplayName());
+                }
+            }
+        }
+
+        return new UdpSendPlan(new InetSocketAddress(multicastGroup, port), broadcasts, maxDatagramFor(minMtu));
+    }
+
+    /**
+     * Largest UDP payload that fits in one IPv4 packet on a link with this MTU
+     */
+    static int maxDatagramFor(int mtu) {
+        if (mtu == Integer.MAX_VALUE) {
+            return NetworkConfig.UDP_DEFAULT_MAX_DATAGRAM;
+        }
+        int payload = mtu - 28; // IPv4 (20) + UDP (8) headers
+        return Math.max(NetworkConfig.UDP_MIN_MAX_DATAGRAM, Math.min(payload, 65507));
+    }
+
+    /**
+     * Directed broadcast for an IPv4 interface address, from its prefix length.
+     * Falls back to the OS-reported broadcast when the prefix is unusable.
+     * @return broadcast address, or null for IPv6 and point-to-point (/31, /32) links
+     */
+    static InetAddress directedBroadcast(InterfaceAddress addr) {
+        if (!(addr.getAddress() instanceof Inet4Address)) {
+            return null;
+        }
+
+        short prefixLength = addr.getNetworkPrefixLength();
+        if (prefixLength <= 0 || prefixLength > 30) {
+            return addr.getBroadcast();
+        }
+
+        byte[] ip = addr.getAddress().getAddress();
+        int value = ((ip[0] & 0xFF) << 24) | ((ip[1] & 0xFF) << 16) | ((ip[2] & 0xFF) << 8) | (ip[3] & 0xFF);
+        int hostMask = -1 >>> prefixLength;
+        int broadcast = value | hostMask;
+
+        try {
+            return InetAddress.getByAddress(new byte[]{
+                    (byte) (broadcast >>> 24), (byte) (broadcast >>> 16), (byte) (broadcast >>> 8), (byte) broadcast
+            });
+        } catch (UnknownHostException e) {
+            // Cannot happen for a 4-byte address
+            return addr.getBroadcast();
+        }
+    }
+
+    public InetSocketAddress getMulticastTarget() {
+        return multicastTarget;
+    }
+
+    public List<InetSocketAddress> getBroadcastTargets() {
+        return broadcastTargets;
+    }
+
+    public String getBroadcastLabel(int index) {
+        return broadcastLabels.get(index);
+    }
+
+    /**
+     * Largest datagram that is sent without fragmentation (smallest MTU among our interfaces)
+     */
+    public int getMaxDatagramSize() {
+        return maxDatagramSize;
+    }
+
+    /**
+     * Number of datagrams one message costs
+     */
+    public int size() {
+        return 1 + broadcastTargets.size();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(multicastTarget.getAddress().getHostAddress());
+        for (int i = 0; i < broadcastTargets.size(); i++) {
+            sb.append(", ").append(broadcastTargets.get(i).getAddress().getHostAddress())
+                    .append(" (").append(broadcastLabels.get(i)).append(")");
+        }
+        return sb.toString();
+    }
+}
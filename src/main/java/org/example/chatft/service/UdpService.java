@@ -2,56 +2,117 @@ package org.example.chatft.service;
 
 import org.example.chatft.config.NetworkConfig;
 import org.example.chatft.handler.UdpMessageHandler;
+import org.example.chatft.model.Group;
+import org.example.chatft.model.User;
+import org.example.chatft.protocol.MessageType;
+import org.example.chatft.protocol.WireEncoder;
+import org.example.chatft.utils.Logger;
 
 import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
 
 public class UdpService {
+    private static final Logger log = Logger.get("UDP");
+
     private final String nickname;
     private final int tcpPort;
+    private final long localPeerId;
+    private final AtomicInteger sequence = new AtomicInteger();
+    // Unicast video is stamped apart from the datagrams everyone receives, so that those
+    // reach every peer without sequence gaps (LinkHealthRegistry counts gaps as loss)
+    private final long videoPeerId;
+    private final AtomicInteger videoSequence = new AtomicInteger();
     private MulticastSocket socket;
     private DatagramSocket broadcastSocket;
+
+    // Receive engine: one channel joined on every interface, one selector loop
+    private final DatagramChannel receiveChannel;
+    private final Selector selector;
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(NetworkConfig.UDP_RECEIVE_BUFFER_SIZE);
+    private final Map<String, Membership> memberships = new LinkedHashMap<>(); // by interface name
+    private final Set<String> failedJoins = new HashSet<>();
     private final ExecutorService executor;
-    private final UdpMessageHandler messageHandler;
+    private final ScheduledExecutorService scheduler;
+    private final UdpDispatcher dispatcher;
+    private final UdpBatcher batcher;
 
     // Multicast configuration
     private static final String MULTICAST_GROUP = "230.0.0.1";
+    // Longest stamped message receivers reassemble, in fragments of the smallest path MTU
+    private static final int MAX_MESSAGE_SIZE = Math.min(NetworkConfig.FRAGMENT_MAX_MESSAGE_SIZE,
+            NetworkConfig.FRAGMENT_MAX_COUNT * fragmentChunkSize(NetworkConfig.UDP_MIN_MAX_DATAGRAM));
     private InetAddress multicastGroup;
     private List<NetworkInterface> activeInterfaces = new ArrayList<>();
+    private volatile UdpSendPlan sendPlan;
+    private volatile Runnable onInterfacesChanged;
 
-    public UdpService(String nickname, int tcpPort,
+    public UdpService(String nickname, int tcpPort, long localPeerId,
                       ExecutorService executor,
+                      ScheduledExecutorService scheduler,
                       UdpMessageHandler messageHandler) throws IOException {
         this.nickname = nickname;
         this.tcpPort = tcpPort;
+        this.localPeerId = localPeerId;
+        this.videoPeerId = ~localPeerId;
         this.executor = executor;
-        this.messageHandler = messageHandler;
+        this.scheduler = scheduler;
+        this.dispatcher = new UdpDispatcher(messageHandler);
+        this.batcher = new UdpBatcher(scheduler, NetworkConfig.UDP_BATCH_WINDOW_MS, this::sendBatch);
 
-        // Setup Multicast socket
-        this.socket = new MulticastSocket(NetworkConfig.UDP_PORT);
-        this.socket.setReuseAddress(true);
+        // Setup Multicast send socket (receiving is done by receiveChannel)
+        this.socket = new MulticastSocket();
+        this.socket.setTimeToLive(NetworkConfig.MULTICAST_TTL);
         this.multicastGroup = InetAddress.getByName(MULTICAST_GROUP);
 
+        // Setup receive channel bound to the shared UDP port
+        this.receiveChannel = DatagramChannel.open(StandardProtocolFamily.INET)
+                .setOption(StandardSocketOptions.SO_REUSEADDR, true)
+                .bind(new InetSocketAddress(NetworkConfig.UDP_PORT));
+        this.receiveChannel.configureBlocking(false);
+        this.selector = Selector.open();
+        this.receiveChannel.register(selector, SelectionKey.OP_READ);
+
         // Setup separate broadcast socket
         this.broadcastSocket = new DatagramSocket();
         this.broadcastSocket.setBroadcast(true);
 
         // Detect and join multicast on all active network interfaces
-        detectAndJoinInterfaces();
+        refreshInterfaces();
 
-        System.out.println("[UDP-MULTICAST] Started on port: " + NetworkConfig.UDP_PORT);
-        System.out.println("[UDP-MULTICAST] Group: " + MULTICAST_GROUP);
-        System.out.println("[UDP-MULTICAST] Active interfaces: " + activeInterfaces.size());
+        log.info("[UDP-MULTICAST] Started on port: " + NetworkConfig.UDP_PORT);
+        log.info("[UDP-MULTICAST] Group: " + MULTICAST_GROUP);
+        log.info("[UDP-MULTICAST] Active interfaces: " + activeInterfaces.size());
     }
 
     /**
-     * Detect all active network interfaces and join multicast group
+     * Diff the current network interfaces against our memberships: join new ones,
+     * leave the ones that went away, rejoin the ones whose addresses changed.
+     * The send plan is rebuilt only when something changed.
+     * @return true if the set of joined interfaces changed
      */
-    private void detectAndJoinInterfaces() throws IOException {
+    private synchronized boolean refreshInterfaces() throws IOException {
+        Map<String, NetworkInterface> current = new LinkedHashMap<>();
         Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
         
         while (interfaces.hasMoreElements()) {
@@ -71,25 +132,105 @@ public class UdpService {
             if (!iface.getInetAddresses().hasMoreElements()) {
                 continue;
             }
-            
+
+            current.put(iface.getName(), iface);
+        }
+
+        boolean changed = false;
+
+        // Leave interfaces that disappeared (Wi-Fi dropped, VPN down) or got new addresses (DHCP)
+        Iterator<Membership> it = memberships.values().iterator();
+        while (it.hasNext()) {
+            Membership membership = it.next();
+            NetworkInterface now = current.get(membership.iface.getName());
+            if (now != null && fingerprint(now).equals(membership.fingerprint)) {
+                continue;
+            }
+            membership.key.drop();
+            it.remove();
+            changed = true;
+            log.info("[UDP-MULTICAST] Left group on " + membership.iface.getDisplayName()
+                    + (now == null ? " (interface gone)" : " (addresses changed)"));
+        }
+
+        // Join interfaces we are not a member on yet
+        for (NetworkInterface iface : current.values()) {
+            if (memberships.containsKey(iface.getName())) {
+                continue;
+            }
             try {
-                // Join multicast group on this interface
-                socket.joinGroup(new InetSocketAddress(multicastGroup, NetworkConfig.UDP_PORT), iface);
-                activeInterfaces.add(iface);
+                // Join multicast group on this interface (same channel for all interfaces)
+                MembershipKey key = receiveChannel.join(multicastGroup, iface);
+                memberships.put(iface.getName(), new Membership(iface, key, fingerprint(iface)));
+                failedJoins.remove(iface.getName());
+                changed = true;
                 
-                System.out.println("[UDP-MULTICAST] ✅ Joined on interface: " + iface.getDisplayName() 
+                log.info("[UDP-MULTICAST] ✅ Joined on interface: " + iface.getDisplayName() 
                     + " (" + getInterfaceIPs(iface) + ")");
                 
             } catch (IOException e) {
-                System.out.println("[UDP-MULTICAST] ⚠️ Failed to join on " + iface.getDisplayName() + ": " + e.getMessage());
+                // Retried on every watcher pass, only reported once
+                if (failedJoins.add(iface.getName())) {
+                    log.warn("[UDP-MULTICAST] ⚠️ Failed to join on " + iface.getDisplayName() + ": " + e.getMessage());
+                }
             }
         }
-        
-        if (activeInterfaces.isEmpty()) {
-            System.err.println("[UDP-MULTICAST] ❌ WARNING: No active network interfaces found!");
+        failedJoins.retainAll(current.keySet());
+
+        if (changed || sendPlan == null) {
+            List<NetworkInterface> active = new ArrayList<>();
+            for (Membership membership : memberships.values()) {
+                active.add(membership.iface);
+            }
+            activeInterfaces = active;
+            rebuildSendPlan();
+
+            if (activeInterfaces.isEmpty()) {
+                log.warn("[UDP-MULTICAST] ❌ WARNING: No active network interfaces found!");
+            }
         }
+        return changed;
     }
-    
+
+    /**
+     * Periodic watcher pass: pick up interfaces that came up, went down or changed address
+     */
+    private void watchInterfaces() {
+        try {
+            if (refreshInterfaces() && onInterfacesChanged != null) {
+                onInterfacesChanged.run();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("[UDP-MULTICAST] Interface check failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Called after the joined interfaces changed (e.g. to re-announce presence right away)
+     */
+    public void setOnInterfacesChanged(Runnable onInterfacesChanged) {
+        this.onInterfacesChanged = onInterfacesChanged;
+    }
+
+    /**
+     * Addresses, prefixes and MTU of an interface; a change means rejoin and new broadcast targets
+     */
+    private static String fingerprint(NetworkInterface iface) {
+        List<String> addresses = new ArrayList<>();
+        for (InterfaceAddress addr : iface.getInterfaceAddresses()) {
+            addresses.add(addr.getAddress().getHostAddress() + "/" + addr.getNetworkPrefixLength());
+        }
+        Collections.sort(addresses);
+
+        int mtu;
+        try {
+            mtu = iface.getMTU();
+        } catch (SocketException e) {
+            mtu = -1;
+        }
+        return iface.getIndex() + "|" + mtu + "|" + addresses;
+    }
+
     /**
      * Get IP addresses of an interface
      */
@@ -105,219 +246,373 @@ public class UdpService {
     }
 
     /**
-     * Start listening for UDP messages on ALL interfaces
+     * Start the selector loop that receives for ALL interfaces, the dispatch workers
+     * and the interface watcher
      */
     public void startListener() {
-        // Create separate listener for each active interface
-        for (NetworkInterface iface : activeInterfaces) {
-            executor.submit(() -> listenOnInterface(iface));
-        }
+        dispatcher.start(executor);
+        // A selector loop for the life of the app: its own platform thread, never a task
+        Thread receiver = new Thread(this::receiveLoop, "udp-receive");
+        receiver.setDaemon(true);
+        receiver.start();
+        scheduler.scheduleWithFixedDelay(this::watchInterfaces,
+                NetworkConfig.INTERFACE_WATCH_INTERVAL_MS,
+                NetworkConfig.INTERFACE_WATCH_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
     }
-    
+
     /**
-     * Listen for multicast messages on a specific interface
+     * Single event loop: wait for the channel to become readable, then drain it
      */
-    private void listenOnInterface(NetworkInterface iface) {
-        MulticastSocket ifaceSocket = null;
-        try {
-            // Create dedicated socket for this interface
-            ifaceSocket = new MulticastSocket(NetworkConfig.UDP_PORT);
-            ifaceSocket.setReuseAddress(true);
-            ifaceSocket.setNetworkInterface(iface);
-            
-            // Join multicast group on this interface
-            ifaceSocket.joinGroup(new InetSocketAddress(multicastGroup, NetworkConfig.UDP_PORT), iface);
-            
-            System.out.println("[UDP-LISTEN] Started listener on " + iface.getDisplayName());
-            
-            byte[] buf = new byte[1024];
-            DatagramPacket packet = new DatagramPacket(buf, buf.length);
-
-            while (!ifaceSocket.isClosed()) {
-                try {
-                    ifaceSocket.receive(packet);
-                    String msg = new String(packet.getData(), 0, packet.getLength());
-                    String fromIP = packet.getAddress().getHostAddress();
-                    
-                    // Log all messages, highlight OFFLINE
-                    if (msg.startsWith("OFFLINE")) {
-                        System.out.println("[UDP-RECV-OFFLINE][" + iface.getDisplayName() + "] from " + fromIP + ": " + msg);
-                    } else {
-                        System.out.println("[UDP-RECV][" + iface.getDisplayName() + "] from " + fromIP + ": " + msg);
-                    }
-
-                    messageHandler.handleMessage(msg, packet.getAddress());
-
-                } catch (IOException e) {
-                    if (!ifaceSocket.isClosed()) {
-                        System.err.println("[UDP-ERR][" + iface.getDisplayName() + "] " + e.getMessage());
-                    }
-                    break;
+    private void receiveLoop() {
+        log.info("[UDP-LISTEN] Selector loop started, joined on " + memberships.size() + " interfaces");
+
+        while (selector.isOpen()) {
+            try {
+                if (selector.select() == 0) {
+                    continue;
                 }
-            }
+                selector.selectedKeys().clear();
+                drainChannel();
 
-            System.out.println("[UDP-LISTEN] Stopped listener on " + iface.getDisplayName());
-            
-        } catch (IOException e) {
-            System.err.println("[UDP-LISTEN-ERR] Failed to start listener on " + iface.getDisplayName() + ": " + e.getMessage());
-        } finally {
-            if (ifaceSocket != null && !ifaceSocket.isClosed()) {
-                try {
-                    ifaceSocket.leaveGroup(new InetSocketAddress(multicastGroup, NetworkConfig.UDP_PORT), iface);
-                    ifaceSocket.close();
-                } catch (IOException ignored) {}
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (IOException e) {
+                if (receiveChannel.isOpen()) {
+                    log.error("[UDP-ERR] " + e.getMessage());
+                    continue;
+                }
+                break;
             }
         }
+
+        log.info("[UDP-LISTEN] Selector loop stopped");
     }
 
     /**
-     * Send message via:
+     * Read every queued datagram into the reused direct buffer and hand a copy to the dispatcher.
+     * Nothing else runs on this thread, so the kernel buffer is emptied as fast as possible.
+     */
+    private void drainChannel() throws IOException {
+        SocketAddress from;
+        while ((from = receiveChannel.receive(receiveBuffer.clear())) != null) {
+            receiveBuffer.flip();
+            dispatcher.dispatch(receiveBuffer, ((InetSocketAddress) from).getAddress());
+        }
+    }
+
+    /**
+     * Rebuild the cached send plan from the current interface list
+     */
+    public void rebuildSendPlan() {
+        this.sendPlan = UdpSendPlan.build(multicastGroup, NetworkConfig.UDP_PORT, activeInterfaces);
+        log.info("[UDP-PLAN] " + sendPlan.size() + " destinations: " + sendPlan);
+    }
+
+    /**
+     * Send message once to every destination of the cached send plan:
      * - Multicast for LAN
-     * - Broadcast to each interface (for compatibility)
-     * - Direct unicast to Zerotier subnet
+     * - Directed broadcast per IPv4 subnet (LAN, Zerotier, ...) for compatibility
+     * @throws IllegalArgumentException if receivers would drop it as too large to reassemble
      */
-    public void sendMessage(String msg) {
-        byte[] buf = msg.getBytes();
-        
+    public void sendMessage(WireEncoder msg) {
+        if (msg.size() > MAX_MESSAGE_SIZE) {
+            throw new IllegalArgumentException("Message over " + MAX_MESSAGE_SIZE + " bytes");
+        }
+        byte[] buf = msg.stamp(localPeerId, sequence.incrementAndGet()).toByteArray();
+        UdpSendPlan plan = sendPlan;
+
+        // Small messages wait a few ms for company and leave as one BATCH datagram
+        if (buf.length <= plan.getMaxDatagramSize() / 2) {
+            batcher.add(buf, plan.getMaxDatagramSize());
+            log.debug(() -> "[UDP-SEND] => " + msg.type() + " (" + buf.length + " bytes) queued");
+            return;
+        }
+
+        batcher.flush();
+        List<byte[]> datagrams = fragment(buf, plan.getMaxDatagramSize(), localPeerId, sequence);
+        for (byte[] datagram : datagrams) {
+            sendToPlan(datagram, plan);
+        }
+
+        log.debug(() -> "[UDP-SEND] => " + msg.type() + " (" + buf.length + " bytes"
+                + (datagrams.size() > 1 ? " in " + datagrams.size() + " fragments" : "")
+                + ") to " + plan.size() + " destinations");
+    }
+
+    /**
+     * Send messages collected by the batcher: alone as-is, several packed into one BATCH
+     */
+    private void sendBatch(List<byte[]> messages) {
+        UdpSendPlan plan = sendPlan;
+        if (messages.size() == 1) {
+            sendToPlan(messages.get(0), plan);
+            return;
+        }
+
+        WireEncoder batch = new WireEncoder(MessageType.BATCH, plan.getMaxDatagramSize());
+        for (byte[] message : messages) {
+            batch.writeBytes(message);
+        }
+        // The envelope reuses its first message's number: receivers only look at the messages
+        byte[] buf = batch.stamp(localPeerId, sequenceOf(messages.get(0))).toByteArray();
+        sendToPlan(buf, plan);
+        log.debug(() -> "[UDP-SEND] => BATCH of " + messages.size() + " (" + buf.length + " bytes) to " + plan.size() + " destinations");
+    }
+
+    private void sendToPlan(byte[] buf, UdpSendPlan plan) {
         // 1. Send multicast (works on LAN)
+        DatagramPacket packet = new DatagramPacket(buf, buf.length, plan.getMulticastTarget());
         try {
-            socket.setTimeToLive(32);
-            DatagramPacket packet = new DatagramPacket(
-                    buf, buf.length, multicastGroup, NetworkConfig.UDP_PORT
-            );
             socket.send(packet);
-            System.out.println("[UDP-MULTICAST-SEND] => " + msg);
         } catch (IOException e) {
-            System.err.println("[UDP-MULTICAST-ERR] " + e.getMessage());
+            log.error("[UDP-MULTICAST-ERR] " + e.getMessage());
         }
-        
-        // 2. Send broadcast on each interface (including Zerotier)
-        for (NetworkInterface iface : activeInterfaces) {
+
+        // 2. Send directed broadcast once per subnet
+        List<InetSocketAddress> broadcasts = plan.getBroadcastTargets();
+        for (int i = 0; i < broadcasts.size(); i++) {
             try {
-                for (InterfaceAddress addr : iface.getInterfaceAddresses()) {
-                    InetAddress broadcast = addr.getBroadcast();
-                    if (broadcast != null) {
-                        DatagramPacket packet = new DatagramPacket(
-                                buf, buf.length, broadcast, NetworkConfig.UDP_PORT
-                        );
-                        broadcastSocket.send(packet);
-                        System.out.println("[UDP-BROADCAST-SEND][" + iface.getDisplayName() + "] to " + broadcast.getHostAddress());
-                    }
-                }
+                packet.setSocketAddress(broadcasts.get(i));
+                broadcastSocket.send(packet);
             } catch (IOException e) {
-                System.err.println("[UDP-BROADCAST-ERR][" + iface.getDisplayName() + "] " + e.getMessage());
+                log.error("[UDP-BROADCAST-ERR][" + plan.getBroadcastLabel(i) + "] " + e.getMessage());
             }
         }
-        
-        // 3. For Zerotier compatibility: scan and send to all IPs in Zerotier subnet
-        sendToZerotierSubnet(buf);
     }
 
     /**
-     * Send to Zerotier subnet using directed broadcast
-     * Zerotier typically uses /24 subnets like 192.168.192.0/24
+     * Split a stamped datagram into FRAGMENT messages that each fit in maxDatagramSize.
+     * Each fragment is a normal message with its own sequence number (so the deduplicator
+     * handles fragment copies); the receiver reassembles and handles the original datagram.
+     * @return the datagram itself if it already fits
      */
-    private void sendToZerotierSubnet(byte[] buf) {
-        for (NetworkInterface iface : activeInterfaces) {
-            String ifaceName = iface.getDisplayName().toLowerCase();
-            
-            // Detect Zerotier interface
-            if (ifaceName.contains("zerotier") || ifaceName.contains("zt")) {
-                try {
-                    for (InterfaceAddress addr : iface.getInterfaceAddresses()) {
-                        InetAddress ifaceAddr = addr.getAddress();
-                        
-                        // Only process IPv4
-                        if (ifaceAddr instanceof java.net.Inet4Address) {
-                            String myIP = ifaceAddr.getHostAddress();
-                            
-                            // Calculate broadcast address based on subnet mask
-                            short prefixLength = addr.getNetworkPrefixLength();
-                            String subnet = myIP.substring(0, myIP.lastIndexOf('.'));
-                            String broadcastIP = subnet + ".255"; // Assume /24 for simplicity
-                            
-                            try {
-                                InetAddress broadcast = InetAddress.getByName(broadcastIP);
-                                DatagramPacket packet = new DatagramPacket(
-                                        buf, buf.length, broadcast, NetworkConfig.UDP_PORT
-                                );
-                                broadcastSocket.send(packet);
-                                System.out.println("[UDP-ZEROTIER] Sent to " + broadcastIP + " on " + iface.getDisplayName());
-                            } catch (IOException e) {
-                                System.err.println("[UDP-ZEROTIER-ERR] Failed to send to " + broadcastIP + ": " + e.getMessage());
-                            }
-                        }
-                    }
-                } catch (Exception e) {
-                    System.err.println("[UDP-ZEROTIER-ERR] " + e.getMessage());
-                }
-            }
+    private List<byte[]> fragment(byte[] buf, int maxDatagramSize, long peerId, AtomicInteger counter) {
+        if (buf.length <= maxDatagramSize) {
+            return List.of(buf);
+        }
+
+        int chunkSize = fragmentChunkSize(maxDatagramSize);
+        int count = (buf.length + chunkSize - 1) / chunkSize;
+        int messageSeq = sequenceOf(buf);
+
+        List<byte[]> fragments = new ArrayList<>(count);
+        for (int index = 0; index < count; index++) {
+            int offset = index * chunkSize;
+            int length = Math.min(chunkSize, buf.length - offset);
+            fragments.add(new WireEncoder(MessageType.FRAGMENT, maxDatagramSize)
+                    .writeVarInt(buf[1]) // lets the receive stage queue it without reassembling
+                    .writeInt(messageSeq)
+                    .writeVarInt(index)
+                    .writeVarInt(count)
+                    .writeBytes(buf, offset, length)
+                    .stamp(peerId, counter.incrementAndGet())
+                    .toByteArray());
         }
+        return fragments;
+    }
+
+    /**
+     * Bytes of the original datagram carried by each fragment
+     */
+    private static int fragmentChunkSize(int maxDatagramSize) {
+        // header + innerType + messageSeq + index/count/length varints
+        return maxDatagramSize - WireEncoder.HEADER_SIZE - 1 - 4 - 3 * 3;
+    }
+
+    /**
+     * Sequence number of a stamped datagram
+     */
+    private static int sequenceOf(byte[] buf) {
+        return (buf[10] & 0xFF) << 24 | (buf[11] & 0xFF) << 16 | (buf[12] & 0xFF) << 8 | (buf[13] & 0xFF);
     }
 
     /**
-     * Broadcast ONLINE status
+     * Broadcast ONLINE status (heartbeat)
      */
-    public void broadcastOnline() {
-        sendMessage("ONLINE;" + nickname + ";" + tcpPort);
+    public void broadcastOnline(int heartbeatIntervalMs) {
+        sendMessage(new WireEncoder(MessageType.ONLINE)
+                .writeString(nickname)
+                .writeVarInt(tcpPort)
+                .writeVarInt(heartbeatIntervalMs));
+    }
+
+    /**
+     * Broadcast aggregated roster (us + every peer we know), split below UDP_SAFE_PAYLOAD_SIZE
+     */
+    public void broadcastRoster(int heartbeatIntervalMs, int rosterHash, Collection<User> users) {
+        WireEncoder msg = null;
+        for (User user : users) {
+            InetAddress ip;
+            try {
+                ip = InetAddress.getByName(user.getIp());
+            } catch (UnknownHostException e) {
+                continue;
+            }
+            if (msg != null && msg.size() + user.getNickname().length() * 3 + 24 > NetworkConfig.UDP_SAFE_PAYLOAD_SIZE) {
+                sendMessage(msg);
+                msg = null;
+            }
+            if (msg == null) {
+                msg = new WireEncoder(MessageType.ROSTER, NetworkConfig.UDP_SAFE_PAYLOAD_SIZE)
+                        .writeString(nickname)
+                        .writeVarInt(tcpPort)
+                        .writeVarInt(heartbeatIntervalMs)
+                        .writeInt(rosterHash);
+            }
+            msg.writeString(user.getNickname())
+                    .writeBytes(ip.getAddress())
+                    .writeVarInt(user.getTcpPort());
+        }
+
+        if (msg != null) {
+            sendMessage(msg);
+        }
     }
 
     /**
      * Broadcast OFFLINE status
      */
     public void broadcastOffline() {
-        String message = "OFFLINE;" + nickname;
-        System.out.println("[UDP] ========================================");
-        System.out.println("[UDP] Broadcasting OFFLINE: " + message);
-        System.out.println("[UDP] ========================================");
-        sendMessage(message);
-        System.out.println("[UDP] OFFLINE broadcast completed");
+        log.info("[UDP] ========================================");
+        log.info("[UDP] Broadcasting OFFLINE: " + nickname);
+        log.info("[UDP] ========================================");
+        sendMessage(new WireEncoder(MessageType.OFFLINE).writeString(nickname));
+        log.info("[UDP] OFFLINE broadcast completed");
     }
 
     /**
      * Broadcast public group
      */
     public void broadcastPublicGroup(String groupName) {
-        sendMessage("GROUP_PUBLIC;" + groupName);
+        sendMessage(new WireEncoder(MessageType.GROUP_PUBLIC).writeString(groupName));
     }
 
     /**
      * Broadcast private group
      */
     public void broadcastPrivateGroup(String groupName, String password) {
-        sendMessage("GROUP_PRIVATE;" + groupName + " ;" + password);
+        sendMessage(new WireEncoder(MessageType.GROUP_PRIVATE)
+                .writeString(groupName)
+                .writeString(password));
+    }
+
+    /**
+     * Broadcast compact digest of our group catalog
+     */
+    public void broadcastGroupDigest(int[] buckets) {
+        WireEncoder msg = new WireEncoder(MessageType.GROUP_DIGEST).writeVarInt(buckets.length);
+        for (int bucket : buckets) {
+            msg.writeInt(bucket);
+        }
+        sendMessage(msg);
+    }
+
+    /**
+     * Ask one peer for its catalog entries in the given buckets
+     */
+    public void sendGroupSyncRequest(long targetPeerId, int bucketMask, int[] ownBuckets) {
+        WireEncoder msg = new WireEncoder(MessageType.GROUP_SYNC_REQUEST)
+                .writeLong(targetPeerId)
+                .writeVarInt(bucketMask)
+                .writeVarInt(ownBuckets.length);
+        for (int bucket : ownBuckets) {
+            msg.writeInt(bucket);
+        }
+        sendMessage(msg);
+    }
+
+    /**
+     * Broadcast full catalog entries, split so each datagram stays below UDP_SAFE_PAYLOAD_SIZE
+     * @param ageSeconds how long ago a member of the group last announced it (0: we are one)
+     */
+    public void broadcastGroupEntries(Collection<Group> groups, ToIntFunction<Group> ageSeconds) {
+        WireEncoder msg = null;
+        for (Group group : groups) {
+            String password = group.getPassword() == null ? "" : group.getPassword();
+            int worstCaseSize = (group.getName().length() + password.length()) * 3 + 16;
+            if (msg != null && msg.size() + worstCaseSize > NetworkConfig.UDP_SAFE_PAYLOAD_SIZE) {
+                sendMessage(msg);
+                msg = null;
+            }
+            if (msg == null) {
+                msg = new WireEncoder(MessageType.GROUP_ENTRIES, NetworkConfig.UDP_SAFE_PAYLOAD_SIZE);
+            }
+            msg.writeString(group.getName())
+                    .writeVarInt(group.isPublic() ? 1 : 0)
+                    .writeString(password)
+                    .writeVarInt(ageSeconds.applyAsInt(group));
+        }
+
+        if (msg != null) {
+            sendMessage(msg);
+        }
     }
 
     /**
      * Send group message
+     * @param streamSeq Sequence in our reliable group stream
+     * @return the sent message, kept by ReliableGroupChannel for retransmission
+     */
+    public WireEncoder sendGroupMessage(int streamSeq, String groupName, String senderNick, String message) {
+        WireEncoder msg = new WireEncoder(MessageType.GMSG)
+                .writeVarInt(streamSeq)
+                .writeString(groupName)
+                .writeString(senderNick)
+                .writeString(message);
+        sendMessage(msg);
+        return msg;
+    }
+
+    /**
+     * Ask a group message sender to retransmit
+     * @param ranges pairs of (firstSeq, count)
      */
-    public void sendGroupMessage(String groupName, String senderNick, String message) {
-        String payload = "GMSG;" + groupName + ";" + senderNick + ";" + message;
-        sendMessage(payload);
+    public void sendGroupNack(long targetPeerId, int[] ranges) {
+        WireEncoder msg = new WireEncoder(MessageType.GMSG_NACK)
+                .writeLong(targetPeerId);
+        for (int value : ranges) {
+            msg.writeVarInt(value);
+        }
+        sendMessage(msg);
+    }
+
+    /**
+     * Advertise highest group message sequence we sent
+     */
+    public void sendGroupTail(int highestSeq) {
+        sendMessage(new WireEncoder(MessageType.GMSG_TAIL)
+                .writeVarInt(highestSeq));
     }
 
     /**
      * Announce group file
      */
     public void announceGroupFile(String groupName, String senderNick, String fileName, long fileSize, int tcpPort) {
-        String payload = "GFILE;" + groupName + ";" + senderNick + ";" + fileName + ";" + fileSize + ";" + tcpPort;
-        sendMessage(payload);
+        sendMessage(new WireEncoder(MessageType.GFILE)
+                .writeString(groupName)
+                .writeString(senderNick)
+                .writeString(fileName)
+                .writeVarLong(fileSize)
+                .writeVarInt(tcpPort));
     }
 
     /**
      * Broadcast join group notification
      */
     public void broadcastJoinGroup(String groupName, String nickname) {
-        String msg = "JOIN_GROUP;" + groupName + ";" + nickname;
-        sendMessage(msg);
+        sendMessage(new WireEncoder(MessageType.JOIN_GROUP)
+                .writeString(groupName)
+                .writeString(nickname));
     }
 
     /**
      * Broadcast leave group notification
      */
     public void broadcastLeaveGroup(String groupName, String nickname) {
-        String msg = "LEAVE_GROUP;" + groupName + ";" + nickname;
-        sendMessage(msg);
+        sendMessage(new WireEncoder(MessageType.LEAVE_GROUP)
+                .writeString(groupName)
+                .writeString(nickname));
     }
     
     /**
@@ -325,27 +620,33 @@ public class UdpService {
      */
     public void sendVideoFrame(String toNickname, String toIp, byte[] frameData) {
         try {
-            // Encode to base64 to safely send over UDP
-            String base64Frame = java.util.Base64.getEncoder().encodeToString(frameData);
-            String payload = "VIDEO_FRAME;" + nickname + ";" + toNickname + ";" + base64Frame;
-            
-            byte[] buf = payload.getBytes();
+            // Raw JPEG bytes, no base64 needed with the binary codec
+            byte[] buf = new WireEncoder(MessageType.VIDEO_FRAME, frameData.length + 64)
+                    .writeString(nickname)
+                    .writeString(toNickname)
+                    .writeBytes(frameData)
+                    .stamp(videoPeerId, videoSequence.incrementAndGet())
+                    .toByteArray();
             
             // Check size
-            if (buf.length >= 65000) {
-                System.err.println("[UDP-VIDEO] Frame too large: " + buf.length + " bytes, skipping");
+            if (buf.length > MAX_MESSAGE_SIZE) {
+                log.warn("[UDP-VIDEO] Frame too large: " + buf.length + " bytes, skipping");
                 return;
             }
             
-            // Send via UNICAST directly to recipient IP (not multicast)
+            // Send via UNICAST directly to recipient IP (not multicast), split below the path MTU
             InetAddress recipientAddr = InetAddress.getByName(toIp);
-            DatagramPacket packet = new DatagramPacket(buf, buf.length, recipientAddr, NetworkConfig.UDP_PORT);
-            broadcastSocket.send(packet);
+            List<byte[]> datagrams = fragment(buf, sendPlan.getMaxDatagramSize(), videoPeerId, videoSequence);
+            DatagramPacket packet = new DatagramPacket(buf, 0, recipientAddr, NetworkConfig.UDP_PORT);
+            for (byte[] datagram : datagrams) {
+                packet.setData(datagram);
+                broadcastSocket.send(packet);
+            }
             
-            System.out.println("[UDP-VIDEO-SEND] Sent frame to " + toNickname + " @ " + toIp + " - " + buf.length + " bytes");
+            log.debug(() -> "[UDP-VIDEO-SEND] Sent frame to " + toNickname + " @ " + toIp + " - " + buf.length + " bytes in " + datagrams.size() + " datagrams");
             
         } catch (IOException e) {
-            System.err.println("[UDP-VIDEO-ERR] Failed to send frame: " + e.getMessage());
+            log.error("[UDP-VIDEO-ERR] Failed to send frame: " + e.getMessage());
         }
     }
 
@@ -354,17 +655,23 @@ public class UdpService {
      */
     public void shutdown() {
         try {
-            if (socket != null && !socket.isClosed()) {
-                // Leave multicast group on all interfaces before closing
-                for (NetworkInterface iface : activeInterfaces) {
-                    try {
-                        socket.leaveGroup(new InetSocketAddress(multicastGroup, NetworkConfig.UDP_PORT), iface);
-                        System.out.println("[UDP-MULTICAST] Left group on " + iface.getDisplayName());
-                    } catch (IOException e) {
-                        // Ignore errors during shutdown
-                    }
+            // Last queued messages (e.g. OFFLINE) go out before the sockets close
+            batcher.flush();
+
+            // Leave multicast group on all interfaces before closing
+            synchronized (this) {
+                for (Membership membership : memberships.values()) {
+                    membership.key.drop();
+                    log.info("[UDP-MULTICAST] Left group on " + membership.iface.getDisplayName());
                 }
-                
+                memberships.clear();
+            }
+
+            selector.close();
+            dispatcher.shutdown();
+            receiveChannel.close();
+
+            if (socket != null && !socket.isClosed()) {
                 socket.close();
             }
             
@@ -372,9 +679,21 @@ public class UdpService {
                 broadcastSocket.close();
             }
             
-            System.out.println("[UDP] Shutdown complete");
+            log.info("[UDP] Shutdown complete");
         } catch (Exception e) {
-            System.err.println("[UDP-SHUTDOWN-ERR] " + e.getMessage());
+            log.error("[UDP-SHUTDOWN-ERR] " + e.getMessage());
+        }
+    }
+
+    private static class Membership {
+        final NetworkInterface iface;
+        final MembershipKey key;
+        final String fingerprint;
+
+        Membership(NetworkInterface iface, MembershipKey key, String fingerprint) {
+            this.iface = iface;
+            this.key = key;
+            this.fingerprint = fingerprint;
         }
     }
-}
\ No newline at end of file
+}
@@ -5,43 +5,62 @@ import javafx.application.Platform;
 import javafx.scene.image.ImageView;
 import javafx.scene.image.PixelWriter;
 import javafx.scene.image.WritableImage;
+import org.example.chatft.config.NetworkConfig;
+import org.example.chatft.model.LinkHealth;
 import org.example.chatft.model.User;
+import org.example.chatft.utils.ExecutionModel;
+import org.example.chatft.utils.Logger;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 public class VideoCallService {
-    
+    private static final Logger log = Logger.get("VIDEO");
+
+    // JPEG encode and decode for every call, off the capture thread and the UDP video lane.
+    // One thread per direction, so frames stay in order and a slow decode never holds back
+    // our own outgoing frames (or the other way round). Bounded: when a lane falls behind,
+    // its oldest waiting frame is dropped.
+    private static final ExecutorService encoder = ExecutionModel.newCpuPool("video-encode",
+            1, NetworkConfig.VIDEO_ENCODE_QUEUE, new ThreadPoolExecutor.DiscardOldestPolicy());
+    private static final ExecutorService decoder = ExecutionModel.newCpuPool("video-decode",
+            1, NetworkConfig.VIDEO_DECODE_QUEUE, new ThreadPoolExecutor.DiscardOldestPolicy());
+
     private Webcam webcam;
     private volatile boolean isStreaming = false;
     private Thread captureThread;
+
+    // Frame rate and JPEG quality follow the link to the remote user (see adaptToLink)
+    private volatile Supplier<LinkHealth> linkHealth = () -> LinkHealth.UNKNOWN;
+    private volatile float quality = NetworkConfig.VIDEO_QUALITY;
+    private long frameIntervalMs = NetworkConfig.VIDEO_FRAME_INTERVAL_MS; // capture thread only
     
     private ImageView localVideoView;
     private ImageView remoteVideoView;
     
     private final User remoteUser;
     private final Consumer<String> onSdpOfferReady;
-    private final Consumer<String> onSdpAnswerReady;
     private final Consumer<String> onIceCandidateReady;
     private final Runnable onCallEnded;
     private final Consumer<byte[]> onVideoFrameReady;
     
     public VideoCallService(User remoteUser,
                            Consumer<String> onSdpOfferReady,
-                           Consumer<String> onSdpAnswerReady, 
                            Consumer<String> onIceCandidateReady,
                            Runnable onCallEnded,
                            Consumer<byte[]> onVideoFrameReady) {
         this.remoteUser = remoteUser;
         this.onSdpOfferReady = onSdpOfferReady;
-        this.onSdpAnswerReady = onSdpAnswerReady;
         this.onIceCandidateReady = onIceCandidateReady;
         this.onCallEnded = onCallEnded;
         this.onVideoFrameReady = onVideoFrameReady;
         
-        System.out.println("[VIDEO-UDP] VideoCallService initialized for UDP streaming");
+        log.info("[VIDEO-UDP] VideoCallService initialized for UDP streaming");
     }
     
     public void setLocalVideoView(ImageView view) {
@@ -51,12 +70,19 @@ public class VideoCallService {
     public void setRemoteVideoView(ImageView view) {
         this.remoteVideoView = view;
     }
+
+    /**
+     * Source of the current RTT/loss estimate to the remote user
+     */
+    public void setLinkHealth(Supplier<LinkHealth> linkHealth) {
+        this.linkHealth = linkHealth;
+    }
     
     public void startLocalCamera() {
         try {
             webcam = Webcam.getDefault();
             if (webcam == null) {
-                System.err.println("[VIDEO-UDP-ERR] No webcam found");
+                log.error("[VIDEO-UDP-ERR] No webcam found");
                 return;
             }
             
@@ -76,73 +102,83 @@ public class VideoCallService {
                                 displayLocalVideo(image);
                             }
                             
-                            // Compress heavily for UDP  
-                            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                            
-                            // Low quality JPEG for small size
-                            javax.imageio.ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
-                            javax.imageio.ImageWriteParam param = writer.getDefaultWriteParam();
-                            param.setCompressionMode(javax.imageio.ImageWriteParam.MODE_EXPLICIT);
-                            param.setCompressionQuality(0.3f);
-                            
-                            writer.setOutput(ImageIO.createImageOutputStream(baos));
-                            writer.write(null, new javax.imageio.IIOImage(image, null, null), param);
-                            writer.dispose();
-                            
-                            byte[] imageData = baos.toByteArray();
-                            
-                            // Debug: Log frame size
-                            System.out.println("[VIDEO-UDP] Frame captured: " + imageData.length + " bytes");
-                            
-                            if (onVideoFrameReady != null && imageData.length < 40000) {
-                                onVideoFrameReady.accept(imageData);
-                                System.out.println("[VIDEO-UDP] Frame sent via callback");
-                            } else if (imageData.length >= 40000) {
-                                System.err.println("[VIDEO-UDP-SKIP] Frame too large: " + imageData.length + " bytes");
-                            } else {
-                                System.err.println("[VIDEO-UDP-ERR] Callback is NULL!");
-                            }
+                            encoder.execute(() -> encodeAndSend(image));
                         }
                         
-                        Thread.sleep(200); // ~5 FPS for UDP bandwidth
+                        adaptToLink();
+                        Thread.sleep(frameIntervalMs);
                     } catch (Exception e) {
                         if (isStreaming) {
-                            System.err.println("[VIDEO-UDP-ERR] Camera capture: " + e.getMessage());
+                            log.error("[VIDEO-UDP-ERR] Camera capture: " + e.getMessage());
                         }
                     }
                 }
             });
             captureThread.start();
             
-            System.out.println("[VIDEO-UDP] Local camera started (UDP streaming)");
+            log.info("[VIDEO-UDP] Local camera started (UDP streaming)");
             
         } catch (Exception e) {
-            System.err.println("[VIDEO-UDP-ERR] Failed to start camera: " + e.getMessage());
+            log.error("[VIDEO-UDP-ERR] Failed to start camera: " + e.getMessage());
             e.printStackTrace();
         }
     }
     
+    /**
+     * Pick frame rate and quality for the link: more of both when loss and RTT are both
+     * known to be low, less when either is high, the defaults otherwise. Our loss estimate
+     * is for what the remote user sends us (their video), taken as the state of the path.
+     */
+    private void adaptToLink() {
+        LinkHealth link = linkHealth.get();
+        long interval = NetworkConfig.VIDEO_FRAME_INTERVAL_MS;
+        float q = NetworkConfig.VIDEO_QUALITY;
+        if ((link.hasLoss() && link.getLossRate() > NetworkConfig.VIDEO_LOSS_POOR)
+                || (link.hasRtt() && link.getRttMs() > NetworkConfig.VIDEO_RTT_POOR_MS)) {
+            interval = NetworkConfig.VIDEO_FRAME_INTERVAL_POOR_MS;
+            q = NetworkConfig.VIDEO_QUALITY_POOR;
+        } else if (link.hasLoss() && link.getLossRate() < NetworkConfig.VIDEO_LOSS_GOOD
+                && link.hasRtt() && link.getRttMs() < NetworkConfig.VIDEO_RTT_GOOD_MS) {
+            interval = NetworkConfig.VIDEO_FRAME_INTERVAL_GOOD_MS;
+            q = NetworkConfig.VIDEO_QUALITY_GOOD;
+        }
+        if (interval != frameIntervalMs) {
+            log.info("[VIDEO-UDP] " + (1000 / interval) + " FPS, quality " + q + " for " + remoteUser.getNickname() + " (" + link + ")");
+            frameIntervalMs = interval;
+            quality = q;
+        }
+    }
+
     public void createOffer() {
         String offer = "UDP_VIDEO_READY";
         onSdpOfferReady.accept(offer);
-        System.out.println("[VIDEO-UDP] Offer created for UDP streaming");
+        log.info("[VIDEO-UDP] Offer created for UDP streaming");
     }
     
-    public void handleOffer(String sdp) {
-        String answer = "UDP_VIDEO_READY";
-        onSdpAnswerReady.accept(answer);
-        System.out.println("[VIDEO-UDP] Answer sent for UDP streaming");
+    /**
+     * @return the SDP answer, sent back as the reply to the offer
+     */
+    public String handleOffer(String sdp) {
+        log.info("[VIDEO-UDP] Answer created for UDP streaming");
+        return "UDP_VIDEO_READY";
     }
     
     public void handleAnswer(String sdp) {
-        System.out.println("[VIDEO-UDP] Answer received, ready for streaming");
+        log.info("[VIDEO-UDP] Answer received, ready for streaming");
     }
     
     public void addIceCandidate(String candidateJson) {
         // Not used in UDP implementation
     }
     
+    /**
+     * Decode and show a frame from the peer (decode lane, so the UDP video lane keeps draining)
+     */
     public void handleIncomingVideoFrame(byte[] frameData) {
+        decoder.execute(() -> decodeAndShow(frameData));
+    }
+
+    private void decodeAndShow(byte[] frameData) {
         try {
             ByteArrayInputStream bais = new ByteArrayInputStream(frameData);
             BufferedImage image = ImageIO.read(bais);
@@ -151,7 +187,44 @@ public class VideoCallService {
                 displayRemoteVideo(image);
             }
         } catch (Exception e) {
-            System.err.println("[VIDEO-UDP-ERR] Failed to decode frame: " + e.getMessage());
+            log.error("[VIDEO-UDP-ERR] Failed to decode frame: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Compress a captured frame heavily for UDP and hand it to the sender (encode lane)
+     */
+    private void encodeAndSend(BufferedImage image) {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+            // Low quality JPEG for small size
+            javax.imageio.ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+            javax.imageio.ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(javax.imageio.ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+
+            writer.setOutput(ImageIO.createImageOutputStream(baos));
+            writer.write(null, new javax.imageio.IIOImage(image, null, null), param);
+            writer.dispose();
+
+            byte[] imageData = baos.toByteArray();
+
+            // Debug: Log frame size
+            log.debug(() -> "[VIDEO-UDP] Frame captured: " + imageData.length + " bytes");
+
+            if (onVideoFrameReady != null && imageData.length < 40000) {
+                onVideoFrameReady.accept(imageData);
+                log.debug(() -> "[VIDEO-UDP] Frame sent via callback");
+            } else if (imageData.length >= 40000) {
+                log.warn("[VIDEO-UDP-SKIP] Frame too large: " + imageData.length + " bytes");
+            } else {
+                log.error("[VIDEO-UDP-ERR] Callback is NULL!");
+            }
+        } catch (Exception e) {
+            if (isStreaming) {
+                log.error("[VIDEO-UDP-ERR] Frame encode: " + e.getMessage());
+            }
         }
     }
     
@@ -196,7 +269,7 @@ public class VideoCallService {
     }
     
     public void toggleMute() {
-        System.out.println("[VIDEO-UDP] Audio mute toggled (not implemented)");
+        log.info("[VIDEO-UDP] Audio mute toggled (not implemented)");
     }
     
     public void toggleCamera() {
@@ -204,11 +277,11 @@ public class VideoCallService {
             if (webcam.isOpen()) {
                 webcam.close();
                 isStreaming = false;
-                System.out.println("[VIDEO-UDP] Camera stopped");
+                log.info("[VIDEO-UDP] Camera stopped");
             } else {
                 webcam.open();
                 isStreaming = true;
-                System.out.println("[VIDEO-UDP] Camera started");
+                log.info("[VIDEO-UDP] Camera started");
             }
         }
     }
@@ -224,7 +297,7 @@ public class VideoCallService {
             webcam.close();
         }
         
-        System.out.println("[VIDEO-UDP] Call ended");
+        log.info("[VIDEO-UDP] Call ended");
         
         Platform.runLater(() -> {
             if (onCallEnded != null) {
@@ -18,9 +18,11 @@ import org.example.chatft.model.FileMessage;
 import org.example.chatft.model.Group;
 import org.example.chatft.model.GroupMessage;
 import org.example.chatft.model.User;
+import org.example.chatft.protocol.Signaling;
 import org.example.chatft.ui.util.FileHelper;
 import org.example.chatft.ui.util.MessageRenderer;
 import org.example.chatft.ui.util.DebounceUtil;
+import org.example.chatft.utils.Logger;
 
 import java.awt.event.KeyEvent;
 import java.io.File;
@@ -28,6 +30,7 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 public class MainController {
 
@@ -54,6 +57,7 @@ public class MainController {
 //    @FXML private Button  emojiButton, addButton;
     @FXML private HBox textFieldContainer;
     private static final int MAX_INPUT_HEIGHT = 120;
+    private static final Logger log = Logger.get("UI");
 
     // Data
     private ObservableList<User> allUsers = FXCollections.observableArrayList();
@@ -330,9 +334,14 @@ public class MainController {
             messageRenderer.addMessage(box, currentChatUser.getNickname(), msg, true, false);
             network.sendMessage(currentChatUser, msg);
         } else if (currentChatGroup != null) {
+            try {
+                network.sendGroupMessage(currentChatGroup.getName(), msg);
+            } catch (IllegalArgumentException e) {
+                showAlert("Error", "Message not sent: " + e.getMessage());
+                return;
+            }
             VBox box = groupChatBoxes.get(currentChatGroup.getName());
             messageRenderer.addMessage(box, "",  msg, true, false);
-            network.sendGroupMessage(currentChatGroup.getName(), msg);
         }
 
         messageInput.clear();
@@ -478,7 +487,8 @@ public class MainController {
         double textHeight = textNode.getLayoutBounds().getHeight();
         double newHeight = Math.min(Math.max(24, textHeight + 12), MAX_INPUT_HEIGHT);
 
-        System.out.println("Width: " + availableWidth + " | TextHeight: " + textHeight + " | NewHeight: " + newHeight);
+        double width = availableWidth;
+        log.trace(() -> "Width: " + width + " | TextHeight: " + textHeight + " | NewHeight: " + newHeight);
 
         messageInput.setMinHeight(newHeight);
         messageInput.setMaxHeight(MAX_INPUT_HEIGHT);
@@ -1010,36 +1020,34 @@ public class MainController {
     private void setupVideoCallHandlers() {
         network.setOnIncomingVideoCall(this::handleIncomingVideoCall);
         
-        network.setOnSdpOffer(parts -> {
-            String fromNickname = parts[1];
-            String sdp = parts[2];
-            if (activeVideoCallController != null) {
-                activeVideoCallController.handleIncomingSdpOffer(sdp);
+        // Signaling calls from peers, answered on the FX thread
+        network.setRpcHandler(Signaling.CALL_REQUEST, (fromNickname, request) -> {
+            User caller = network.getUser(fromNickname);
+            if (caller == null) {
+                return CompletableFuture.completedFuture(false);
             }
+            return CompletableFuture.supplyAsync(() -> handleIncomingVideoCall(caller), Platform::runLater);
         });
         
-        network.setOnSdpAnswer(parts -> {
-            String fromNickname = parts[1];
-            String sdp = parts[2];
-            if (activeVideoCallController != null) {
-                activeVideoCallController.handleIncomingSdpAnswer(sdp);
+        network.setRpcHandler(Signaling.SDP_OFFER, (fromNickname, sdp) -> CompletableFuture.supplyAsync(() -> {
+            if (activeVideoCallController == null) {
+                throw new IllegalStateException("no active call");
             }
-        });
+            return activeVideoCallController.handleIncomingSdpOffer(sdp);
+        }, Platform::runLater));
         
-        network.setOnIceCandidate(parts -> {
-            String fromNickname = parts[1];
-            String candidate = parts[2];
+        network.setRpcHandler(Signaling.ICE_CANDIDATE, (fromNickname, candidate) -> CompletableFuture.runAsync(() -> {
             if (activeVideoCallController != null) {
                 activeVideoCallController.handleIncomingIceCandidate(candidate);
             }
-        });
+        }, Platform::runLater));
         
-        network.setOnCallEnd(fromNickname -> {
+        network.setRpcHandler(Signaling.CALL_END, (fromNickname, request) -> CompletableFuture.runAsync(() -> {
             if (activeVideoCallController != null) {
                 activeVideoCallController.getVideoCallService().endCall();
                 activeVideoCallController = null;
             }
-        });
+        }, Platform::runLater));
         
         // Setup video frame receiver
         network.setOnVideoFrame(videoFrame -> {
@@ -1059,7 +1067,10 @@ public class MainController {
         openVideoCallWindow(currentChatUser, true);
     }
     
-    private void handleIncomingVideoCall(User caller) {
+    /**
+     * @return true if the user accepted the call
+     */
+    private boolean handleIncomingVideoCall(User caller) {
         Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
         alert.setTitle("Incoming Video Call");
         alert.setHeaderText("Video call from " + caller.getNickname());
@@ -1069,13 +1080,12 @@ public class MainController {
         ButtonType rejectButton = new ButtonType("Reject", ButtonBar.ButtonData.CANCEL_CLOSE);
         alert.getButtonTypes().setAll(acceptButton, rejectButton);
         
-        alert.showAndWait().ifPresent(response -> {
-            if (response == acceptButton) {
-                openVideoCallWindow(caller, false);
-            } else {
-                System.out.println("[VIDEO-UI] Call rejected");
-            }
-        });
+        if (alert.showAndWait().orElse(rejectButton) == acceptButton) {
+            openVideoCallWindow(caller, false);
+            return true;
+        }
+        System.out.println("[VIDEO-UI] Call rejected");
+        return false;
     }
     
     private void openVideoCallWindow(User remoteUser, boolean isCaller) {
@@ -1099,10 +1109,6 @@ public class MainController {
             });
             stage.show();
             
-            if (isCaller) {
-                network.sendVideoCallRequest(remoteUser);
-            }
-            
         } catch (Exception e) {
             e.printStackTrace();
             showAlert("Error", "Failed to open video call window: " + e.getMessage());
@@ -7,6 +7,7 @@ import javafx.scene.image.ImageView;
 import javafx.scene.layout.StackPane;
 import javafx.stage.Stage;
 import org.example.chatft.model.User;
+import org.example.chatft.protocol.Signaling;
 import org.example.chatft.service.NetworkService;
 import org.example.chatft.service.VideoCallService;
 
@@ -51,22 +52,22 @@ public class VideoCallController {
         
         videoCallService = new VideoCallService(
             remoteUser,
-            // onSdpOfferReady
+            // onSdpOfferReady: the reply is the callee's SDP answer
             sdp -> {
                 System.out.println("[VIDEO-UI] Sending SDP Offer to " + remoteUser.getNickname());
-                networkService.sendSdpOffer(remoteUser, sdp);
                 updateStatus("Connecting...");
-            },
-            // onSdpAnswerReady
-            sdp -> {
-                System.out.println("[VIDEO-UI] Sending SDP Answer to " + remoteUser.getNickname());
-                networkService.sendSdpAnswer(remoteUser, sdp);
-                updateStatus("Connected");
+                networkService.call(remoteUser, Signaling.SDP_OFFER, sdp).whenComplete((answer, error) -> {
+                    if (error == null) {
+                        handleIncomingSdpAnswer(answer);
+                    } else {
+                        updateStatus("Connection failed");
+                    }
+                });
             },
             // onIceCandidateReady
             candidate -> {
                 System.out.println("[VIDEO-UI] Sending ICE Candidate to " + remoteUser.getNickname());
-                networkService.sendIceCandidate(remoteUser, candidate);
+                networkService.call(remoteUser, Signaling.ICE_CANDIDATE, candidate);
             },
             // onCallEnded
             this::handleCallEnded,
@@ -78,21 +79,40 @@ public class VideoCallController {
         
         videoCallService.setLocalVideoView(localVideoView);
         videoCallService.setRemoteVideoView(remoteVideoView);
+        videoCallService.setLinkHealth(() -> networkService.getLinkHealth(remoteUser));
         
         videoCallService.startLocalCamera();
         
         if (isCaller) {
-            videoCallService.createOffer();
             updateStatus("Calling...");
+            ringRemoteUser();
         } else {
             updateStatus("Ringing...");
         }
     }
     
-    public void handleIncomingSdpOffer(String sdp) {
+    /**
+     * Ask the remote user to take the call; the offer is only sent once they accepted
+     */
+    private void ringRemoteUser() {
+        networkService.call(remoteUser, Signaling.CALL_REQUEST, null).whenComplete((accepted, error) -> {
+            if (error == null && accepted) {
+                videoCallService.createOffer();
+                return;
+            }
+            System.out.println("[VIDEO-UI] Call not accepted: " + (error == null ? "declined" : error.getMessage()));
+            updateStatus(error == null ? "Call declined" : "No answer");
+            videoCallService.endCall();
+        });
+    }
+    
+    /**
+     * @return the SDP answer, which goes back to the caller as the offer's reply
+     */
+    public String handleIncomingSdpOffer(String sdp) {
         System.out.println("[VIDEO-UI] Received SDP Offer");
-        updateStatus("Connecting...");
-        videoCallService.handleOffer(sdp);
+        updateStatus("Connected");
+        return videoCallService.handleOffer(sdp);
     }
     
     public void handleIncomingSdpAnswer(String sdp) {
@@ -125,7 +145,7 @@ public class VideoCallController {
     @FXML
     private void handleEndCall() {
         videoCallService.endCall();
-        networkService.sendCallEnd(remoteUser);
+        networkService.call(remoteUser, Signaling.CALL_END, null);
     }
     
     private void handleCallEnded() {
@@ -17,11 +17,13 @@ import javafx.scene.input.MouseButton;
 import javafx.stage.Window;
 import javafx.util.Duration;
 import org.example.chatft.ui.components.MessageContextMenu;
+import org.example.chatft.utils.Logger;
 
 import java.io.File;
 import java.io.FileInputStream;
 
 public class MessageRenderer {
+    private static final Logger log = Logger.get("UI");
 
     private final FileHelper fileHelper = new FileHelper();
     private final ScrollPane scrollPane;
@@ -239,7 +241,7 @@ public class MessageRenderer {
                 File imageFile = new File(filePath);
 
                 if (!imageFile.exists()) {
-                    System.err.println("❌ File không tồn tại: " + filePath);
+                    log.error("❌ File không tồn tại: " + filePath);
                     throw new Exception("File không tồn tại");
                 }
 
@@ -247,7 +249,7 @@ public class MessageRenderer {
                 Image image = new Image(new FileInputStream(imageFile));
 
                 if (image.isError()) {
-                    System.err.println("❌ Lỗi khi load ảnh");
+                    log.error("❌ Lỗi khi load ảnh");
                     throw new Exception("Lỗi khi load ảnh");
                 }
 
@@ -274,7 +276,7 @@ public class MessageRenderer {
                 imageLoaded = true;
 
             } catch (Exception e) {
-                System.err.println("❌ Không load được ảnh: " + e.getMessage());
+                log.error("❌ Không load được ảnh: " + e.getMessage());
                 imageLoaded = false;
             }
         }
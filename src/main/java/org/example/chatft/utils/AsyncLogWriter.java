@@ -0,0 +1,135 @@
+package org.example.chatft.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background writer behind Logger.
+ *
+ * Producers claim a slot in a fixed-size ring with one CAS (bounded MPSC queue with
+ * per-slot sequence numbers, no locks). A single daemon thread drains the ring and
+ * writes a whole batch to System.out / System.err at once. When the ring is full the
+ * message is dropped and counted; logging never blocks the network or FX threads.
+ */
+public final class AsyncLogWriter {
+    private static final int CAPACITY = 8192; // power of two
+    private static final int MASK = CAPACITY - 1;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    private static final AsyncLogWriter INSTANCE = new AsyncLogWriter();
+
+    private final String[] messages = new String[CAPACITY];
+    private final LogLevel[] levels = new LogLevel[CAPACITY];
+    // slot i is free for producer position p when sequence == p, readable when sequence == p + 1
+    private final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private long head;              // consumer position, writer thread only
+    private long reportedDropped;   // writer thread only
+    private final Thread writer;
+
+    private AsyncLogWriter() {
+        for (int i = 0; i < CAPACITY; i++) {
+            sequences.set(i, i);
+        }
+        writer = new Thread(this::run, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        // Print what is still queued when the app exits
+        Runtime.getRuntime().addShutdownHook(new Thread(this::drain, "log-flush"));
+    }
+
+    static AsyncLogWriter getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Queue one message, never blocks
+     * @return false if the ring was full and the message was dropped
+     */
+    boolean offer(LogLevel level, String message) {
+        long pos = tail.get();
+        while (true) {
+            int slot = (int) (pos & MASK);
+            long diff = sequences.get(slot) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                dropped.incrementAndGet(); // full: writer hasn't freed this slot yet
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+
+        int slot = (int) (pos & MASK);
+        messages[slot] = message;
+        levels[slot] = level;
+        sequences.set(slot, pos + 1); // publish
+        return true;
+    }
+
+    /**
+     * Messages lost because the ring was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void run() {
+        while (true) {
+            if (!drain()) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Write everything that is readable now
+     * @return true if anything was written
+     */
+    private synchronized boolean drain() {
+        StringBuilder out = null;
+        StringBuilder err = null;
+
+        while (true) {
+            int slot = (int) (head & MASK);
+            if (sequences.get(slot) != head + 1) {
+                break;
+            }
+            String message = messages[slot];
+            LogLevel level = levels[slot];
+            messages[slot] = null;
+            sequences.set(slot, head + CAPACITY); // free for the producer one lap later
+            head++;
+
+            if (level.ordinal() >= LogLevel.WARN.ordinal()) {
+                err = (err == null ? new StringBuilder() : err).append(message).append(System.lineSeparator());
+            } else {
+                out = (out == null ? new StringBuilder() : out).append(message).append(System.lineSeparator());
+            }
+        }
+
+        long lost = dropped.get();
+        if (lost != reportedDropped) {
+            err = (err == null ? new StringBuilder() : err).append("[LOG] ").append(lost - reportedDropped)
+                    .append(" messages dropped (log buffer full)").append(System.lineSeparator());
+            reportedDropped = lost;
+        }
+
+        if (out != null) {
+            System.out.print(out);
+            System.out.flush();
+        }
+        if (err != null) {
+            System.err.print(err);
+            System.err.flush();
+        }
+        return out != null || err != null;
+    }
+}
@@ -0,0 +1,77 @@
+package org.example.chatft.utils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads for blocking network tasks (file sends and receives, downloads, signaling,
+ * UDP dispatch workers), chosen at startup with -Dchatft.threads=virtual|platform.
+ *
+ * VIRTUAL gives every task its own virtual thread, so a thousand transfers blocked on
+ * stream reads cost a thousand small heap objects instead of a thousand OS threads.
+ * PLATFORM is the previous cached pool of daemon threads. In both models the selector
+ * loops keep dedicated platform threads and CPU-bound work goes to a bounded platform
+ * pool (see newCpuPool), where virtual threads would gain nothing.
+ */
+public enum ExecutionModel {
+    PLATFORM,
+    VIRTUAL;
+
+    private static final String PROPERTY = "chatft.threads";
+
+    /**
+     * Model named by the chatft.threads system property, VIRTUAL if unset or unknown
+     */
+    public static ExecutionModel fromSystemProperty() {
+        return parse(System.getProperty(PROPERTY), VIRTUAL);
+    }
+
+    /**
+     * Parse model name, case-insensitive
+     * @return the model, or fallback if name is null or unknown
+     */
+    public static ExecutionModel parse(String name, ExecutionModel fallback) {
+        if (name == null) {
+            return fallback;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return fallback;
+        }
+    }
+
+    /**
+     * Executor running each submitted task on a thread of its own ("name-N")
+     */
+    public ExecutorService newTaskExecutor(String name) {
+        if (this == VIRTUAL) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+        }
+        return Executors.newCachedThreadPool(daemonThreads(name));
+    }
+
+    /**
+     * Fixed pool of platform threads with a bounded queue, for CPU-bound work
+     * @param onFull what happens to a task submitted while the queue is full
+     */
+    public static ExecutorService newCpuPool(String name, int threads, int queueCapacity, RejectedExecutionHandler onFull) {
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), daemonThreads(name), onFull);
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
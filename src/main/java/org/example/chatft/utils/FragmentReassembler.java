@@ -0,0 +1,138 @@
+package org.example.chatft.utils;
+
+import org.example.chatft.config.NetworkConfig;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rebuilds datagrams that UdpService split into FRAGMENT messages.
+ *
+ * Partial messages are keyed by (peerId, messageSeq) and kept in arrival order.
+ * A partial message is dropped when it is older than FRAGMENT_TIMEOUT_MS, and the
+ * oldest ones are dropped first when the total buffered bytes exceed FRAGMENT_MAX_PENDING_BYTES.
+ */
+public class FragmentReassembler {
+    private static final Logger log = Logger.get("UDP");
+
+    private final Map<Key, Partial> partials = new LinkedHashMap<>();
+    private long pendingBytes;
+
+    /**
+     * Add one fragment
+     * @return the complete original datagram once the last fragment arrived, otherwise null
+     */
+    public synchronized ByteBuffer accept(long peerId, int messageSeq, int index, int count, byte[] chunk) {
+        if (count < 2 || count > NetworkConfig.FRAGMENT_MAX_COUNT || index < 0 || index >= count) {
+            return null;
+        }
+
+        long now = now();
+        evictExpired(now);
+
+        Key key = new Key(peerId, messageSeq);
+        Partial partial = partials.get(key);
+        if (partial == null) {
+            partial = new Partial(count, now);
+            partials.put(key, partial);
+        } else if (partial.chunks.length != count) {
+            return null; // Inconsistent fragment, ignore
+        }
+        if (partial.chunks[index] != null) {
+            return null;
+        }
+        if (partial.size + chunk.length > NetworkConfig.FRAGMENT_MAX_MESSAGE_SIZE) {
+            log.warn(() -> "[UDP-FRAG] Message exceeds " + NetworkConfig.FRAGMENT_MAX_MESSAGE_SIZE + " bytes, dropped");
+            remove(key);
+            return null;
+        }
+
+        partial.chunks[index] = chunk;
+        partial.size += chunk.length;
+        partial.received++;
+        pendingBytes += chunk.length;
+
+        if (partial.received == count) {
+            remove(key);
+            ByteBuffer whole = ByteBuffer.allocate(partial.size);
+            for (byte[] part : partial.chunks) {
+                whole.put(part);
+            }
+            return whole.flip();
+        }
+
+        evictOverBudget();
+        return null;
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Partial> it = partials.values().iterator();
+        while (it.hasNext()) {
+            Partial oldest = it.next();
+            if (now - oldest.startedAt < NetworkConfig.FRAGMENT_TIMEOUT_MS) {
+                break; // insertion order: everything after is newer
+            }
+            pendingBytes -= oldest.size;
+            it.remove();
+        }
+    }
+
+    private void evictOverBudget() {
+        Iterator<Partial> it = partials.values().iterator();
+        while (pendingBytes > NetworkConfig.FRAGMENT_MAX_PENDING_BYTES && it.hasNext()) {
+            pendingBytes -= it.next().size;
+            it.remove();
+            log.warn("[UDP-FRAG] Reassembly memory full, dropped oldest partial message");
+        }
+    }
+
+    private void remove(Key key) {
+        Partial partial = partials.remove(key);
+        if (partial != null) {
+            pendingBytes -= partial.size;
+        }
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private static class Partial {
+        final byte[][] chunks;
+        final long startedAt;
+        int received;
+        int size;
+
+        Partial(int count, long startedAt) {
+            this.chunks = new byte[count][];
+            this.startedAt = startedAt;
+        }
+    }
+
+    private static class Key {
+        final long peerId;
+        final int messageSeq;
+
+        Key(long peerId, int messageSeq) {
+            this.peerId = peerId;
+            this.messageSeq = messageSeq;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (obj == null || getClass() != obj.getClass()) return false;
+            Key other = (Key) obj;
+            return peerId == other.peerId && messageSeq == other.messageSeq;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(peerId, messageSeq);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package org.example.chatft.utils;
+
+/**
+ * Small, deterministic hashes shared by peers (must give the same result on every JVM)
+ */
+public final class Hashing {
+
+    private Hashing() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Murmur3 32-bit finalizer, spreads the bits of weak hashes such as String.hashCode
+     */
+    public static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Well-spread hash of a string, never 0 (0 is used as "empty" in XOR digests)
+     */
+    public static int of(String value) {
+        int h = mix(value.hashCode());
+        return h == 0 ? 1 : h;
+    }
+}
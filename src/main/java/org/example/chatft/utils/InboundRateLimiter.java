@@ -0,0 +1,160 @@
+package org.example.chatft.utils;
+
+import org.example.chatft.config.NetworkConfig;
+import org.example.chatft.protocol.MessageType;
+
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Token-bucket flood protection for the UDP port, applied before a datagram is decoded.
+ *
+ * Every source IP gets one bucket for all of its traffic plus one bucket per message type,
+ * so a client spamming ONLINE or GROUP_PUBLIC loses only that type while its chat still flows,
+ * and no single host can use more than RATE_LIMIT_SOURCE_PER_SEC of our receive path.
+ * Rates allow for every message arriving twice (multicast + directed broadcast).
+ *
+ * Not thread-safe: called from the receive thread only.
+ */
+public class InboundRateLimiter {
+    private static final Logger log = Logger.get("UDP");
+    private static final int TYPE_SLOTS = 64;
+
+    private final Map<InetAddress, Source> sources =
+            new LinkedHashMap<InetAddress, Source>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<InetAddress, Source> eldest) {
+                    return size() > NetworkConfig.RATE_LIMIT_MAX_SOURCES;
+                }
+            };
+
+    // Drop counters by message type code (read from other threads for stats)
+    private final AtomicLongArray droppedByType = new AtomicLongArray(TYPE_SLOTS);
+
+    /**
+     * Take one token for a message of this type from this source
+     * @param type Message type, or null if unknown (limited like chat traffic)
+     * @return true if the message may be processed, false if it must be dropped
+     */
+    public boolean tryAcquire(InetAddress source, MessageType type, long nowNanos) {
+        Source state = sources.get(source);
+        if (state == null) {
+            state = new Source(nowNanos);
+            sources.put(source, state);
+        }
+
+        int slot = type == null ? 0 : type.getCode();
+        Bucket typeBucket = state.byType[slot];
+        if (typeBucket == null) {
+            Limit limit = limitFor(type);
+            typeBucket = new Bucket(limit.perSecond, limit.burst, nowNanos);
+            state.byType[slot] = typeBucket;
+        }
+
+        // Type bucket first: a flood of one type must not drain the source's shared budget
+        if (!typeBucket.tryTake(nowNanos) || !state.total.tryTake(nowNanos)) {
+            long count = droppedByType.incrementAndGet(slot);
+            if (Long.bitCount(count) == 1) {
+                log.warn("[UDP-LIMIT] Rate limit hit: " + (type == null ? "unknown type" : type)
+                        + " from " + source.getHostAddress() + ", " + count + " dropped so far");
+            }
+            return false;
+        }
+        return true;
+    }
+
+    public long getDropped(MessageType type) {
+        return droppedByType.get(type.getCode());
+    }
+
+    /**
+     * Dropped packet counts by message type (types without drops are omitted)
+     */
+    public String stats() {
+        StringBuilder sb = new StringBuilder("dropped by rate limit:");
+        boolean any = false;
+        for (int code = 0; code < TYPE_SLOTS; code++) {
+            long count = droppedByType.get(code);
+            if (count > 0) {
+                MessageType type = MessageType.fromCode(code);
+                sb.append(' ').append(type == null ? "unknown" : type.name()).append('=').append(count);
+                any = true;
+            }
+        }
+        return any ? sb.toString() : sb.append(" none").toString();
+    }
+
+    static Limit limitFor(MessageType type) {
+        if (type == null) {
+            return new Limit(NetworkConfig.RATE_LIMIT_CHAT_PER_SEC, NetworkConfig.RATE_LIMIT_CHAT_BURST);
+        }
+        switch (type) {
+            case ONLINE:
+            case OFFLINE:
+            case ROSTER:
+                return new Limit(NetworkConfig.RATE_LIMIT_PRESENCE_PER_SEC, NetworkConfig.RATE_LIMIT_PRESENCE_BURST);
+            case GROUP_PUBLIC:
+            case GROUP_PRIVATE:
+            case GROUP_DIGEST:
+            case GROUP_SYNC_REQUEST:
+            case GROUP_ENTRIES:
+                return new Limit(NetworkConfig.RATE_LIMIT_CATALOG_PER_SEC, NetworkConfig.RATE_LIMIT_CATALOG_BURST);
+            case VIDEO_CALL_REQUEST:
+            case VIDEO_CALL_ACCEPT:
+            case VIDEO_CALL_REJECT:
+                return new Limit(NetworkConfig.RATE_LIMIT_SIGNAL_PER_SEC, NetworkConfig.RATE_LIMIT_SIGNAL_BURST);
+            case VIDEO_FRAME:
+                return new Limit(NetworkConfig.RATE_LIMIT_VIDEO_PER_SEC, NetworkConfig.RATE_LIMIT_VIDEO_BURST);
+            default:
+                return new Limit(NetworkConfig.RATE_LIMIT_CHAT_PER_SEC, NetworkConfig.RATE_LIMIT_CHAT_BURST);
+        }
+    }
+
+    static class Limit {
+        final double perSecond;
+        final double burst;
+
+        Limit(double perSecond, double burst) {
+            this.perSecond = perSecond;
+            this.burst = burst;
+        }
+    }
+
+    private static class Source {
+        final Bucket total;
+        final Bucket[] byType = new Bucket[TYPE_SLOTS];
+
+        Source(long nowNanos) {
+            this.total = new Bucket(NetworkConfig.RATE_LIMIT_SOURCE_PER_SEC, NetworkConfig.RATE_LIMIT_SOURCE_BURST, nowNanos);
+        }
+    }
+
+    private static class Bucket {
+        final double perNano;
+        final double capacity;
+        double tokens;
+        long lastRefill;
+
+        Bucket(double perSecond, double capacity, long nowNanos) {
+            this.perNano = perSecond / 1_000_000_000.0;
+            this.capacity = capacity;
+            this.tokens = capacity;
+            this.lastRefill = nowNanos;
+        }
+
+        boolean tryTake(long nowNanos) {
+            long elapsed = nowNanos - lastRefill;
+            if (elapsed > 0) {
+                tokens = Math.min(capacity, tokens + elapsed * perNano);
+                lastRefill = nowNanos;
+            }
+            if (tokens >= 1) {
+                tokens -= 1;
+                return true;
+            }
+            return false;
+        }
+    }
+}
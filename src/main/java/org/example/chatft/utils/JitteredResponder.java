@@ -0,0 +1,62 @@
+package org.example.chatft.utils;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * mDNS-style delayed reply with suppression.
+ *
+ * Instead of answering a multicast query immediately, every peer waits a random delay.
+ * If it hears an equivalent answer from someone else in the meantime, it calls suppress()
+ * and stays quiet, so one query produces about one answer instead of N.
+ */
+public class JitteredResponder {
+    private static final Logger log = Logger.get("UDP");
+
+    private final ScheduledExecutorService scheduler;
+    private final Runnable response;
+    private ScheduledFuture<?> pending;
+
+    public JitteredResponder(ScheduledExecutorService scheduler, Runnable response) {
+        this.scheduler = scheduler;
+        this.response = response;
+    }
+
+    /**
+     * Schedule the response after a random delay in [0, maxDelayMs).
+     * Does nothing if a response is already pending.
+     */
+    public synchronized void schedule(long maxDelayMs) {
+        if (pending != null && !pending.isDone()) {
+            return;
+        }
+        long delay = maxDelayMs > 0 ? ThreadLocalRandom.current().nextLong(maxDelayMs) : 0;
+        pending = scheduler.schedule(this::fire, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Someone else already answered equivalently: cancel our pending response
+     * @return true if a pending response was cancelled
+     */
+    public synchronized boolean suppress() {
+        if (pending == null || pending.isDone()) {
+            return false;
+        }
+        boolean cancelled = pending.cancel(false);
+        pending = null;
+        return cancelled;
+    }
+
+    private void fire() {
+        synchronized (this) {
+            pending = null;
+        }
+        try {
+            response.run();
+        } catch (RuntimeException e) {
+            log.error(() -> "[RESPONDER-ERR] " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.example.chatft.utils;
+
+/**
+ * Log levels, lowest first. A logger set to a level drops everything below it.
+ */
+public enum LogLevel {
+    TRACE,
+    DEBUG,
+    INFO,
+    WARN,
+    ERROR,
+    OFF;
+
+    /**
+     * Parse level name, case-insensitive
+     * @return the level, or fallback if name is null or unknown
+     */
+    public static LogLevel parse(String name, LogLevel fallback) {
+        if (name == null) {
+            return fallback;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return fallback;
+        }
+    }
+}
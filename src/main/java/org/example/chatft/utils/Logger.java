@@ -0,0 +1,103 @@
+package org.example.chatft.utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Small logging facade with one level per subsystem (UDP, TCP, VIDEO, UI...).
+ *
+ * - Level per subsystem from system property "chatft.log.<subsystem>", else "chatft.log.level",
+ *   else INFO; can be changed at runtime with setLevel.
+ * - A disabled call is one volatile read and a compare. Hot paths use the Supplier
+ *   overloads, so the message string is built only if the level is enabled.
+ * - Enabled messages go to AsyncLogWriter's ring buffer; the caller never touches
+ *   System.out and never blocks.
+ */
+public final class Logger {
+    private static final Map<String, Logger> LOGGERS = new ConcurrentHashMap<>();
+    private static final LogLevel DEFAULT_LEVEL = LogLevel.parse(System.getProperty("chatft.log.level"), LogLevel.INFO);
+
+    private final String subsystem;
+    private volatile LogLevel level;
+
+    private Logger(String subsystem) {
+        this.subsystem = subsystem;
+        this.level = LogLevel.parse(System.getProperty("chatft.log." + subsystem), DEFAULT_LEVEL);
+    }
+
+    /**
+     * Logger shared by everything in one subsystem
+     */
+    public static Logger get(String subsystem) {
+        return LOGGERS.computeIfAbsent(subsystem, Logger::new);
+    }
+
+    public static void setLevel(String subsystem, LogLevel level) {
+        get(subsystem).level = level;
+    }
+
+    public String getSubsystem() {
+        return subsystem;
+    }
+
+    public LogLevel getLevel() {
+        return level;
+    }
+
+    public boolean isEnabled(LogLevel messageLevel) {
+        return messageLevel.ordinal() >= level.ordinal();
+    }
+
+    public boolean isDebugEnabled() {
+        return isEnabled(LogLevel.DEBUG);
+    }
+
+    public void trace(Supplier<String> message) {
+        log(LogLevel.TRACE, message);
+    }
+
+    public void debug(String message) {
+        log(LogLevel.DEBUG, message);
+    }
+
+    public void debug(Supplier<String> message) {
+        log(LogLevel.DEBUG, message);
+    }
+
+    public void info(String message) {
+        log(LogLevel.INFO, message);
+    }
+
+    public void info(Supplier<String> message) {
+        log(LogLevel.INFO, message);
+    }
+
+    public void warn(String message) {
+        log(LogLevel.WARN, message);
+    }
+
+    public void warn(Supplier<String> message) {
+        log(LogLevel.WARN, message);
+    }
+
+    public void error(String message) {
+        log(LogLevel.ERROR, message);
+    }
+
+    public void error(Supplier<String> message) {
+        log(LogLevel.ERROR, message);
+    }
+
+    private void log(LogLevel messageLevel, String message) {
+        if (isEnabled(messageLevel)) {
+            AsyncLogWriter.getInstance().offer(messageLevel, message);
+        }
+    }
+
+    private void log(LogLevel messageLevel, Supplier<String> message) {
+        if (isEnabled(messageLevel)) {
+            AsyncLogWriter.getInstance().offer(messageLevel, message.get());
+        }
+    }
+}
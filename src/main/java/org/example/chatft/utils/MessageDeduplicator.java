@@ -2,61 +2,128 @@ package org.example.chatft.utils;
 
 import org.example.chatft.config.NetworkConfig;
 
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.Arrays;
 
+/**
+ * Drops datagrams we already processed, keyed by (peerId, sequence).
+ *
+ * Every sender gets a fixed-size sliding bitmap of the last WINDOW sequence numbers
+ * (same scheme as IPsec/DTLS anti-replay). Senders live in a small open-addressing
+ * table, the least recently active one is evicted when a probe run is full.
+ * No strings, no boxing, no periodic clear.
+ */
 public class MessageDeduplicator {
-    private final Set<String> processedMessages = ConcurrentHashMap.newKeySet();
-    private final ScheduledExecutorService cleanupScheduler = Executors.newSingleThreadScheduledExecutor();
+    private static final int WINDOW = NetworkConfig.DEDUP_WINDOW_SIZE;       // bits per sender, power of two
+    private static final int WORDS = WINDOW / 64;
+    private static final int CAPACITY = NetworkConfig.DEDUP_MAX_PEERS;       // slots, power of two
+    private static final int MAX_PROBE = 8;
 
-    public MessageDeduplicator() {
-        startCleanupTask();
-    }
+    private final long[] peerIds = new long[CAPACITY];
+    private final boolean[] used = new boolean[CAPACITY];
+    private final int[] highest = new int[CAPACITY];
+    private final long[] lastAccess = new long[CAPACITY];
+    private final long[] bitmaps = new long[CAPACITY * WORDS];
+    private long clock;
 
     /**
-     * Check if message is duplicate
-     * @param messageType Type of message (GMSG, GFILE, etc.)
-     * @param messageContent Full message content
-     * @return true if duplicate, false if new
+     * Check if datagram is duplicate, and remember it if not
+     * @param peerId Sender instance id
+     * @param sequence Sender's datagram sequence number
+     * @return true if duplicate (or too old to tell), false if new
      */
-    public boolean isDuplicate(String messageType, String messageContent) {
-        // Only check duplicates for group messages
-        if (!messageType.equals("GMSG") && !messageType.equals("GFILE")) {
+    public synchronized boolean isDuplicate(long peerId, int sequence) {
+        int slot = findOrClaim(peerId, sequence);
+        lastAccess[slot] = ++clock;
+        int base = slot * WORDS;
+
+        int delta = sequence - highest[slot];
+        if (delta > 0) {
+            // Newer than anything seen: slide window forward, forgetting the oldest bits
+            if (delta >= WINDOW) {
+                Arrays.fill(bitmaps, base, base + WORDS, 0L);
+            } else {
+                for (int s = highest[slot] + 1; s != sequence; s++) {
+                    clearBit(base, s);
+                }
+            }
+            highest[slot] = sequence;
+            setBit(base, sequence);
             return false;
         }
 
-        // Create unique ID: content + timestamp (rounded to 100ms)
-        long timestamp = System.currentTimeMillis() / NetworkConfig.MESSAGE_DEDUP_WINDOW_MS;
-        String messageId = messageContent + "@" + timestamp;
+        if (-delta >= WINDOW) {
+            return true;
+        }
 
-        // Check and add atomically
-        return !processedMessages.add(messageId);
+        int index = sequence & (WINDOW - 1);
+        long mask = 1L << (index & 63);
+        int word = base + (index >>> 6);
+        if ((bitmaps[word] & mask) != 0) {
+            return true;
+        }
+        bitmaps[word] |= mask;
+        return false;
     }
 
-    private void startCleanupTask() {
-        cleanupScheduler.scheduleAtFixedRate(
-                () -> {
-                    processedMessages.clear();
-                    System.out.println("[DEDUP] Cleared processed messages");
-                },
-                NetworkConfig.MESSAGE_CLEANUP_INTERVAL_MS,
-                NetworkConfig.MESSAGE_CLEANUP_INTERVAL_MS,
-                TimeUnit.MILLISECONDS
-        );
+    /**
+     * Forget a sender (e.g. after it went offline)
+     */
+    public synchronized void forget(long peerId) {
+        int slot = find(peerId);
+        if (slot >= 0) {
+            used[slot] = false;
+        }
     }
 
-    public void shutdown() {
-        cleanupScheduler.shutdown();
-        try {
-            if (!cleanupScheduler.awaitTermination(1, TimeUnit.SECONDS)) {
-                cleanupScheduler.shutdownNow();
+    private int find(long peerId) {
+        int start = hash(peerId);
+        for (int i = 0; i < MAX_PROBE; i++) {
+            int slot = (start + i) & (CAPACITY - 1);
+            if (used[slot] && peerIds[slot] == peerId) {
+                return slot;
             }
-        } catch (InterruptedException e) {
-            cleanupScheduler.shutdownNow();
-            Thread.currentThread().interrupt();
         }
+        return -1;
+    }
+
+    private int findOrClaim(long peerId, int sequence) {
+        int start = hash(peerId);
+        int free = -1;
+        int stalest = -1;
+        for (int i = 0; i < MAX_PROBE; i++) {
+            int slot = (start + i) & (CAPACITY - 1);
+            if (!used[slot]) {
+                if (free < 0) {
+                    free = slot;
+                }
+            } else if (peerIds[slot] == peerId) {
+                return slot;
+            } else if (stalest < 0 || lastAccess[slot] < lastAccess[stalest]) {
+                stalest = slot;
+            }
+        }
+
+        // New sender: start its window just below the first sequence we see
+        int victim = free >= 0 ? free : stalest;
+        used[victim] = true;
+        peerIds[victim] = peerId;
+        highest[victim] = sequence - 1;
+        Arrays.fill(bitmaps, victim * WORDS, (victim + 1) * WORDS, 0L);
+        return victim;
+    }
+
+    private void setBit(int base, int sequence) {
+        int index = sequence & (WINDOW - 1);
+        bitmaps[base + (index >>> 6)] |= 1L << (index & 63);
+    }
+
+    private void clearBit(int base, int sequence) {
+        int index = sequence & (WINDOW - 1);
+        bitmaps[base + (index >>> 6)] &= ~(1L << (index & 63));
+    }
+
+    private static int hash(long peerId) {
+        long h = peerId * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (CAPACITY - 1);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,69 @@
+package org.example.chatft.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TextBodyDecoderTest {
+    // 1, 2, 3 and 4 byte UTF-8 sequences
+    private static final String MIXED = "a é Việt ✓ 😀 end";
+
+    @Test
+    void decodesCharactersSplitAtEveryPosition() throws ProtocolException {
+        byte[] utf8 = MIXED.getBytes(StandardCharsets.UTF_8);
+        for (int split = 0; split <= utf8.length; split++) {
+            TextBodyDecoder decoder = new TextBodyDecoder(Long.MAX_VALUE);
+            decoder.feed(utf8, 0, split);
+            decoder.feed(utf8, split, utf8.length - split);
+            assertEquals(MIXED, decoder.finish(), "split at " + split);
+        }
+    }
+
+    @Test
+    void decodesOneByteChunks() throws ProtocolException {
+        byte[] utf8 = MIXED.getBytes(StandardCharsets.UTF_8);
+        TextBodyDecoder decoder = new TextBodyDecoder(Long.MAX_VALUE);
+        for (int i = 0; i < utf8.length; i++) {
+            decoder.feed(utf8, i, 1);
+        }
+        assertEquals(MIXED, decoder.finish());
+        assertEquals(utf8.length, decoder.getByteCount());
+    }
+
+    @Test
+    void decodesBodiesLargerThanItsCharBuffer() throws ProtocolException {
+        String text = MIXED.repeat(2000);
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        TextBodyDecoder decoder = new TextBodyDecoder(Long.MAX_VALUE);
+        for (int offset = 0; offset < utf8.length; offset += 16 * 1024) {
+            decoder.feed(utf8, offset, Math.min(16 * 1024, utf8.length - offset));
+        }
+        assertEquals(text, decoder.finish());
+    }
+
+    @Test
+    void replacesMalformedInputLikeNewString() throws ProtocolException {
+        byte[] malformed = {'o', 'k', (byte) 0xC3, 'x', (byte) 0xFF, (byte) 0xE2, (byte) 0x9C};
+        TextBodyDecoder decoder = new TextBodyDecoder(Long.MAX_VALUE);
+        decoder.feed(malformed, 0, 3);
+        decoder.feed(malformed, 3, malformed.length - 3);
+        // The last two bytes start a character that never ends
+        assertEquals(new String(malformed, StandardCharsets.UTF_8), decoder.finish());
+    }
+
+    @Test
+    void rejectsBodiesOverTheLimit() throws ProtocolException {
+        byte[] chunk = new byte[6];
+        TextBodyDecoder decoder = new TextBodyDecoder(10);
+        decoder.feed(chunk, 0, chunk.length);
+        assertThrows(ProtocolException.class, () -> decoder.feed(chunk, 0, chunk.length));
+    }
+
+    @Test
+    void emptyBodyIsEmptyText() {
+        assertEquals("", new TextBodyDecoder(0).finish());
+    }
+}
@@ -0,0 +1,96 @@
+package org.example.chatft.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WireCodecTest {
+
+    @Test
+    void roundTripsHeaderAndFields() {
+        byte[] payload = {0, 1, 2, (byte) 0xFF};
+        byte[] datagram = new WireEncoder(MessageType.GMSG)
+                .writeVarInt(300)
+                .writeVarLong(Long.MAX_VALUE)
+                .writeInt(-2)
+                .writeLong(0x0123456789ABCDEFL)
+                .writeString("nhóm chat")
+                .writeString(null)
+                .writeBytes(payload)
+                .stamp(0xCAFEBABE12345678L, -7)
+                .toByteArray();
+
+        WireDecoder in = new WireDecoder(ByteBuffer.wrap(datagram));
+        assertEquals(MessageType.GMSG, in.type());
+        assertEquals(0xCAFEBABE12345678L, in.peerId());
+        assertEquals(-7, in.sequence());
+        assertEquals(300, in.readVarInt());
+        assertEquals(Long.MAX_VALUE, in.readVarLong());
+        assertEquals(-2, in.readInt());
+        assertEquals(0x0123456789ABCDEFL, in.readLong());
+        assertEquals("nhóm chat", in.readString());
+        assertEquals("", in.readString());
+        assertArrayEquals(payload, in.readBytes());
+        assertFalse(in.hasRemaining());
+    }
+
+    @Test
+    void varIntKeepsAllThirtyTwoBits() {
+        byte[] datagram = new WireEncoder(MessageType.ONLINE)
+                .writeVarInt(-1)
+                .writeVarInt(Integer.MIN_VALUE)
+                .writeVarInt(0)
+                .toByteArray();
+
+        WireDecoder in = new WireDecoder(ByteBuffer.wrap(datagram));
+        assertEquals(-1, in.readVarInt());
+        assertEquals(Integer.MIN_VALUE, in.readVarInt());
+        assertEquals(0, in.readVarInt());
+    }
+
+    @Test
+    void readsStringsFromDirectBuffers() {
+        String longer = "x".repeat(1000);
+        byte[] datagram = new WireEncoder(MessageType.GMSG)
+                .writeString("short")
+                .writeString(longer)
+                .toByteArray();
+        ByteBuffer direct = ByteBuffer.allocateDirect(datagram.length).put(datagram).flip();
+
+        WireDecoder in = new WireDecoder(direct);
+        assertEquals("short", in.readString());
+        assertEquals(longer, in.readString());
+    }
+
+    @Test
+    void rejectsBadHeaders() {
+        byte[] datagram = new WireEncoder(MessageType.ONLINE).toByteArray();
+
+        assertThrows(WireFormatException.class,
+                () -> new WireDecoder(ByteBuffer.wrap(datagram, 0, WireEncoder.HEADER_SIZE - 1)));
+
+        datagram[0] = WireEncoder.VERSION + 1;
+        assertThrows(WireFormatException.class, () -> new WireDecoder(ByteBuffer.wrap(datagram)));
+
+        datagram[0] = WireEncoder.VERSION;
+        datagram[1] = (byte) 0x7F;
+        assertThrows(WireFormatException.class, () -> new WireDecoder(ByteBuffer.wrap(datagram)));
+    }
+
+    @Test
+    void rejectsTruncatedFields() {
+        byte[] datagram = new WireEncoder(MessageType.GMSG).writeString("hello").toByteArray();
+        WireDecoder cut = new WireDecoder(ByteBuffer.wrap(datagram, 0, datagram.length - 1));
+        assertThrows(WireFormatException.class, cut::readString);
+
+        byte[] unfinished = new WireEncoder(MessageType.GMSG).writeInt(0xFFFFFFFF).toByteArray();
+        WireDecoder varint = new WireDecoder(ByteBuffer.wrap(unfinished));
+        assertThrows(WireFormatException.class, varint::readVarLong);
+
+        WireDecoder empty = new WireDecoder(ByteBuffer.wrap(new WireEncoder(MessageType.GMSG).toByteArray()));
+        assertThrows(WireFormatException.class, empty::readInt);
+        assertThrows(WireFormatException.class, empty::readLong);
+    }
+}
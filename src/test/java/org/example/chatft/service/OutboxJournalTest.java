@@ -0,0 +1,138 @@
+package org.example.chatft.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboxJournalTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void reopenGivesBackWhatWasNotDelivered() throws IOException {
+        Path file = dir.resolve("bob.messages.journal");
+        try (OutboxJournal journal = OutboxJournal.create(file, "bob")) {
+            OutboxJournal.Entry first = journal.append(OutboxJournal.MESSAGE, "first");
+            journal.append(OutboxJournal.FILE, "/tmp/photo.jpg");
+            journal.append(OutboxJournal.MESSAGE, "xin chào");
+            journal.delivered(first.id());
+        }
+
+        try (OutboxJournal journal = OutboxJournal.open(file)) {
+            assertEquals("bob", journal.nickname());
+            List<OutboxJournal.Entry> pending = journal.pending();
+            assertEquals(2, pending.size());
+            assertEquals(OutboxJournal.FILE, pending.get(0).kind());
+            assertEquals("/tmp/photo.jpg", pending.get(0).value());
+            assertEquals("xin chào", pending.get(1).value());
+
+            // Ids keep increasing after a reopen, so a DELIVERED record never hits an older entry
+            OutboxJournal.Entry next = journal.append(OutboxJournal.MESSAGE, "after reopen");
+            assertTrue(next.id() > pending.get(1).id());
+        }
+    }
+
+    @Test
+    void truncatesARecordCutShort() throws IOException {
+        Path file = dir.resolve("bob.messages.journal");
+        try (OutboxJournal journal = OutboxJournal.create(file, "bob")) {
+            journal.append(OutboxJournal.MESSAGE, "whole");
+        }
+        long intact = Files.size(file);
+        append(file, ByteBuffer.allocate(8).putInt(40).put(OutboxJournal.MESSAGE).put((byte) 1).flip());
+
+        try (OutboxJournal journal = OutboxJournal.open(file)) {
+            assertEquals(1, journal.pending().size());
+            assertEquals("whole", journal.pending().get(0).value());
+            assertEquals(intact, Files.size(file));
+
+            journal.append(OutboxJournal.MESSAGE, "written after the cut");
+        }
+        try (OutboxJournal journal = OutboxJournal.open(file)) {
+            assertEquals(2, journal.pending().size());
+            assertEquals("written after the cut", journal.pending().get(1).value());
+        }
+    }
+
+    @Test
+    void stopsAtGarbageAndDropsEverythingAfterIt() throws IOException {
+        Path file = dir.resolve("bob.messages.journal");
+        try (OutboxJournal journal = OutboxJournal.create(file, "bob")) {
+            journal.append(OutboxJournal.MESSAGE, "kept");
+        }
+        long intact = Files.size(file);
+        append(file, ByteBuffer.allocate(4).putInt(3).flip()); // shorter than a record header
+
+        try (OutboxJournal journal = OutboxJournal.open(file)) {
+            assertEquals(1, journal.pending().size());
+            assertEquals(intact, Files.size(file));
+        }
+    }
+
+    @Test
+    void skipsAnOversizedRecordButKeepsTheOnesAfterIt() throws IOException {
+        Path file = dir.resolve("bob.messages.journal");
+        try (OutboxJournal journal = OutboxJournal.create(file, "bob")) {
+            journal.append(OutboxJournal.MESSAGE, "before");
+        }
+        int payload = (int) OutboxJournal.MAX_VALUE_BYTES + 1;
+        ByteBuffer oversized = ByteBuffer.allocate(4 + 9 + payload);
+        oversized.putInt(9 + payload).put(OutboxJournal.MESSAGE).putLong(99).position(oversized.limit()).flip();
+        append(file, oversized);
+        try (OutboxJournal journal = OutboxJournal.open(file)) {
+            journal.append(OutboxJournal.MESSAGE, "after");
+        }
+
+        try (OutboxJournal journal = OutboxJournal.open(file)) {
+            List<OutboxJournal.Entry> pending = journal.pending();
+            assertEquals(2, pending.size());
+            assertEquals("before", pending.get(0).value());
+            assertEquals("after", pending.get(1).value());
+        }
+    }
+
+    @Test
+    void refusesValuesOverTheLimit() throws IOException {
+        Path file = dir.resolve("bob.messages.journal");
+        try (OutboxJournal journal = OutboxJournal.create(file, "bob")) {
+            String tooLong = "x".repeat((int) OutboxJournal.MAX_VALUE_BYTES + 1);
+            assertThrows(IOException.class, () -> journal.append(OutboxJournal.MESSAGE, tooLong));
+            journal.append(OutboxJournal.MESSAGE, "fine");
+        }
+        try (OutboxJournal journal = OutboxJournal.open(file)) {
+            assertEquals(1, journal.pending().size());
+        }
+    }
+
+    @Test
+    void rejectsAFileWithoutPeerRecord() throws IOException {
+        Path file = dir.resolve("empty.messages.journal");
+        Files.createFile(file);
+        assertThrows(IOException.class, () -> OutboxJournal.open(file));
+    }
+
+    @Test
+    void deleteRemovesTheFile() throws IOException {
+        Path file = dir.resolve("bob.messages.journal");
+        OutboxJournal journal = OutboxJournal.create(file, "bob");
+        journal.delete();
+        assertFalse(Files.exists(file));
+    }
+
+    private static void append(Path file, ByteBuffer bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.APPEND)) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+    }
+}
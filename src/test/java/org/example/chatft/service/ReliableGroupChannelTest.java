@@ -0,0 +1,115 @@
+package org.example.chatft.service;
+
+import org.example.chatft.config.NetworkConfig;
+import org.example.chatft.model.GroupMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReliableGroupChannelTest {
+    private static final long SENDER = 7;
+
+    private final List<String> delivered = new ArrayList<>();
+    private final List<int[]> nacks = new ArrayList<>();
+    // Timer never started: the test drives sendDueNacks itself
+    private final ReliableGroupChannel channel = new ReliableGroupChannel(null, m -> delivered.add(m.getContent())) {
+        @Override
+        void sendNack(long peerId, int[] ranges) {
+            assertEquals(SENDER, peerId);
+            nacks.add(ranges);
+        }
+    };
+    private long clock = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+
+    @Test
+    void deliversInOrderAndHoldsBackAfterAGap() {
+        receive(0);
+        receive(2);
+        assertEquals(List.of("m0"), delivered);
+
+        receive(1);
+        assertEquals(List.of("m0", "m1", "m2"), delivered);
+        tick();
+        assertTrue(nacks.isEmpty());
+    }
+
+    @Test
+    void nacksTheMissingRanges() {
+        receive(0);
+        receive(3);
+        receive(5);
+
+        tick();
+        assertEquals(1, nacks.size());
+        assertArrayEquals(new int[]{1, 2, 4, 1}, nacks.get(0));
+    }
+
+    @Test
+    void secondGapGetsItsOwnNacksAfterGivingUpOnTheFirst() {
+        receive(0);
+        receive(2);
+        receive(4);
+
+        nackUntilGivenUp();
+        assertEquals(NetworkConfig.RELIABLE_MAX_NACK_ATTEMPTS, nacks.size());
+        assertEquals(List.of("m0", "m2"), delivered);
+
+        nacks.clear();
+        tick();
+        assertEquals(1, nacks.size(), "the hole at 3 is NACKed, not skipped");
+        assertArrayEquals(new int[]{3, 1}, nacks.get(0));
+
+        receive(3);
+        assertEquals(List.of("m0", "m2", "m3", "m4"), delivered);
+    }
+
+    @Test
+    void repairOfTheFirstGapRestartsTheCountForTheNext() {
+        receive(0);
+        receive(2);
+        receive(4);
+        for (int i = 1; i < NetworkConfig.RELIABLE_MAX_NACK_ATTEMPTS; i++) {
+            tick();
+        }
+
+        receive(1); // repaired on the last attempt
+        assertEquals(List.of("m0", "m1", "m2"), delivered);
+
+        nacks.clear();
+        nackUntilGivenUp();
+        assertEquals(NetworkConfig.RELIABLE_MAX_NACK_ATTEMPTS, nacks.size());
+        assertArrayEquals(new int[]{3, 1}, nacks.get(0));
+        assertEquals(List.of("m0", "m1", "m2", "m4"), delivered);
+    }
+
+    @Test
+    void lostTailIsNackedToo() {
+        receive(0);
+        channel.onTail(SENDER, 2);
+
+        tick();
+        assertEquals(1, nacks.size());
+        assertArrayEquals(new int[]{1, 2}, nacks.get(0));
+    }
+
+    private void nackUntilGivenUp() {
+        int before = delivered.size();
+        for (int i = 0; i < 100 && delivered.size() == before; i++) {
+            tick();
+        }
+    }
+
+    private void receive(int seq) {
+        channel.receive(SENDER, seq, new GroupMessage("g", "alice", "m" + seq));
+    }
+
+    // Far enough apart that every open gap is due
+    private void tick() {
+        clock += 10 * NetworkConfig.RELIABLE_NACK_INTERVAL_MS;
+        channel.sendDueNacks(clock);
+    }
+}
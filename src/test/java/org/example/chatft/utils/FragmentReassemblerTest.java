@@ -0,0 +1,96 @@
+package org.example.chatft.utils;
+
+import org.example.chatft.config.NetworkConfig;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FragmentReassemblerTest {
+    private final FragmentReassembler reassembler = new FragmentReassembler();
+
+    @Test
+    void rebuildsTheDatagramWhateverTheArrivalOrder() {
+        assertNull(reassembler.accept(1, 7, 2, 3, bytes(5, 6)));
+        assertNull(reassembler.accept(1, 7, 0, 3, bytes(1, 2)));
+        ByteBuffer whole = reassembler.accept(1, 7, 1, 3, bytes(3, 4));
+
+        assertNotNull(whole);
+        assertArrayEquals(bytes(1, 2, 3, 4, 5, 6), toArray(whole));
+    }
+
+    @Test
+    void ignoresRepeatedFragments() {
+        assertNull(reassembler.accept(1, 7, 0, 2, bytes(1)));
+        assertNull(reassembler.accept(1, 7, 0, 2, bytes(9)));
+        assertArrayEquals(bytes(1, 2), toArray(reassembler.accept(1, 7, 1, 2, bytes(2))));
+
+        // Completed messages are forgotten: a late copy starts a new partial, not a second delivery
+        assertNull(reassembler.accept(1, 7, 1, 2, bytes(2)));
+    }
+
+    @Test
+    void keepsMessagesOfDifferentSendersAndSequencesApart() {
+        assertNull(reassembler.accept(1, 7, 0, 2, bytes(1)));
+        assertNull(reassembler.accept(2, 7, 0, 2, bytes(2)));
+        assertNull(reassembler.accept(1, 8, 0, 2, bytes(3)));
+
+        assertArrayEquals(bytes(2, 20), toArray(reassembler.accept(2, 7, 1, 2, bytes(20))));
+        assertArrayEquals(bytes(1, 10), toArray(reassembler.accept(1, 7, 1, 2, bytes(10))));
+        assertArrayEquals(bytes(3, 30), toArray(reassembler.accept(1, 8, 1, 2, bytes(30))));
+    }
+
+    @Test
+    void rejectsMalformedFragments() {
+        assertNull(reassembler.accept(1, 7, 0, 1, bytes(1)), "a single fragment is not fragmented");
+        assertNull(reassembler.accept(1, 7, 0, NetworkConfig.FRAGMENT_MAX_COUNT + 1, bytes(1)));
+        assertNull(reassembler.accept(1, 7, 2, 2, bytes(1)));
+        assertNull(reassembler.accept(1, 7, -1, 2, bytes(1)));
+
+        assertNull(reassembler.accept(1, 7, 0, 2, bytes(1)));
+        assertNull(reassembler.accept(1, 7, 1, 3, bytes(2)), "count differs from the first fragment");
+        assertArrayEquals(bytes(1, 2), toArray(reassembler.accept(1, 7, 1, 2, bytes(2))));
+    }
+
+    @Test
+    void dropsMessagesOverTheSizeLimit() {
+        int half = NetworkConfig.FRAGMENT_MAX_MESSAGE_SIZE / 2;
+        assertNull(reassembler.accept(1, 7, 0, 3, new byte[half]));
+        assertNull(reassembler.accept(1, 7, 1, 3, new byte[half]));
+        assertNull(reassembler.accept(1, 7, 2, 3, new byte[1]));
+
+        // The partial was discarded, so the first two fragments are needed again
+        assertNull(reassembler.accept(1, 7, 0, 3, new byte[1]));
+        assertNull(reassembler.accept(1, 7, 1, 3, new byte[1]));
+        assertNotNull(reassembler.accept(1, 7, 2, 3, new byte[1]));
+    }
+
+    @Test
+    void evictsTheOldestPartialsWhenMemoryIsFull() {
+        int chunk = NetworkConfig.FRAGMENT_MAX_MESSAGE_SIZE / 2;
+        int partials = (int) (NetworkConfig.FRAGMENT_MAX_PENDING_BYTES / chunk) + 1;
+        for (int seq = 0; seq < partials; seq++) {
+            assertNull(reassembler.accept(1, seq, 0, 2, new byte[chunk]));
+        }
+
+        // Oldest one went to make room, the newest one is still there
+        assertNull(reassembler.accept(1, 0, 1, 2, new byte[1]));
+        assertNotNull(reassembler.accept(1, partials - 1, 1, 2, new byte[1]));
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (byte) values[i];
+        }
+        return result;
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        assertNotNull(buffer);
+        byte[] result = new byte[buffer.remaining()];
+        buffer.get(result);
+        return result;
+    }
+}
@@ -0,0 +1,80 @@
+package org.example.chatft.utils;
+
+import org.example.chatft.config.NetworkConfig;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageDeduplicatorTest {
+    private static final int WINDOW = NetworkConfig.DEDUP_WINDOW_SIZE;
+
+    private final MessageDeduplicator dedup = new MessageDeduplicator();
+
+    @Test
+    void dropsRepeatsAndKeepsLateArrivalsInsideTheWindow() {
+        assertFalse(dedup.isDuplicate(1, 10));
+        assertTrue(dedup.isDuplicate(1, 10));
+
+        assertFalse(dedup.isDuplicate(1, 13));
+        assertFalse(dedup.isDuplicate(1, 12)); // reordered, not a copy
+        assertFalse(dedup.isDuplicate(1, 11));
+        assertTrue(dedup.isDuplicate(1, 12));
+        assertTrue(dedup.isDuplicate(1, 13));
+    }
+
+    @Test
+    void treatsSequencesBehindTheWindowAsDuplicates() {
+        assertFalse(dedup.isDuplicate(1, 0));
+        assertFalse(dedup.isDuplicate(1, WINDOW + 5));
+
+        assertTrue(dedup.isDuplicate(1, 5), "too old to tell");
+        assertFalse(dedup.isDuplicate(1, 6)); // oldest still in the window
+    }
+
+    @Test
+    void slidingForgetsOnlyWhatLeftTheWindow() {
+        for (int seq = 0; seq < 10; seq++) {
+            assertFalse(dedup.isDuplicate(1, seq));
+        }
+        assertFalse(dedup.isDuplicate(1, WINDOW));     // slot of 0 reused, 1..9 still remembered
+        assertTrue(dedup.isDuplicate(1, 9));
+        assertFalse(dedup.isDuplicate(1, WINDOW - 1)); // skipped over, never seen
+
+        assertFalse(dedup.isDuplicate(1, 10 * WINDOW)); // jump clears everything
+        assertFalse(dedup.isDuplicate(1, 10 * WINDOW - 1));
+        assertTrue(dedup.isDuplicate(1, 10 * WINDOW));
+    }
+
+    @Test
+    void followsTheSequenceAcrossTheIntWrap() {
+        assertFalse(dedup.isDuplicate(1, Integer.MAX_VALUE - 1));
+        assertFalse(dedup.isDuplicate(1, Integer.MAX_VALUE));
+        assertFalse(dedup.isDuplicate(1, Integer.MIN_VALUE));
+        assertFalse(dedup.isDuplicate(1, Integer.MIN_VALUE + 1));
+
+        assertTrue(dedup.isDuplicate(1, Integer.MAX_VALUE));
+        assertTrue(dedup.isDuplicate(1, Integer.MIN_VALUE));
+    }
+
+    @Test
+    void keepsSendersApartAndForgetsOnRequest() {
+        assertFalse(dedup.isDuplicate(1, 100));
+        assertFalse(dedup.isDuplicate(2, 100));
+        assertTrue(dedup.isDuplicate(1, 100));
+
+        dedup.forget(1);
+        assertFalse(dedup.isDuplicate(1, 100)); // a restarted sender starts over
+        assertTrue(dedup.isDuplicate(2, 100));
+    }
+
+    @Test
+    void evictsTheLeastRecentSenderWhenFull() {
+        long active = 42;
+        assertFalse(dedup.isDuplicate(active, 1));
+        for (long peer = 1000; peer < 1000 + 4L * NetworkConfig.DEDUP_MAX_PEERS; peer++) {
+            assertFalse(dedup.isDuplicate(peer, 1));
+            dedup.isDuplicate(active, 1); // keeps it the most recent one
+        }
+        assertTrue(dedup.isDuplicate(active, 1));
+    }
+}